@@ -0,0 +1,424 @@
+package indexer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class reads search results written by BinaryResultWriter, one result
+ * at a time, so memory use stays the same no matter how many results the
+ * stream holds. Results can also be skipped without being decoded, or all
+ * read into a ResultStruct with readAll().
+ * @author Eric Gunn
+ *
+ */
+public class BinaryResultReader implements Closeable {
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_RECORD_SIZE = 4096;
+	
+	private InputStream in;
+	private Inflater inflater;
+	private String extension;
+	private String query;
+	private String directory;
+	//the record being read, reused for every result
+	private byte[] record = new byte[INITIAL_RECORD_SIZE];
+	private int position;
+	private int limit;
+	private int numResults;
+	private boolean ended;
+	
+	/**
+	 * Constructor for a BinaryResultReader object, which reads the details
+	 * of the search at the start of the stream
+	 * @param in where the results are read from
+	 * @throws IOException if the stream could not be read or was not
+	 * written by a BinaryResultWriter
+	 */
+	public BinaryResultReader(InputStream in) throws IOException {
+		byte[] magic = new byte[BinaryResultWriter.MAGIC.length];
+		readFully(in, magic, magic.length);
+		if(!Arrays.equals(magic, BinaryResultWriter.MAGIC)) {
+			throw new IOException("Not a binary result stream");
+		}
+		int version = in.read();
+		if(version != BinaryResultWriter.VERSION) {
+			throw new IOException("Unsupported binary result version: "
+					+ version);
+		}
+		int flags = in.read();
+		if(flags < 0) {
+			throw new EOFException();
+		}
+		if((flags & BinaryResultWriter.FLAG_COMPRESSED) != 0) {
+			this.inflater = new Inflater();
+			this.in = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+		}
+		else {
+			this.in = new BufferedInputStream(in, BUFFER_SIZE);
+		}
+		
+		//the details of the search are not length prefixed
+		this.extension = readStreamString();
+		this.query = readStreamString();
+		this.directory = readStreamString();
+	}
+	
+	/**
+	 * Reads every result of a stream written by BinaryResultWriter into a
+	 * ResultStruct. The stream is closed
+	 * @param in where the results are read from
+	 * @return ResultStruct the results, the same as those written
+	 * @throws IOException if the stream could not be read
+	 */
+	public static ResultStruct read(InputStream in) throws IOException {
+		BinaryResultReader reader = new BinaryResultReader(in);
+		try {
+			return reader.readAll();
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Getter method for the extension that was searched
+	 * @return String extension
+	 */
+	public String getExtension() {
+		return extension;
+	}
+	
+	/**
+	 * Getter method for the query that was searched for
+	 * @return String query
+	 */
+	public String getQuery() {
+		return query;
+	}
+	
+	/**
+	 * Getter method for the directory that was searched
+	 * @return String directory
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Getter method for number of results read or skipped so far
+	 * @return int number of results
+	 */
+	public int getNumResults() {
+		return numResults;
+	}
+	
+	/**
+	 * Reads the next result
+	 * @return InnerStruct the result, or null once every result was read
+	 * @throws IOException if the stream could not be read
+	 */
+	public ResultStruct.InnerStruct next() throws IOException {
+		if(!nextRecord()) {
+			return null;
+		}
+		ResultStruct.InnerStruct inner =
+				new ResultStruct.InnerStruct(readString());
+		inner.setBuffer(readString());
+		inner.setLineStart(readSigned());
+		inner.setLineEnd(readSigned());
+		inner.setQueryLine(readSigned());
+		inner.setNumLines(readSigned());
+		inner.setHits(readHits());
+		return inner;
+	}
+	
+	/**
+	 * Skips the next result without decoding it
+	 * @return boolean false once every result was read
+	 * @throws IOException if the stream could not be read
+	 */
+	public boolean skip() throws IOException {
+		if(ended) {
+			return false;
+		}
+		int tag = in.read();
+		if(tag != BinaryResultWriter.TAG_RESULT) {
+			readEnd(tag);
+			return false;
+		}
+		long length = readStreamUnsigned();
+		while(length > 0) {
+			long skipped = in.skip(length);
+			if(skipped <= 0) {
+				if(in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+		numResults++;
+		return true;
+	}
+	
+	/**
+	 * Reads every remaining result into a ResultStruct
+	 * @return ResultStruct the results, in the order they were written
+	 * @throws IOException if the stream could not be read
+	 */
+	public ResultStruct readAll() throws IOException {
+		List<String> fileNames = new ArrayList<String>();
+		List<String> buffers = new ArrayList<String>();
+		IntList startLines = new IntList();
+		IntList endLines = new IntList();
+		IntList queryLines = new IntList();
+		IntList numLines = new IntList();
+		List<List<TextBuffer.Hit>> hits = new ArrayList<List<TextBuffer.Hit>>();
+		boolean anyHits = false;
+		while(nextRecord()) {
+			fileNames.add(readString());
+			buffers.add(readString());
+			startLines.add(readSigned());
+			endLines.add(readSigned());
+			queryLines.add(readSigned());
+			numLines.add(readSigned());
+			List<TextBuffer.Hit> fileHits = readHits();
+			anyHits |= fileHits != null;
+			hits.add(fileHits);
+		}
+		return new ResultStruct(fileNames.toArray(new String[0]),
+				buffers.toArray(new String[0]), startLines.toArray(),
+				endLines.toArray(), queryLines.toArray(), numLines.toArray(),
+				anyHits ? hits : null, extension, directory, query);
+	}
+	
+	/**
+	 * Closes the InputStream
+	 * @throws IOException if the stream could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			in.close();
+		}
+		finally {
+			if(inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+	
+	/**
+	 * Helper method that reads the next record into memory
+	 * @return boolean false once the end of the results was read
+	 * @throws IOException if the stream could not be read
+	 */
+	private boolean nextRecord() throws IOException {
+		if(ended) {
+			return false;
+		}
+		int tag = in.read();
+		if(tag != BinaryResultWriter.TAG_RESULT) {
+			readEnd(tag);
+			return false;
+		}
+		long length = readStreamUnsigned();
+		if(length > Integer.MAX_VALUE - 8) {
+			throw new IOException("Result record is too large: " + length);
+		}
+		if(length > record.length) {
+			record = new byte[Math.max((int) length, record.length * 2)];
+		}
+		readFully(in, record, (int) length);
+		position = 0;
+		limit = (int) length;
+		numResults++;
+		return true;
+	}
+	
+	/**
+	 * Helper method that reads the end of the results and checks the
+	 * number of results written there
+	 * @param tag the tag byte that was read instead of a result
+	 * @throws IOException if the stream ended early or was not valid
+	 */
+	private void readEnd(int tag) throws IOException {
+		if(tag < 0) {
+			throw new EOFException("Binary result stream ended early");
+		}
+		if(tag != BinaryResultWriter.TAG_END) {
+			throw new IOException("Invalid binary result tag: " + tag);
+		}
+		ended = true;
+		long written = readStreamUnsigned();
+		if(written != numResults) {
+			throw new IOException("Binary result stream holds " + written
+					+ " results but " + numResults + " were read");
+		}
+	}
+	
+	/**
+	 * Helper method that reads the hits of the current record
+	 * @return List the hits, or null if only the first hit was searched for
+	 * @throws IOException if the record was not valid
+	 */
+	private List<TextBuffer.Hit> readHits() throws IOException {
+		int numHits = readUnsigned();
+		if(numHits == 0) {
+			return null;
+		}
+		List<TextBuffer.Hit> hits = new ArrayList<TextBuffer.Hit>(numHits - 1);
+		for(int i = 0; i < numHits - 1; i++) {
+			String buffer = readString();
+			int startLine = readSigned();
+			int endLine = readSigned();
+			int numQueryLines = readUnsigned();
+			List<Integer> queryLines = new ArrayList<Integer>(numQueryLines);
+			for(int j = 0; j < numQueryLines; j++) {
+				queryLines.add(readSigned());
+			}
+			hits.add(new TextBuffer.Hit(buffer, startLine, endLine,
+					queryLines));
+		}
+		return hits;
+	}
+	
+	/**
+	 * Helper method that reads a variable-length integer of the current
+	 * record
+	 * @return int the integer
+	 * @throws IOException if the record ended early
+	 */
+	private int readUnsigned() throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < Integer.SIZE; shift += 7) {
+			if(position >= limit) {
+				throw new IOException("Result record ended early");
+			}
+			int b = record[position++];
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid variable-length integer");
+	}
+	
+	/**
+	 * Helper method that reads a zigzag encoded integer of the current
+	 * record
+	 * @return int the integer
+	 * @throws IOException if the record ended early
+	 */
+	private int readSigned() throws IOException {
+		int value = readUnsigned();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Helper method that reads a string of the current record
+	 * @return String the string, or null
+	 * @throws IOException if the record ended early
+	 */
+	private String readString() throws IOException {
+		int length = readUnsigned() - 1;
+		if(length < 0) {
+			return null;
+		}
+		if(length > limit - position) {
+			throw new IOException("Result record ended early");
+		}
+		String value = new String(record, position, length,
+				StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+	
+	/**
+	 * Helper method that reads a variable-length integer from the stream
+	 * @return long the integer
+	 * @throws IOException if the stream ended early
+	 */
+	private long readStreamUnsigned() throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < Integer.SIZE; shift += 7) {
+			int b = in.read();
+			if(b < 0) {
+				throw new EOFException("Binary result stream ended early");
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid variable-length integer");
+	}
+	
+	/**
+	 * Helper method that reads a string from the stream
+	 * @return String the string, or null
+	 * @throws IOException if the stream ended early
+	 */
+	private String readStreamString() throws IOException {
+		long length = readStreamUnsigned() - 1;
+		if(length < 0) {
+			return null;
+		}
+		if(length > record.length) {
+			record = new byte[(int) length];
+		}
+		readFully(in, record, (int) length);
+		return new String(record, 0, (int) length, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Helper method that reads an exact number of bytes
+	 * @param in the stream to be read
+	 * @param bytes where the bytes are read into
+	 * @param length number of bytes to be read
+	 * @throws IOException if the stream ended early
+	 */
+	private static void readFully(InputStream in, byte[] bytes, int length)
+			throws IOException {
+		int read = 0;
+		while(read < length) {
+			int n = in.read(bytes, read, length - read);
+			if(n < 0) {
+				throw new EOFException("Binary result stream ended early");
+			}
+			read += n;
+		}
+	}
+	
+	/**
+	 * A growable list of ints, so readAll() does not box every line number
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class IntList {
+		
+		private int[] values = new int[INITIAL_RECORD_SIZE];
+		private int size;
+		
+		void add(int value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+		
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class writes search results in a compact binary form straight to an
+ * OutputStream, one result at a time, the same way JsonResultWriter writes
+ * JSON. Memory use stays the same no matter how many results are written.
+ * The results are read back with BinaryResultReader.
+ *
+ * The stream starts with the 4 bytes "IXRS", a version byte and a flags
+ * byte. If the compressed flag is set, everything after is deflated. Then
+ * come the extension, query and directory, then one record per result:
+ * a RESULT tag byte, the length of the record in bytes and the record
+ * itself, so a reader can skip a result without decoding it. An END tag
+ * and the number of results close the stream.
+ *
+ * Numbers are written as variable-length integers, line numbers zigzag
+ * encoded so negative values stay short. Strings are written as their
+ * length in UTF-8 bytes plus one, 0 standing for null, then the bytes. A
+ * record holds the file name, buffer, line start, line end, query line
+ * and number of lines, then the number of hits plus one, 0 if only the
+ * first hit was searched for, and for each hit its buffer, start and end
+ * lines and query lines.
+ * @author Eric Gunn
+ *
+ */
+public class BinaryResultWriter implements Closeable {
+	
+	static final byte[] MAGIC = {'I', 'X', 'R', 'S'};
+	static final int VERSION = 1;
+	static final int FLAG_COMPRESSED = 1;
+	static final int TAG_END = 0;
+	static final int TAG_RESULT = 1;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int RECORD_SIZE = 4096;
+	
+	private OutputStream out;
+	private Deflater deflater;
+	//the record being written, reused for every result
+	private Record record = new Record();
+	private int numResults;
+	private boolean begun;
+	private boolean ended;
+	
+	/**
+	 * Constructor for a BinaryResultWriter object
+	 * @param out where the results are written
+	 * @param compress true to deflate everything after the first 6 bytes
+	 * @throws IOException if the start of the stream could not be written
+	 */
+	public BinaryResultWriter(OutputStream out, boolean compress)
+			throws IOException {
+		out.write(MAGIC);
+		out.write(VERSION);
+		out.write(compress ? FLAG_COMPRESSED : 0);
+		if(compress) {
+			this.deflater = new Deflater(Deflater.BEST_SPEED);
+			this.out = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+		}
+		else {
+			this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+		}
+	}
+	
+	/**
+	 * Writes a ResultStruct in binary form to an OutputStream. The stream is
+	 * closed
+	 * @param res the results of a search
+	 * @param out where the results are written
+	 * @param compress true to deflate the results
+	 * @throws IOException if the results could not be written
+	 */
+	public static void write(ResultStruct res, OutputStream out,
+			boolean compress) throws IOException {
+		BinaryResultWriter writer = new BinaryResultWriter(out, compress);
+		try {
+			writer.begin(res.getExtension(), res.getQuery(),
+					res.getDirectory());
+			for(int i = 0; i < res.getNumResults(); i++) {
+				writer.writeResult(res, i);
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes the details of the search, before any result
+	 * @param extension file extension that was searched
+	 * @param query search string
+	 * @param directory file directory that was searched
+	 * @throws IOException if the results could not be written
+	 */
+	public void begin(String extension, String query, String directory)
+			throws IOException {
+		if(begun) {
+			throw new IllegalStateException("Results were already begun");
+		}
+		begun = true;
+		record.reset();
+		record.writeString(extension);
+		record.writeString(query);
+		record.writeString(directory);
+		record.writeTo(out);
+	}
+	
+	/**
+	 * Writes one result
+	 * @param inner the result of a single file
+	 * @throws IOException if the results could not be written
+	 */
+	public void writeResult(ResultStruct.InnerStruct inner)
+			throws IOException {
+		writeResult(inner.getFileName(), inner.getBuffer(),
+				inner.getLineStart(), inner.getLineEnd(),
+				inner.getQueryLine(), inner.getNumLines(), inner.getHits());
+	}
+	
+	/**
+	 * Writes one result of a ResultStruct
+	 * @param results the results of a search
+	 * @param i rank of the result to be written
+	 * @throws IOException if the results could not be written
+	 */
+	public void writeResult(ResultStruct results, int i) throws IOException {
+		writeResult(results.getFileName(i), results.getBuffer(i),
+				results.getLineStart(i), results.getLineEnd(i),
+				results.getQueryLine(i), results.getNumLines(i),
+				results.getHits(i));
+	}
+	
+	/**
+	 * Writes one result
+	 * @param fileName name of the file
+	 * @param buffer block of text wrapping the query string
+	 * @param lineStart starting line number of the buffer
+	 * @param lineEnd ending line number of the buffer
+	 * @param queryLine line number of the query string
+	 * @param numLines number of lines in the buffer
+	 * @param hits every hit in the file, or null if only the first hit was
+	 * searched for
+	 * @throws IOException if the results could not be written
+	 */
+	public void writeResult(String fileName, String buffer, int lineStart,
+			int lineEnd, int queryLine, int numLines,
+			List<TextBuffer.Hit> hits) throws IOException {
+		if(!begun || ended) {
+			throw new IllegalStateException("Results must be written between"
+					+ " begin() and end()");
+		}
+		numResults++;
+		
+		record.reset();
+		record.writeString(fileName);
+		record.writeString(buffer);
+		record.writeSigned(lineStart);
+		record.writeSigned(lineEnd);
+		record.writeSigned(queryLine);
+		record.writeSigned(numLines);
+		if(hits == null) {
+			record.writeUnsigned(0);
+		}
+		else {
+			record.writeUnsigned(hits.size() + 1);
+			for(TextBuffer.Hit hit : hits) {
+				record.writeString(hit.getBuffer());
+				record.writeSigned(hit.getStartLine());
+				record.writeSigned(hit.getEndLine());
+				List<Integer> queryLines = hit.getQueryLines();
+				record.writeUnsigned(queryLines.size());
+				for(int line : queryLines) {
+					record.writeSigned(line);
+				}
+			}
+		}
+		
+		out.write(TAG_RESULT);
+		writeUnsigned(out, record.size());
+		record.writeTo(out);
+	}
+	
+	/**
+	 * Writes the number of results and ends the stream
+	 * @throws IOException if the results could not be written
+	 */
+	public void end() throws IOException {
+		if(!begun) {
+			begin("", "", "");
+		}
+		if(ended) {
+			return;
+		}
+		ended = true;
+		out.write(TAG_END);
+		writeUnsigned(out, numResults);
+		if(out instanceof DeflaterOutputStream) {
+			((DeflaterOutputStream) out).finish();
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Ends the stream if it was not ended and closes the OutputStream
+	 * @throws IOException if the results could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			end();
+		}
+		finally {
+			out.close();
+			if(deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+	
+	/**
+	 * Getter method for number of results written so far
+	 * @return int number of results written
+	 */
+	public int getNumResults() {
+		return numResults;
+	}
+	
+	/**
+	 * Helper method that writes a variable-length integer, seven bits per
+	 * byte with the high bit set on every byte but the last
+	 * @param out where the integer is written
+	 * @param value the integer, treated as unsigned
+	 * @throws IOException if the integer could not be written
+	 */
+	static void writeUnsigned(OutputStream out, int value)
+			throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	/**
+	 * A record being built in memory before its length is known
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class Record extends ByteArrayOutputStream {
+		
+		Record() {
+			super(RECORD_SIZE);
+		}
+		
+		/**
+		 * Writes a variable-length integer
+		 * @param value the integer, treated as unsigned
+		 */
+		void writeUnsigned(int value) {
+			try {
+				BinaryResultWriter.writeUnsigned(this, value);
+			}
+			catch (IOException e) {
+				//writing to memory does not fail
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		/**
+		 * Writes a zigzag encoded variable-length integer
+		 * @param value the integer
+		 */
+		void writeSigned(int value) {
+			writeUnsigned((value << 1) ^ (value >> 31));
+		}
+		
+		/**
+		 * Writes a string as its length plus one and its UTF-8 bytes
+		 * @param value the string, or null
+		 */
+		void writeString(String value) {
+			if(value == null) {
+				writeUnsigned(0);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeUnsigned(bytes.length + 1);
+			write(bytes, 0, bytes.length);
+		}
+	}
+}
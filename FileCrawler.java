@@ -0,0 +1,462 @@
+package indexer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class lists the files of a directory that should be searched or
+ * indexed. Files are handed out lazily through an iterator while the
+ * directory is being read, so a directory of millions of entries is never
+ * held in memory at once. Subdirectories can be read as well, on one thread
+ * or fanned out over several, and files can be picked by glob patterns in
+ * addition to the file suffix. Links to directories are not followed, so
+ * a link back up the tree cannot make a crawl list the same files forever;
+ * links to files are listed like the files themselves, and broken links are
+ * left out.
+ * @author Eric Gunn
+ *
+ */
+public class FileCrawler {
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	private static final long POLL_MILLIS = 100;
+	//marker put on the queue when every directory has been read
+	private static final Path END_OF_FILES = new File("").toPath();
+
+	private String suffix;
+	private boolean recursive = false;
+	private int parallelism = 1;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private List<PathMatcher> includes = new ArrayList<PathMatcher>();
+	private List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+
+	/**
+	 * Constructor for a FileCrawler object that lists the files of the
+	 * given suffix in the top directory only
+	 * @param suffix the suffix or extension of the files to be listed, null
+	 * for every file
+	 */
+	public FileCrawler(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * Sets whether files in subdirectories are listed
+	 * @param recursive true to read every subdirectory
+	 */
+	public void setRecursive(boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	/**
+	 * Checks whether files in subdirectories are listed
+	 * @return boolean true if every subdirectory is read
+	 */
+	public boolean isRecursive() {
+		return recursive;
+	}
+
+	/**
+	 * Sets the number of threads reading directories at once. Values above 1
+	 * only matter when crawling recursively
+	 * @param parallelism number of directories read at once
+	 */
+	public void setParallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw(new IllegalArgumentException("Parallelism must be greater"
+					+ " or equal to 1."));
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Adds a glob pattern, such as "**.log" or "logs/*.txt", matched against
+	 * the path of a file relative to the crawled directory. If any include
+	 * pattern is added, a file is listed only if it matches one of them,
+	 * instead of by its suffix
+	 * @param glob the glob pattern
+	 */
+	public void addInclude(String glob) {
+		this.includes.add(FileSystems.getDefault().getPathMatcher(
+				"glob:" + glob));
+	}
+
+	/**
+	 * Adds a glob pattern matched against the path of a file or directory
+	 * relative to the crawled directory. Matching files are not listed and
+	 * matching directories are not read
+	 * @param glob the glob pattern
+	 */
+	public void addExclude(String glob) {
+		this.excludes.add(FileSystems.getDefault().getPathMatcher(
+				"glob:" + glob));
+	}
+
+	/**
+	 * Lists the files of a directory. The iterator should be closed in a
+	 * finally block, so that a crawl stopped early does not leave directories
+	 * open or reader threads waiting
+	 * @param dir the directory to crawl
+	 * @return FileIterator the files, in no particular order
+	 */
+	public FileIterator crawl(File dir) {
+		Path root = dir.toPath();
+		if(recursive && parallelism > 1) {
+			return new ParallelIterator(root);
+		}
+		return new SequentialIterator(root);
+	}
+
+	/**
+	 * Checks whether a crawl of a directory would list a file, for files
+	 * found some other way, such as by watching the directory
+	 * @param dir the crawled directory
+	 * @param f the file, which does not need to exist
+	 * @return boolean true if the file is inside the directory, not inside
+	 * an excluded subdirectory, and matches the patterns or suffix
+	 */
+	boolean accepts(File dir, File f) {
+		Path root = dir.toPath().toAbsolutePath().normalize();
+		Path path = f.toPath().toAbsolutePath().normalize();
+		Path parent = path.getParent();
+		if(parent == null || !parent.startsWith(root)) {
+			return false;
+		}
+		if(!recursive && !parent.equals(root)) {
+			return false;
+		}
+		for(Path p = parent; !p.equals(root); p = p.getParent()) {
+			if(!acceptDirectory(root, p)) {
+				return false;
+			}
+		}
+		return accept(root, path);
+	}
+
+	/**
+	 * Checks whether a file should be listed
+	 * @param root the crawled directory
+	 * @param path the file
+	 * @return boolean true if the file matches the patterns or suffix
+	 */
+	private boolean accept(Path root, Path path) {
+		Path relative = root.relativize(path);
+		for(PathMatcher exclude : excludes) {
+			if(exclude.matches(relative)) {
+				return false;
+			}
+		}
+		if(!includes.isEmpty()) {
+			for(PathMatcher include : includes) {
+				if(include.matches(relative)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return suffix == null || path.getFileName().toString().endsWith(suffix);
+	}
+
+	/**
+	 * Checks whether a subdirectory should be read
+	 * @param root the crawled directory
+	 * @param path the subdirectory
+	 * @return boolean true if the directory is not excluded
+	 */
+	private boolean acceptDirectory(Path root, Path path) {
+		Path relative = root.relativize(path);
+		for(PathMatcher exclude : excludes) {
+			if(exclude.matches(relative)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method that checks whether an entry of a directory is a
+	 * directory itself, without following links
+	 * @param path the entry
+	 * @return boolean true if the entry is a directory and not a link
+	 */
+	private static boolean isDirectory(Path path) {
+		return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	/**
+	 * Helper method that checks whether an entry of a directory can be
+	 * listed as a file, which links to directories and broken links cannot
+	 * @param path the entry, which is not a directory itself
+	 * @return boolean true if the entry is a file or a link to one
+	 */
+	private static boolean isFile(Path path) {
+		return Files.isRegularFile(path);
+	}
+
+	/**
+	 * Iterator over the files of a crawl. Closing it stops the crawl and
+	 * releases the directory streams and threads it holds, and can be done
+	 * at any point, including after the last file
+	 * @author Eric Gunn
+	 *
+	 */
+	public interface FileIterator extends Iterator<File>, Closeable {
+
+		@Override
+		void close();
+	}
+
+	/**
+	 * Iterator that reads directories on the calling thread, keeping one
+	 * open directory stream per level of depth
+	 * @author Eric Gunn
+	 *
+	 */
+	private class SequentialIterator implements FileIterator {
+
+		private Path root;
+		private Deque<DirectoryStream<Path>> streams =
+				new ArrayDeque<DirectoryStream<Path>>();
+		private Deque<Iterator<Path>> iterators =
+				new ArrayDeque<Iterator<Path>>();
+		private File next;
+
+		SequentialIterator(Path root) {
+			this.root = root;
+			open(root);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while(next == null && !iterators.isEmpty()) {
+				Iterator<Path> it = iterators.peek();
+				if(!it.hasNext()) {
+					iterators.pop();
+					close(streams.pop());
+					continue;
+				}
+				Path path = it.next();
+				if(isDirectory(path)) {
+					if(recursive && acceptDirectory(root, path)) {
+						open(path);
+					}
+				}
+				else if(isFile(path) && accept(root, path)) {
+					next = path.toFile();
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public File next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			File f = next;
+			next = null;
+			return f;
+		}
+
+		@Override
+		public void close() {
+			next = null;
+			iterators.clear();
+			UncheckedIOException failure = null;
+			while(!streams.isEmpty()) {
+				try {
+					close(streams.pop());
+				}
+				catch (UncheckedIOException e) {
+					//close the streams of the other levels first
+					failure = failure == null ? e : failure;
+				}
+			}
+			if(failure != null) {
+				throw failure;
+			}
+		}
+
+		private void open(Path dir) {
+			try {
+				DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+				streams.push(stream);
+				iterators.push(stream.iterator());
+			}
+			catch (IOException e) {
+				//unreadable directories are skipped, the same as listFiles()
+				e.printStackTrace();
+			}
+		}
+
+		private void close(DirectoryStream<Path> stream) {
+			try {
+				stream.close();
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Iterator fed by a pool of threads that each read one directory at a
+	 * time and hand its subdirectories back to the pool. Files go through a
+	 * bounded queue, so readers wait when the caller falls behind
+	 * @author Eric Gunn
+	 *
+	 */
+	private class ParallelIterator implements FileIterator {
+
+		private Path root;
+		private BlockingQueue<Path> queue =
+				new ArrayBlockingQueue<Path>(queueCapacity);
+		private ExecutorService readers =
+				Executors.newFixedThreadPool(parallelism, r -> {
+					Thread t = new Thread(r, "file-crawler");
+					t.setDaemon(true);
+					return t;
+				});
+		//directories submitted and not read yet
+		private AtomicInteger pending = new AtomicInteger();
+		private AtomicReference<Exception> failure =
+				new AtomicReference<Exception>();
+		private Path next;
+		private boolean done;
+		//set once the caller closes the crawl, so readers stop waiting
+		private volatile boolean closed;
+
+		ParallelIterator(Path root) {
+			this.root = root;
+			submit(root);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(next != null) {
+				return true;
+			}
+			if(done) {
+				return false;
+			}
+			try {
+				next = queue.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException("Crawl was interrupted", e);
+			}
+			if(next == END_OF_FILES) {
+				next = null;
+				done = true;
+				readers.shutdown();
+				if(failure.get() != null) {
+					throw new IllegalStateException("Crawl failed",
+							failure.get());
+				}
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public File next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			File f = next.toFile();
+			next = null;
+			return f;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			done = true;
+			next = null;
+			readers.shutdownNow();
+			//readers waiting for room give up once they see the crawl closed
+			queue.clear();
+		}
+
+		private void submit(Path dir) {
+			pending.incrementAndGet();
+			readers.execute(() -> read(dir));
+		}
+
+		private void read(Path dir) {
+			try {
+				DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+				try {
+					for(Path path : stream) {
+						if(closed) {
+							break;
+						}
+						if(isDirectory(path)) {
+							if(acceptDirectory(root, path)) {
+								submit(path);
+							}
+						}
+						else if(isFile(path) && accept(root, path)) {
+							put(path);
+						}
+					}
+				}
+				finally {
+					stream.close();
+				}
+			}
+			catch (IOException e) {
+				//unreadable directories are skipped, the same as listFiles(),
+				//and reads stopped by close() are not reported
+				if(!closed) {
+					e.printStackTrace();
+				}
+			}
+			catch (Exception e) {
+				failure.compareAndSet(null, e);
+			}
+			finally {
+				//the last directory read ends the crawl
+				if(pending.decrementAndGet() == 0) {
+					put(END_OF_FILES);
+				}
+			}
+		}
+
+		private void put(Path path) {
+			try {
+				while(!queue.offer(path, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					if(closed) {
+						return;
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
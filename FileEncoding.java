@@ -0,0 +1,545 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The charset of a file and where its text starts, found by sniffing the
+ * first block of the file. A byte order mark gives UTF-8, UTF-16LE or
+ * UTF-16BE. Without one, a NUL byte marks the file as binary, text that is
+ * valid UTF-8 is read as UTF-8 and anything else as the fallback charset,
+ * windows-1252 unless the platform default is another legacy charset.
+ * A charset can also be given, in which case only the byte order mark and
+ * binary files are sniffed.
+ *
+ * Files are decoded with CharsetDecoders kept for each thread and reset
+ * between files, reading from a FileChannel into a direct ByteBuffer, so
+ * no decoder, stream or byte array is created for each file or line.
+ * Malformed bytes are replaced rather than failing the file.
+ * @author Eric Gunn
+ *
+ */
+public final class FileEncoding {
+	
+	//bytes sniffed at the start of a file, the same block git checks
+	public static final int SNIFF_SIZE = 8000;
+	public static final Charset FALLBACK_CHARSET = getFallbackCharset();
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB,
+			(byte) 0xBF};
+	private static final byte[] UTF_16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+	private static final byte[] UTF_16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+	
+	//decoders and buffers of each thread, reused for every file it reads
+	private static final ThreadLocal<Decoders> DECODERS =
+			ThreadLocal.withInitial(Decoders::new);
+	
+	private Charset charset;
+	private int bomLength;
+	private boolean binary;
+	
+	/**
+	 * Constructor for a FileEncoding object
+	 * @param charset charset the text is decoded with
+	 * @param bomLength number of bytes of the byte order mark, 0 if none
+	 * @param binary true if the file does not look like text
+	 */
+	private FileEncoding(Charset charset, int bomLength, boolean binary) {
+		this.charset = charset;
+		this.bomLength = bomLength;
+		this.binary = binary;
+	}
+	
+	/**
+	 * Sniffs the first block of a file to find its charset
+	 * @param f the file
+	 * @return FileEncoding the encoding of the file
+	 * @throws IOException if the file could not be read
+	 */
+	public static FileEncoding detect(File f) throws IOException {
+		return detect(f, null);
+	}
+	
+	/**
+	 * Sniffs the first block of a file for a byte order mark and binary
+	 * content, and finds its charset unless one is given
+	 * @param f the file
+	 * @param charset charset of the file, or null to detect it
+	 * @return FileEncoding the encoding of the file
+	 * @throws IOException if the file could not be read
+	 */
+	public static FileEncoding detect(File f, Charset charset)
+			throws IOException {
+		ByteBuffer block = DECODERS.get().sniffBuffer;
+		block.clear();
+		FileChannel channel = FileChannel.open(f.toPath());
+		try {
+			while(block.hasRemaining() && channel.read(block) >= 0) {
+				//keep reading until the block is full or the file ends
+			}
+		}
+		finally {
+			channel.close();
+		}
+		block.flip();
+		return detect(block, charset);
+	}
+	
+	/**
+	 * Sniffs the first block of a file that is already in memory, such as a
+	 * mapped file. The position of the buffer is not moved
+	 * @param block bytes at the start of the file, from the position of the
+	 * buffer to its limit. Only the first SNIFF_SIZE bytes are looked at
+	 * @param charset charset of the file, or null to detect it
+	 * @return FileEncoding the encoding of the file
+	 */
+	public static FileEncoding detect(ByteBuffer block, Charset charset) {
+		int start = block.position();
+		int end = start + Math.min(block.remaining(), SNIFF_SIZE);
+		
+		//a byte order mark names the charset, unless another was given
+		Charset bomCharset = null;
+		int bomLength = 0;
+		if(startsWith(block, start, end, UTF_8_BOM)) {
+			bomCharset = StandardCharsets.UTF_8;
+			bomLength = UTF_8_BOM.length;
+		}
+		else if(startsWith(block, start, end, UTF_16BE_BOM)) {
+			bomCharset = StandardCharsets.UTF_16BE;
+			bomLength = UTF_16BE_BOM.length;
+		}
+		else if(startsWith(block, start, end, UTF_16LE_BOM)) {
+			bomCharset = StandardCharsets.UTF_16LE;
+			bomLength = UTF_16LE_BOM.length;
+		}
+		if(charset != null) {
+			charset = getLineCharset(charset, bomCharset);
+			if(!charset.equals(bomCharset)) {
+				bomLength = 0;
+			}
+			boolean binary = getUnitSize(charset) == 1
+					&& containsNul(block, start + bomLength, end);
+			return new FileEncoding(charset, bomLength, binary);
+		}
+		if(bomCharset != null) {
+			boolean binary = getUnitSize(bomCharset) == 1
+					&& containsNul(block, start + bomLength, end);
+			return new FileEncoding(bomCharset, bomLength, binary);
+		}
+		
+		if(containsNul(block, start, end)) {
+			return new FileEncoding(FALLBACK_CHARSET, 0, true);
+		}
+		//the block may end partway through a character of a longer file
+		boolean truncated = end < block.limit()
+				|| block.remaining() >= SNIFF_SIZE;
+		return new FileEncoding(isUtf8(block, start, end, truncated)
+				? StandardCharsets.UTF_8 : FALLBACK_CHARSET, 0, false);
+	}
+	
+	/**
+	 * Checks that a charset can be used to read files line by line
+	 * @param charset the charset
+	 * @throws IllegalArgumentException if line breaks are not single bytes
+	 * or UTF-16 code units
+	 */
+	public static void checkCharset(Charset charset) {
+		if(getLineCharset(charset, null) == null) {
+			throw(new IllegalArgumentException("Charset must encode line"
+					+ " breaks as single bytes or as UTF-16."));
+		}
+	}
+	
+	/**
+	 * Getter method for the charset the file is decoded with
+	 * @return Charset charset of the file
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+	
+	/**
+	 * Getter method for the length of the byte order mark, which is skipped
+	 * when the file is read from the start
+	 * @return int number of bytes, 0 if the file has none
+	 */
+	public int getBomLength() {
+		return bomLength;
+	}
+	
+	/**
+	 * Getter method for whether the file looks like binary data
+	 * @return boolean true if the file is not text
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+	
+	/**
+	 * Getter method for the number of bytes each line break takes
+	 * @return int 1 for single-byte and UTF-8 text, 2 for UTF-16
+	 */
+	int getUnitSize() {
+		return getUnitSize(charset);
+	}
+	
+	/**
+	 * Getter method for the order of the bytes of a UTF-16 code unit
+	 * @return boolean true if the high byte comes first
+	 */
+	boolean isBigEndian() {
+		return charset.equals(StandardCharsets.UTF_16BE);
+	}
+	
+	/**
+	 * Getter method for the decoder of this thread for the charset, reset
+	 * and ready for a new file. It must not be used once another file is
+	 * read on the same thread
+	 * @return CharsetDecoder decoder that replaces malformed input
+	 */
+	CharsetDecoder getDecoder() {
+		return DECODERS.get().getDecoder(charset);
+	}
+	
+	/**
+	 * Getter method for the direct buffer of this thread that files are read
+	 * into, cleared. It must not be used once another file is read on the
+	 * same thread
+	 * @return ByteBuffer the buffer
+	 */
+	static ByteBuffer getByteBuffer() {
+		ByteBuffer bytes = DECODERS.get().byteBuffer;
+		bytes.clear();
+		return bytes;
+	}
+	
+	/**
+	 * Getter method for the buffer of this thread that text is decoded
+	 * into, cleared
+	 * @return CharBuffer the buffer
+	 */
+	static CharBuffer getCharBuffer() {
+		CharBuffer chars = DECODERS.get().charBuffer;
+		chars.clear();
+		return chars;
+	}
+	
+	/**
+	 * Creates a decoder for the charset that is not shared with the thread,
+	 * for text read a block at a time while other files are read
+	 * @return CharsetDecoder decoder that replaces malformed input
+	 */
+	CharsetDecoder newDecoder() {
+		return newDecoder(charset);
+	}
+	
+	/**
+	 * Creates a direct buffer, of the size of the buffer of each thread, for
+	 * a file read a block at a time while other files are read
+	 * @return ByteBuffer the buffer
+	 */
+	static ByteBuffer newByteBuffer() {
+		return ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+	
+	/**
+	 * Creates a buffer, of the size of the buffer of each thread, for text
+	 * decoded a block at a time while other files are read
+	 * @return CharBuffer the buffer
+	 */
+	static CharBuffer newCharBuffer() {
+		return CharBuffer.allocate(BUFFER_SIZE);
+	}
+	
+	/**
+	 * Decodes bytes and appends the text to a StringBuilder. Bytes of a
+	 * character that is cut off are left in the buffer unless the input
+	 * ends
+	 * @param decoder the decoder
+	 * @param bytes bytes to be decoded, from its position to its limit
+	 * @param chars buffer the text is decoded into, cleared after each use
+	 * @param sb where the text is appended
+	 * @param endOfInput true if no more bytes follow, which flushes and
+	 * resets the decoder
+	 */
+	static void decode(CharsetDecoder decoder, ByteBuffer bytes,
+			CharBuffer chars, StringBuilder sb, boolean endOfInput) {
+		CoderResult result;
+		do {
+			result = decoder.decode(bytes, chars, endOfInput);
+			drain(chars, sb);
+		} while(result.isOverflow());
+		if(endOfInput) {
+			do {
+				result = decoder.flush(chars);
+				drain(chars, sb);
+			} while(result.isOverflow());
+			decoder.reset();
+		}
+	}
+	
+	/**
+	 * Opens a Reader over the text of the file, after its byte order mark,
+	 * that decodes straight from a FileChannel. The file is closed when the
+	 * Reader is closed
+	 * @param f the file
+	 * @return Reader the text of the file
+	 * @throws IOException if the file could not be opened
+	 */
+	public Reader openReader(File f) throws IOException {
+		return openReader(f, charset, bomLength);
+	}
+	
+	/**
+	 * Opens a Reader over the text of a file, from a byte offset, that
+	 * decodes straight from a FileChannel. The file is closed when the
+	 * Reader is closed
+	 * @param f the file
+	 * @param charset charset of the file
+	 * @param position byte offset to start reading at, the start of a line
+	 * @return Reader the text of the file from the offset
+	 * @throws IOException if the file could not be opened
+	 */
+	public static Reader openReader(File f, Charset charset, long position)
+			throws IOException {
+		FileChannel channel = FileChannel.open(f.toPath());
+		try {
+			channel.position(position);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		//the Reader may be open while other files are read on this thread,
+		//so it has a decoder of its own
+		return Channels.newReader(channel, newDecoder(charset), BUFFER_SIZE);
+	}
+	
+	/**
+	 * Looks up a charset by the name stored in an index
+	 * @param name name of the charset, can be null
+	 * @return Charset the charset, or null if there is no name or it is not
+	 * supported
+	 */
+	static Charset forName(String name) {
+		if(name == null || !Charset.isSupported(name)) {
+			return null;
+		}
+		return Charset.forName(name);
+	}
+	
+	/**
+	 * Helper method that moves decoded text from a buffer to a
+	 * StringBuilder and clears the buffer
+	 * @param chars the decoded text
+	 * @param sb where the text is appended
+	 */
+	private static void drain(CharBuffer chars, StringBuilder sb) {
+		chars.flip();
+		sb.append(chars.array(), chars.arrayOffset() + chars.position(),
+				chars.remaining());
+		chars.clear();
+	}
+	
+	/**
+	 * Helper method that creates a decoder replacing malformed input
+	 * @param charset the charset
+	 * @return CharsetDecoder the decoder
+	 */
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	/**
+	 * Helper method that picks the charset used to split lines. UTF-16 is
+	 * narrowed to one byte order so a file can be read from any line
+	 * @param charset the charset given
+	 * @param bomCharset the charset named by the byte order mark, or null
+	 * @return Charset the charset, or null if line breaks are not single
+	 * bytes or UTF-16 code units
+	 */
+	private static Charset getLineCharset(Charset charset,
+			Charset bomCharset) {
+		if(charset.equals(StandardCharsets.UTF_16)) {
+			return StandardCharsets.UTF_16LE.equals(bomCharset)
+					? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE;
+		}
+		if(getUnitSize(charset) == 2) {
+			return charset;
+		}
+		if(!charset.canEncode()) {
+			return null;
+		}
+		byte[] lineBreaks = "\n\r".getBytes(charset);
+		return Arrays.equals(lineBreaks, new byte[] {'\n', '\r'}) ? charset
+				: null;
+	}
+	
+	/**
+	 * Helper method that finds how many bytes a line break takes
+	 * @param charset the charset
+	 * @return int 2 for UTF-16 of a fixed byte order, 1 otherwise
+	 */
+	private static int getUnitSize(Charset charset) {
+		return charset.equals(StandardCharsets.UTF_16BE)
+				|| charset.equals(StandardCharsets.UTF_16LE) ? 2 : 1;
+	}
+	
+	/**
+	 * Helper method that picks the charset of text that is not UTF-8
+	 * @return Charset the platform default if it is a legacy charset,
+	 * windows-1252 otherwise
+	 */
+	private static Charset getFallbackCharset() {
+		Charset platform = Charset.defaultCharset();
+		if(!platform.equals(StandardCharsets.UTF_8)
+				&& !platform.equals(StandardCharsets.US_ASCII)
+				&& getLineCharset(platform, null) != null) {
+			return platform;
+		}
+		return Charset.isSupported("windows-1252")
+				? Charset.forName("windows-1252")
+				: StandardCharsets.ISO_8859_1;
+	}
+	
+	/**
+	 * Helper method that checks for a run of bytes at the start of a block
+	 * @param block the block
+	 * @param start index of the first byte
+	 * @param end index after the last byte
+	 * @param prefix the bytes to look for
+	 * @return boolean true if the block starts with them
+	 */
+	private static boolean startsWith(ByteBuffer block, int start, int end,
+			byte[] prefix) {
+		if(end - start < prefix.length) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length; i++) {
+			if(block.get(start + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Helper method that checks a block for a NUL byte, which text in a
+	 * single-byte charset or UTF-8 does not hold
+	 * @param block the block
+	 * @param start index of the first byte
+	 * @param end index after the last byte
+	 * @return boolean true if a NUL byte is found
+	 */
+	private static boolean containsNul(ByteBuffer block, int start,
+			int end) {
+		for(int i = start; i < end; i++) {
+			if(block.get(i) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Helper method that checks a block is well-formed UTF-8, without
+	 * decoding it
+	 * @param block the block
+	 * @param start index of the first byte
+	 * @param end index after the last byte
+	 * @param truncated true if the file goes on past the block, so a
+	 * character cut off at the end is allowed
+	 * @return boolean true if the block is UTF-8
+	 */
+	private static boolean isUtf8(ByteBuffer block, int start, int end,
+			boolean truncated) {
+		int i = start;
+		while(i < end) {
+			int b = block.get(i) & 0xFF;
+			if(b < 0x80) {
+				i++;
+				continue;
+			}
+			int length;
+			int min;
+			if(b >= 0xC2 && b <= 0xDF) {
+				length = 2;
+				min = 0x80;
+			}
+			else if(b >= 0xE0 && b <= 0xEF) {
+				length = 3;
+				min = 0x800;
+			}
+			else if(b >= 0xF0 && b <= 0xF4) {
+				length = 4;
+				min = 0x10000;
+			}
+			else {
+				return false;
+			}
+			if(i + length > end) {
+				return truncated;
+			}
+			int codePoint = b & (0x7F >> length);
+			for(int j = 1; j < length; j++) {
+				int c = block.get(i + j) & 0xFF;
+				if((c & 0xC0) != 0x80) {
+					return false;
+				}
+				codePoint = (codePoint << 6) | (c & 0x3F);
+			}
+			//overlong forms, surrogates and code points past U+10FFFF
+			if(codePoint < min || codePoint > Character.MAX_CODE_POINT
+					|| (codePoint >= Character.MIN_SURROGATE
+					&& codePoint <= Character.MAX_SURROGATE)) {
+				return false;
+			}
+			i += length;
+		}
+		return true;
+	}
+	
+	/**
+	 * The decoders and buffers of one thread
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class Decoders {
+		
+		private Map<Charset, CharsetDecoder> decoders =
+				new HashMap<Charset, CharsetDecoder>();
+		private ByteBuffer sniffBuffer = ByteBuffer.allocateDirect(SNIFF_SIZE);
+		private ByteBuffer byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+		
+		/**
+		 * Getter method for the decoder of a charset, created the first time
+		 * @param charset the charset
+		 * @return CharsetDecoder the decoder, reset
+		 */
+		CharsetDecoder getDecoder(Charset charset) {
+			CharsetDecoder decoder = decoders.get(charset);
+			if(decoder == null) {
+				decoder = newDecoder(charset);
+				decoders.put(charset, decoder);
+			}
+			return decoder.reset();
+		}
+	}
+}
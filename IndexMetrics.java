@@ -0,0 +1,639 @@
+package indexer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.json.JSONObject;
+
+/**
+ * Latency histograms and counters for the stages of indexing and search,
+ * kept for the whole JVM. Each stage is timed with two calls to
+ * System.nanoTime() and recorded into a histogram of LongAdders, so timing
+ * costs a few tens of nanoseconds and threads recording at the same time
+ * do not wait on each other. Recording can be turned off with
+ * setEnabled(false), which leaves only a read of a volatile flag.
+ *
+ * A stage is timed like this:
+ *     long start = IndexMetrics.start();
+ *     ...
+ *     IndexMetrics.record(IndexMetrics.Stage.QUERY, start);
+ *
+ * Histograms keep four buckets for each power of two nanoseconds, so the
+ * percentiles they report are within 25% of the real value. The metrics
+ * can be read through JMX after registerMBeans(), under the "indexer"
+ * domain, printed with toText() or toJSON(), or printed at a fixed
+ * interval with startDump().
+ * @author Eric Gunn
+ *
+ */
+public final class IndexMetrics {
+	
+	private static final String DOMAIN = "indexer";
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+	private static final double NANOS_PER_MILLI = 1000000.0;
+	
+	private static volatile boolean enabled = true;
+	private static final Histogram[] HISTOGRAMS =
+			new Histogram[Stage.values().length];
+	private static final LongAdder[] COUNTERS =
+			new LongAdder[Counter.values().length];
+	private static ScheduledExecutorService dumper;
+	
+	static {
+		for(Stage stage : Stage.values()) {
+			HISTOGRAMS[stage.ordinal()] = new Histogram();
+		}
+		for(Counter counter : Counter.values()) {
+			COUNTERS[counter.ordinal()] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * The timed stages of indexing and search
+	 * @author Eric Gunn
+	 *
+	 */
+	public enum Stage {
+		/** waiting for the crawler to find the next file */
+		CRAWL,
+		/** reading a file, or a chunk of one, into memory */
+		FILE_READ,
+		/** analyzing and inverting one field of a document, which includes
+		 * reading streamed files */
+		ANALYSIS,
+		/** adding or updating one document, analysis included */
+		ADD_DOCUMENT,
+		/** committing an index writer */
+		COMMIT,
+		/** running a query for one batch of top hits */
+		QUERY,
+		/** loading the stored fields of one document */
+		STORED_FIELDS,
+		/** cutting the buffer of one file */
+		SNIPPET,
+		/** turning one ResultStruct into JSON */
+		JSON;
+		
+		/**
+		 * Getter method for the name the stage is printed with
+		 * @return String the name in lower case
+		 */
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+	
+	/**
+	 * The counters of indexing and search
+	 * @author Eric Gunn
+	 *
+	 */
+	public enum Counter {
+		/** files handed out by the crawler */
+		FILES_CRAWLED,
+		/** bytes of the files read into memory */
+		BYTES_READ,
+		/** documents added or updated */
+		DOCUMENTS_INDEXED,
+		/** files left out of the index as binary data */
+		BINARY_FILES_SKIPPED,
+		/** documents matching the queries run */
+		QUERY_HITS,
+		/** results turned into JSON */
+		RESULTS_SERIALIZED;
+		
+		/**
+		 * Getter method for the name the counter is printed with
+		 * @return String the name in lower case
+		 */
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+	
+	private IndexMetrics() {}
+	
+	/**
+	 * Setter method for whether stages are timed and counted
+	 * @param enabled false to stop recording, true by default
+	 */
+	public static void setEnabled(boolean enabled) {
+		IndexMetrics.enabled = enabled;
+	}
+	
+	/**
+	 * Getter method for whether stages are timed and counted
+	 * @return boolean true if metrics are recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Starts timing a stage
+	 * @return long the time to pass to record()
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : NOT_TIMED;
+	}
+	
+	/**
+	 * Records the time a stage took since start() was called. Nothing is
+	 * recorded if metrics were turned off when it was started
+	 * @param stage the stage that ended
+	 * @param start the time returned by start()
+	 */
+	public static void record(Stage stage, long start) {
+		if(start != NOT_TIMED) {
+			HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Adds to a counter
+	 * @param counter the counter
+	 * @param n the amount to add
+	 */
+	public static void count(Counter counter, long n) {
+		if(enabled) {
+			COUNTERS[counter.ordinal()].add(n);
+		}
+	}
+	
+	/**
+	 * Getter method for the histogram of a stage
+	 * @param stage the stage
+	 * @return Histogram the times recorded for it
+	 */
+	public static Histogram getHistogram(Stage stage) {
+		return HISTOGRAMS[stage.ordinal()];
+	}
+	
+	/**
+	 * Getter method for the value of a counter
+	 * @param counter the counter
+	 * @return long the sum of everything counted
+	 */
+	public static long getCount(Counter counter) {
+		return COUNTERS[counter.ordinal()].sum();
+	}
+	
+	/**
+	 * Clears every histogram and counter. Stages recorded while this runs
+	 * may be partly kept
+	 */
+	public static void reset() {
+		for(Histogram histogram : HISTOGRAMS) {
+			histogram.reset();
+		}
+		for(LongAdder counter : COUNTERS) {
+			counter.reset();
+		}
+	}
+	
+	/**
+	 * Wraps an analyzer so that the analysis of every field is timed as the
+	 * ANALYSIS stage, from the start of its token stream to its end. Lucene
+	 * inverts each token as it is read, so the time includes building the
+	 * postings of the field
+	 * @param analyzer the analyzer given to an IndexWriterConfig
+	 * @return Analyzer analyzer that times each field
+	 */
+	public static Analyzer wrap(Analyzer analyzer) {
+		return new AnalyzerWrapper(Analyzer.PER_FIELD_REUSE_STRATEGY) {
+			@Override
+			protected Analyzer getWrappedAnalyzer(String fieldName) {
+				return analyzer;
+			}
+			
+			@Override
+			protected TokenStreamComponents wrapComponents(String fieldName,
+					TokenStreamComponents components) {
+				return new TokenStreamComponents(components.getTokenizer(),
+						new TimingFilter(components.getTokenStream()));
+			}
+		};
+	}
+	
+	/**
+	 * Registers an MXBean for each stage, named
+	 * indexer:type=Latency,name=stage, and one for each counter, named
+	 * indexer:type=Counter,name=counter. Registering again does nothing
+	 * @throws JMException if the beans could not be registered
+	 */
+	public static synchronized void registerMBeans() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(Stage stage : Stage.values()) {
+			ObjectName name = getObjectName("Latency", stage.getName());
+			if(!server.isRegistered(name)) {
+				server.registerMBean(getHistogram(stage), name);
+			}
+		}
+		for(Counter counter : Counter.values()) {
+			ObjectName name = getObjectName("Counter", counter.getName());
+			if(!server.isRegistered(name)) {
+				server.registerMBean(new CounterBean(counter), name);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the MXBeans added by registerMBeans()
+	 * @throws JMException if the beans could not be removed
+	 */
+	public static synchronized void unregisterMBeans() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(Stage stage : Stage.values()) {
+			ObjectName name = getObjectName("Latency", stage.getName());
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		for(Counter counter : Counter.values()) {
+			ObjectName name = getObjectName("Counter", counter.getName());
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+	}
+	
+	/**
+	 * Helper method that builds the JMX name of a stage or counter
+	 * @param type Latency or Counter
+	 * @param name name of the stage or counter
+	 * @return ObjectName the JMX name
+	 * @throws JMException if the name is not valid
+	 */
+	private static ObjectName getObjectName(String type, String name)
+			throws JMException {
+		return new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+	}
+	
+	/**
+	 * Starts a background thread that prints the metrics at a fixed interval
+	 * @param intervalMillis time between prints in milliseconds
+	 * @param out where the metrics are printed
+	 * @param json true to print toJSON(), false to print toText()
+	 */
+	public static synchronized void startDump(long intervalMillis,
+			PrintStream out, boolean json) {
+		if(intervalMillis < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		if(dumper != null) {
+			throw new IllegalStateException("Metrics dump was already"
+					+ " started");
+		}
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "index-metrics-dump");
+			t.setDaemon(true);
+			return t;
+		});
+		dumper.scheduleAtFixedRate(() -> {
+			out.println(json ? toJSON().toString() : toText());
+			out.flush();
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the thread started by startDump()
+	 */
+	public static synchronized void stopDump() {
+		if(dumper != null) {
+			dumper.shutdown();
+			dumper = null;
+		}
+	}
+	
+	/**
+	 * Prints every stage and counter, one per line, with times in
+	 * milliseconds. Stages that were never recorded are left out
+	 * @return String the metrics as text
+	 */
+	public static String toText() {
+		StringBuilder sb = new StringBuilder();
+		for(Stage stage : Stage.values()) {
+			Histogram h = getHistogram(stage);
+			if(h.getCount() == 0) {
+				continue;
+			}
+			sb.append(String.format(Locale.ROOT, "%-14s count=%d"
+					+ " total=%.1fms mean=%.3fms p50=%.3fms p90=%.3fms"
+					+ " p99=%.3fms max=%.3fms%n", stage.getName(),
+					h.getCount(), h.getTotalMillis(), h.getMeanMillis(),
+					h.getP50Millis(), h.getP90Millis(), h.getP99Millis(),
+					h.getMaxMillis()));
+		}
+		for(Counter counter : Counter.values()) {
+			sb.append(String.format(Locale.ROOT, "%-18s %d%n",
+					counter.getName(), getCount(counter)));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Builds a JSONObject of every stage and counter, with times in
+	 * milliseconds
+	 * @return JSONObject the metrics, with a "latency" object of stages and
+	 * a "counters" object
+	 */
+	public static JSONObject toJSON() {
+		JSONObject latency = new JSONObject();
+		for(Stage stage : Stage.values()) {
+			Histogram h = getHistogram(stage);
+			latency.put(stage.getName(), new JSONObject()
+					.put("count", h.getCount())
+					.put("total ms", h.getTotalMillis())
+					.put("mean ms", h.getMeanMillis())
+					.put("p50 ms", h.getP50Millis())
+					.put("p90 ms", h.getP90Millis())
+					.put("p99 ms", h.getP99Millis())
+					.put("max ms", h.getMaxMillis()));
+		}
+		JSONObject counters = new JSONObject();
+		for(Counter counter : Counter.values()) {
+			counters.put(counter.getName(), getCount(counter));
+		}
+		return new JSONObject().put("latency", latency)
+				.put("counters", counters);
+	}
+	
+	/**
+	 * The JMX view of a stage's histogram
+	 * @author Eric Gunn
+	 *
+	 */
+	public interface HistogramMXBean {
+		
+		/**
+		 * @return long number of times the stage was recorded
+		 */
+		long getCount();
+		
+		/**
+		 * @return double time spent in the stage, in milliseconds
+		 */
+		double getTotalMillis();
+		
+		/**
+		 * @return double mean time of the stage, in milliseconds
+		 */
+		double getMeanMillis();
+		
+		/**
+		 * @return double median time of the stage, in milliseconds
+		 */
+		double getP50Millis();
+		
+		/**
+		 * @return double 90th percentile time of the stage, in milliseconds
+		 */
+		double getP90Millis();
+		
+		/**
+		 * @return double 99th percentile time of the stage, in milliseconds
+		 */
+		double getP99Millis();
+		
+		/**
+		 * @return double longest time of the stage, in milliseconds
+		 */
+		double getMaxMillis();
+		
+		/**
+		 * Clears the histogram
+		 */
+		void reset();
+	}
+	
+	/**
+	 * The JMX view of a counter
+	 * @author Eric Gunn
+	 *
+	 */
+	public interface CounterMXBean {
+		
+		/**
+		 * @return long the sum of everything counted
+		 */
+		long getValue();
+	}
+	
+	/**
+	 * A histogram of times in nanoseconds. Each power of two is split into
+	 * four buckets, which are LongAdders so threads recording into the same
+	 * bucket do not wait on each other
+	 * @author Eric Gunn
+	 *
+	 */
+	public static class Histogram implements HistogramMXBean {
+		
+		private static final int SUB_BUCKET_BITS = 2;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		//enough buckets for any positive long
+		private static final int NUM_BUCKETS =
+				(Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+		
+		private LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+		private LongAdder count = new LongAdder();
+		private LongAdder totalNanos = new LongAdder();
+		private AtomicLong maxNanos = new AtomicLong();
+		
+		Histogram() {
+			for(int i = 0; i < NUM_BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+		
+		/**
+		 * Records a time
+		 * @param nanos the time in nanoseconds, negative times count as 0
+		 */
+		public void record(long nanos) {
+			if(nanos < 0) {
+				nanos = 0;
+			}
+			buckets[getBucket(nanos)].increment();
+			count.increment();
+			totalNanos.add(nanos);
+			long max = maxNanos.get();
+			while(nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+		}
+		
+		/**
+		 * Helper method that finds the bucket of a time
+		 * @param nanos the time, not negative
+		 * @return int index of the bucket
+		 */
+		private static int getBucket(long nanos) {
+			if(nanos < SUB_BUCKETS) {
+				return (int) nanos;
+			}
+			int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+			int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS))
+					& (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+		}
+		
+		/**
+		 * Helper method that finds the highest time of a bucket
+		 * @param bucket index of the bucket
+		 * @return long the time in nanoseconds
+		 */
+		private static long getBucketMax(int bucket) {
+			if(bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int shift = bucket / SUB_BUCKETS - 1;
+			long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+			return low + (1L << shift) - 1;
+		}
+		
+		/**
+		 * Finds the time that a fraction of the recorded times are at or
+		 * below, as the highest time of its bucket
+		 * @param fraction the fraction, from 0 to 1
+		 * @return long the time in nanoseconds, 0 if nothing was recorded
+		 */
+		public long getPercentileNanos(double fraction) {
+			if(fraction < 0 || fraction > 1) {
+				throw(new IllegalArgumentException("Argument must be from 0"
+						+ " to 1."));
+			}
+			long[] counts = new long[NUM_BUCKETS];
+			long total = 0;
+			for(int i = 0; i < NUM_BUCKETS; i++) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+			if(total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(fraction * total));
+			long seen = 0;
+			for(int i = 0; i < NUM_BUCKETS; i++) {
+				seen += counts[i];
+				if(seen >= rank) {
+					return Math.min(getBucketMax(i), maxNanos.get());
+				}
+			}
+			return maxNanos.get();
+		}
+		
+		@Override
+		public long getCount() {
+			return count.sum();
+		}
+		
+		@Override
+		public double getTotalMillis() {
+			return totalNanos.sum() / NANOS_PER_MILLI;
+		}
+		
+		@Override
+		public double getMeanMillis() {
+			long n = count.sum();
+			return n == 0 ? 0 : totalNanos.sum() / NANOS_PER_MILLI / n;
+		}
+		
+		@Override
+		public double getP50Millis() {
+			return getPercentileNanos(0.5) / NANOS_PER_MILLI;
+		}
+		
+		@Override
+		public double getP90Millis() {
+			return getPercentileNanos(0.9) / NANOS_PER_MILLI;
+		}
+		
+		@Override
+		public double getP99Millis() {
+			return getPercentileNanos(0.99) / NANOS_PER_MILLI;
+		}
+		
+		@Override
+		public double getMaxMillis() {
+			return maxNanos.get() / NANOS_PER_MILLI;
+		}
+		
+		@Override
+		public void reset() {
+			for(LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+			count.reset();
+			totalNanos.reset();
+			maxNanos.set(0);
+		}
+	}
+	
+	/**
+	 * The JMX bean of a counter
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class CounterBean implements CounterMXBean {
+		
+		private Counter counter;
+		
+		CounterBean(Counter counter) {
+			this.counter = counter;
+		}
+		
+		@Override
+		public long getValue() {
+			return getCount(counter);
+		}
+	}
+	
+	/**
+	 * Times the analysis of a field, from the reset of its token stream to
+	 * its end
+	 * @author Eric Gunn
+	 *
+	 */
+	private static final class TimingFilter extends TokenFilter {
+		
+		private long start = NOT_TIMED;
+		
+		TimingFilter(TokenStream input) {
+			super(input);
+		}
+		
+		@Override
+		public void reset() throws IOException {
+			super.reset();
+			start = start();
+		}
+		
+		@Override
+		public boolean incrementToken() throws IOException {
+			return input.incrementToken();
+		}
+		
+		@Override
+		public void end() throws IOException {
+			super.end();
+			record(Stage.ANALYSIS, start);
+			start = NOT_TIMED;
+		}
+	}
+}
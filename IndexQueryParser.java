@@ -0,0 +1,297 @@
+package indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+/**
+ * Parses the query language of the index into a Lucene query that is run in
+ * one pass. The language is that of the Lucene classic query parser:
+ * - words, all of which must be in a file unless joined by OR
+ * - AND, OR and NOT (or + and -), with parentheses for grouping
+ * - "quoted phrases"
+ * - prefix* and wild?card terms, and fuzzy~ terms
+ * - filename:name and extension:ext (or ext:ext) filters, on the file name
+ *   without its directory and the extension without its dot, with the same
+ *   wildcards
+ *
+ * Words are analyzed the same way as the contents field, so they are lower
+ * case and stop words are dropped. The words a query looks for, other than
+ * the ones it excludes, can be listed with getHighlightTerms() to highlight
+ * them in the results.
+ * @author Eric Gunn
+ *
+ */
+public class IndexQueryParser extends QueryParser {
+
+	private static final String CONTENTS_FIELD = "contents";
+	private static final String FILENAME_ALIAS = "filename";
+	private static final String EXTENSION_ALIAS = "ext";
+
+	/**
+	 * Constructor for an IndexQueryParser object, searching the contents of
+	 * files by default
+	 */
+	public IndexQueryParser() {
+		super(CONTENTS_FIELD, new StandardAnalyzer());
+		setDefaultOperator(QueryParser.AND_OPERATOR);
+		setAllowLeadingWildcard(true);
+	}
+
+	/**
+	 * Parses a query
+	 * @param queryString the query, in the language described above
+	 * @return Query the parsed query
+	 * @throws IllegalArgumentException if the query is not valid
+	 */
+	public static Query parseQuery(String queryString) {
+		try {
+			Query query = new IndexQueryParser().parse(queryString);
+			//a query that only excludes files searches every other file
+			if(query instanceof BooleanQuery
+					&& isNegative((BooleanQuery) query)) {
+				BooleanQuery.Builder builder = new BooleanQuery.Builder();
+				builder.add(new MatchAllDocsQuery(),
+						BooleanClause.Occur.MUST);
+				for(BooleanClause clause : (BooleanQuery) query) {
+					builder.add(clause);
+				}
+				query = builder.build();
+			}
+			return query;
+		}
+		catch (ParseException e) {
+			throw(new IllegalArgumentException("Invalid query: "
+					+ e.getMessage(), e));
+		}
+	}
+
+	/**
+	 * Lists the words of the contents field that a query looks for, leaving
+	 * out excluded words. Fuzzy terms are expanded to the words of the index
+	 * they match if a searcher is given; prefixes and wildcard terms give
+	 * their longest part without wildcards
+	 * @param query a query built by parseQuery()
+	 * @param searcher searcher used to expand fuzzy terms, can be null
+	 * @return List the words, lower case, without duplicates
+	 * @throws IOException if the index could not be read
+	 */
+	public static List<String> getHighlightTerms(Query query,
+			IndexSearcher searcher) throws IOException {
+		Set<String> terms = new LinkedHashSet<String>();
+		addHighlightTerms(query, searcher, terms);
+		return new ArrayList<String>(terms);
+	}
+
+	/**
+	 * Helper method for getHighlightTerms() that walks a query
+	 * @param query the query or one of its clauses
+	 * @param searcher searcher used to expand fuzzy terms, can be null
+	 * @param terms where the words are added
+	 * @throws IOException if the index could not be read
+	 */
+	private static void addHighlightTerms(Query query, IndexSearcher searcher,
+			Set<String> terms) throws IOException {
+		if(query instanceof BooleanQuery) {
+			for(BooleanClause clause : (BooleanQuery) query) {
+				if(!clause.isProhibited()) {
+					addHighlightTerms(clause.getQuery(), searcher, terms);
+				}
+			}
+		}
+		else if(query instanceof BoostQuery) {
+			addHighlightTerms(((BoostQuery) query).getQuery(), searcher,
+					terms);
+		}
+		else if(query instanceof ConstantScoreQuery) {
+			addHighlightTerms(((ConstantScoreQuery) query).getQuery(),
+					searcher, terms);
+		}
+		else if(query instanceof TermQuery) {
+			addTerm(((TermQuery) query).getTerm(), terms);
+		}
+		else if(query instanceof PhraseQuery) {
+			for(Term term : ((PhraseQuery) query).getTerms()) {
+				addTerm(term, terms);
+			}
+		}
+		else if(query instanceof MultiPhraseQuery) {
+			MultiPhraseQuery phrase = (MultiPhraseQuery) query;
+			for(Term[] position : phrase.getTermArrays()) {
+				for(Term term : position) {
+					addTerm(term, terms);
+				}
+			}
+		}
+		else if(query instanceof PrefixQuery) {
+			addTerm(((PrefixQuery) query).getPrefix(), terms);
+		}
+		else if(query instanceof FuzzyQuery) {
+			FuzzyQuery fuzzy = (FuzzyQuery) query;
+			addTerm(fuzzy.getTerm(), terms);
+			if(searcher != null
+					&& CONTENTS_FIELD.equals(fuzzy.getTerm().field())) {
+				//the rewritten query holds the similar words of the index
+				addHighlightTerms(searcher.rewrite(fuzzy), null, terms);
+			}
+		}
+		else if(query instanceof WildcardQuery) {
+			Term term = ((WildcardQuery) query).getTerm();
+			String longest = "";
+			for(String part : term.text().split("[*?]")) {
+				if(part.length() > longest.length()) {
+					longest = part;
+				}
+			}
+			addTerm(new Term(term.field(), longest), terms);
+		}
+	}
+
+	/**
+	 * Helper method that adds a word of the contents field
+	 * @param term the term of a query
+	 * @param terms where the word is added
+	 */
+	private static void addTerm(Term term, Set<String> terms) {
+		if(CONTENTS_FIELD.equals(term.field()) && !term.text().isEmpty()) {
+			terms.add(term.text());
+		}
+	}
+
+	/**
+	 * Helper method that checks whether a boolean query only has excluded
+	 * clauses
+	 * @param query the query
+	 * @return boolean true if every clause is prohibited
+	 */
+	private static boolean isNegative(BooleanQuery query) {
+		if(query.clauses().isEmpty()) {
+			return false;
+		}
+		for(BooleanClause clause : query) {
+			if(!clause.isProhibited()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method that maps the fields of the query language onto the
+	 * fields of the index
+	 * @param field field as written in the query
+	 * @return String the index field
+	 */
+	private static String getIndexField(String field) {
+		if(FILENAME_ALIAS.equals(field)) {
+			return Indexer.NAME_FIELD;
+		}
+		if(EXTENSION_ALIAS.equals(field)) {
+			return Indexer.EXTENSION_FIELD;
+		}
+		return field;
+	}
+
+	/**
+	 * Helper method that checks whether a field holds a single untokenized
+	 * value
+	 * @param field the index field
+	 * @return boolean true for the file name and extension fields
+	 */
+	private static boolean isKeywordField(String field) {
+		return Indexer.NAME_FIELD.equals(field)
+				|| Indexer.EXTENSION_FIELD.equals(field);
+	}
+
+	/**
+	 * Helper method that drops the dot an extension may be written with
+	 * @param field the index field
+	 * @param text the text of the term
+	 * @return String the text as it is indexed
+	 */
+	private static String getIndexText(String field, String text) {
+		if(Indexer.EXTENSION_FIELD.equals(field) && text.startsWith(".")) {
+			return text.substring(1);
+		}
+		return text;
+	}
+
+	@Override
+	protected Query getFieldQuery(String field, String queryText,
+			boolean quoted) throws ParseException {
+		String indexField = getIndexField(field);
+		if(isKeywordField(indexField)) {
+			return new TermQuery(new Term(indexField,
+					getIndexText(indexField, queryText).toLowerCase()));
+		}
+		return super.getFieldQuery(indexField, queryText, quoted);
+	}
+
+	@Override
+	protected Query getFieldQuery(String field, String queryText, int slop)
+			throws ParseException {
+		String indexField = getIndexField(field);
+		if(isKeywordField(indexField)) {
+			return getFieldQuery(indexField, queryText, true);
+		}
+		return super.getFieldQuery(indexField, queryText, slop);
+	}
+
+	@Override
+	protected Query getPrefixQuery(String field, String termStr)
+			throws ParseException {
+		String indexField = getIndexField(field);
+		return super.getPrefixQuery(indexField,
+				getIndexText(indexField, termStr));
+	}
+
+	@Override
+	protected Query getWildcardQuery(String field, String termStr)
+			throws ParseException {
+		String indexField = getIndexField(field);
+		return super.getWildcardQuery(indexField,
+				getIndexText(indexField, termStr));
+	}
+
+	@Override
+	protected Query getFuzzyQuery(String field, String termStr,
+			float minSimilarity) throws ParseException {
+		String indexField = getIndexField(field);
+		return super.getFuzzyQuery(indexField,
+				getIndexText(indexField, termStr), minSimilarity);
+	}
+
+	@Override
+	protected Query getRangeQuery(String field, String part1, String part2,
+			boolean startInclusive, boolean endInclusive)
+					throws ParseException {
+		return super.getRangeQuery(getIndexField(field), part1, part2,
+				startInclusive, endInclusive);
+	}
+
+	@Override
+	protected Query getRegexpQuery(String field, String termStr)
+			throws ParseException {
+		return super.getRegexpQuery(getIndexField(field), termStr);
+	}
+}
@@ -14,16 +14,33 @@ import org.json.JSONObject;
  * for the results of a search (only used in the /print and /generate
  * methods).
  * 
+ * While the applet runs, the index is kept up to date with the data
+ * directory, so files that are added, changed or deleted show up in searches
+ * within a few seconds.
+ * 
+ * Searches return one page of the top files at a time, ranked by score.
+ * 
  * The user will be prompted for input. All searches are case-insensitive.
  * User inputs aside from the commands listed below will be treated as search
  * queries.
  * 
  * Here is a list of commands the user can use:
+ * - "/cache" or "/c" - print the hit, miss and eviction counters of the
+ *   search result cache
  * - "/directory", "/dir", or "d" - print the current index and data
  *   directories
+ * - "/find" or "/f" followed by a query - search with the query language:
+ *   AND, OR and NOT, "phrases", prefix* and fuzzy~ terms, and filename: and
+ *   extension: filters, highlighting every word of the query
  * - "/generate", "/gen", "/g", or "/json" - generate a JSON of the previous
  *   search result. Will not work if no prior search has been performed
  * - "/help" or "/h" - display help and instructions
+ * - "/map" - turn memory-mapping on or off for files read to build results,
+ *   which finds the same results with less decoding
+ * - "/metrics" or "/m" - print the time spent in each stage of indexing and
+ *   search, and the counters of indexing and search
+ * - "/next" or "/n" - search the next page of results of the previous
+ *   search. Will not work if no prior search has been performed
  * - "/print" or "/p" - print the previous search result. Will not work if
  *   no prior search has been performed
  * - "/quit" or "/q" - exit the application
@@ -38,6 +55,12 @@ public class IndexSampleApplet {
 	
 	private static final int NUM_ARGS = 3;
 	private static final int DEFAULT_INDENT = 4;
+	private static final int PAGE_SIZE = 100;
+	private static final String FIND_COMMAND = "/find ";
+	private static final String FIND_SHORT_COMMAND = "/f ";
+	private static final int CACHE_ENTRIES = 64;
+	private static final long CACHE_BYTES = 32L * 1024 * 1024;
+	private static final long REFRESH_MILLIS = 1000;
 
 	public static void main(String[] args) throws Exception {
 		if(args.length != NUM_ARGS) {
@@ -73,15 +96,29 @@ public class IndexSampleApplet {
 				" in " + (timeEnd1 - timeStart1) + " ms");
 		System.out.println();
 		
+		//keep indexing changes to the data directory while searching
+		IndexWatcher watcher = new IndexWatcher(indexer, indexDir, dataDir,
+				".txt");
+		watcher.start();
+		
+		//keep the index open for every search in this session
+		SearchSession session = new SearchSession(indexDir);
+		session.startAutoRefresh(REFRESH_MILLIS);
+		//repeated searches are answered from the cache
+		QueryCache cache = new QueryCache(CACHE_ENTRIES, CACHE_BYTES);
+		
 		Scanner input = new Scanner(System.in);
 	    System.out.println("Input a search query and press enter");
 	    System.out.println("(Type in \"/help\" or \"/h\" for help)");
 	    
 	    ResultStruct resultStruct = null;
+	    SearchPage page = null;
+	    QueryCache.SearchType searchType = null;
 	    JSONObject json = null;
 	    JsonGenerator gen = null;
 	    boolean writtenToFile = false;
 	    boolean generated = false;
+	    boolean memoryMapping = false;
 	    String fileName = "";
 	    
 		while(true) {
@@ -89,6 +126,10 @@ public class IndexSampleApplet {
 			if(query.equalsIgnoreCase("/quit") || query.equalsIgnoreCase("/q")) {
 				break;
 			}
+			else if(query.equalsIgnoreCase("/cache") ||
+					query.equalsIgnoreCase("/c")) {
+				cache.print();
+			}
 			else if(query.equalsIgnoreCase("/directory") ||
 					query.equalsIgnoreCase("/dir") ||
 					query.equalsIgnoreCase("/d")) {
@@ -105,13 +146,24 @@ public class IndexSampleApplet {
 					"and pressing enter.");
 				System.out.println("(keywords are case-insensitive)");
 				System.out.println("\nCommands:");
+				System.out.println("- \"/cache\" or \"/c\" to print the " +
+						"search result cache counters");
 				System.out.println("- \"/directory\", \"/dir\", or \"/d\" " +
 						"to print the current index and data directories");
+				System.out.println("- \"/find\" or \"/f\" followed by a " +
+						"query to search with AND, OR, NOT, \"phrases\", " +
+						"prefix*, fuzzy~, filename: and extension:");
 				System.out.println("- \"/generate\", \"/gen\", \"/g\" or " +
 						"\"/json\" to generate a JSON of the previous " + 
 						"search result");
 				System.out.println("- \"/help\" or \"/h\" for instructions " +
 						"and help");
+				System.out.println("- \"/map\" to turn memory-mapping of " +
+						"files read for results on or off");
+				System.out.println("- \"/metrics\" or \"/m\" to print the " +
+						"time spent in each stage of indexing and search");
+				System.out.println("- \"/next\" or \"/n\" to search the " +
+						"next page of the previous search");
 				System.out.println("- \"/print\" or \"/p\" to print the " +
 						"previous results to console");
 				System.out.println("- \"/quit\" or \"/q\" to exit applet");
@@ -144,6 +196,33 @@ public class IndexSampleApplet {
 					generated = true;
 				}
 			}
+			else if(query.equalsIgnoreCase("/map")) {
+				memoryMapping = !memoryMapping;
+				indexer.setMemoryMapping(memoryMapping);
+				System.out.println("Memory-mapping of files read for results"
+						+ " is " + (memoryMapping ? "on" : "off"));
+			}
+			else if(query.equalsIgnoreCase("/metrics") ||
+					query.equalsIgnoreCase("/m")) {
+				System.out.print(IndexMetrics.toText());
+			}
+			else if(query.equalsIgnoreCase("/next") ||
+					query.equalsIgnoreCase("/n")) {
+				if(page == null) {
+					System.out.println("A search must be done before " +
+							"searching the next page");
+				}
+				else if(!page.hasNext()) {
+					System.out.println("There are no more results for \"" +
+							resultStruct.getQuery() + "\"");
+				}
+				else {
+					page = searchPage(indexer, session, cache, searchType,
+							resultStruct.getQuery(), page.getNext(), size);
+					resultStruct = page.getResults();
+					generated = false;
+				}
+			}
 			else if(query.equalsIgnoreCase("/print") ||
 					query.equalsIgnoreCase("/p")) {
 				if(resultStruct == null) {
@@ -171,24 +250,79 @@ public class IndexSampleApplet {
 				else {
 					long curr = Clock.systemUTC().millis();
 					fileName = Long.toString(curr) + ".json";
-					gen.writeToFile(json, fileName);
+					//stream the results instead of rendering the JSON
+					gen.writeToFile(resultStruct, fileName);
 					System.out.println("Wrote results to " + fileName);
 					writtenToFile = true;
 				}
 			}
+			else if(startsWithIgnoreCase(query, FIND_COMMAND) ||
+					startsWithIgnoreCase(query, FIND_SHORT_COMMAND)) {
+				String queryString = query.substring(
+						query.indexOf(' ') + 1).trim();
+				try {
+					page = searchPage(indexer, session, cache,
+							QueryCache.SearchType.QUERY, queryString, null,
+							size);
+					searchType = QueryCache.SearchType.QUERY;
+					resultStruct = page.getResults();
+					generated = false;
+				}
+				catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+				}
+			}
 			else {
-				long timeStart2 = Clock.systemUTC().millis();
-				String[] results;
-				results = indexer.searchWildcardIndex(indexDir, query, 100);
-				long timeEnd2 = Clock.systemUTC().millis();
-				
-				System.out.println("Time elapsed for searching: "
-						+ (timeEnd2 - timeStart2) + " ms");
-				
-				resultStruct = indexer.getResultStruct(results, size, query);
+				searchType = QueryCache.SearchType.WILDCARD;
+				page = searchPage(indexer, session, cache, searchType, query,
+						null, size);
+				resultStruct = page.getResults();
 				generated = false;
 			}
 		}
 		input.close();
+		session.close();
+		watcher.close();
+	}
+	
+	/**
+	 * Searches for a page of results and prints how long it took and which
+	 * files of the total it holds
+	 * @param indexer the indexer used to search
+	 * @param session the search session holding the open index
+	 * @param cache the cache of earlier results
+	 * @param type which of the index searches to run
+	 * @param query the text to be searched for
+	 * @param after cursor of the page before, or null for the first page
+	 * @param size number of lines above and below the query line
+	 * @return SearchPage the page, with its results
+	 * @throws Exception if the index could not be searched
+	 */
+	private static SearchPage searchPage(Indexer indexer,
+			SearchSession session, QueryCache cache,
+			QueryCache.SearchType type, String query,
+			SearchPage.Cursor after, int size) throws Exception {
+		long timeStart = Clock.systemUTC().millis();
+		SearchPage page = indexer.getCachedPage(session, cache, type, query,
+				PAGE_SIZE, after, size);
+		long timeEnd = Clock.systemUTC().millis();
+		
+		System.out.println("Time elapsed for searching: "
+				+ (timeEnd - timeStart) + " ms");
+		System.out.println("Showing files " + (page.getStart() + 1) + " to "
+				+ (page.getStart() + page.getFilenames().length) + " of "
+				+ page.getTotalHits() + " hits"
+				+ (page.hasNext() ? " (\"/next\" for more)" : ""));
+		return page;
+	}
+	
+	/**
+	 * Checks whether the user input starts with a command, in any case
+	 * @param input the user input
+	 * @param command the command, with the space that follows it
+	 * @return boolean true if the input starts with the command
+	 */
+	private static boolean startsWithIgnoreCase(String input, String command) {
+		return input.regionMatches(true, 0, command, 0, command.length());
 	}
 }
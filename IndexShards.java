@@ -0,0 +1,112 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * Helper methods for the layout of a sharded index. A sharded index keeps
+ * its documents in sub-indexes named shard-0, shard-1 and so on inside the
+ * index directory. Each file always goes to the same shard, picked by a hash
+ * of its canonical path. An index directory without shard directories is a
+ * single, unsharded index.
+ * @author Eric Gunn
+ *
+ */
+public class IndexShards {
+
+	private static final String SHARD_PREFIX = "shard-";
+
+	private IndexShards() {}
+
+	/**
+	 * Picks the shard of a file
+	 * @param path canonical path of the file
+	 * @param numShards number of shards in the index
+	 * @return int the number of the shard, from 0 to numShards - 1
+	 */
+	public static int getShard(String path, int numShards) {
+		return Math.floorMod(path.hashCode(), numShards);
+	}
+
+	/**
+	 * Gets the directory of a shard
+	 * @param indexDir the directory of the sharded index
+	 * @param shard the number of the shard
+	 * @return File the directory of the shard
+	 */
+	public static File getShardDir(File indexDir, int shard) {
+		return new File(indexDir, SHARD_PREFIX + shard);
+	}
+
+	/**
+	 * Lists the shard directories of an index, in shard order. Shards are
+	 * counted from shard-0 up to the first number that has no directory
+	 * @param indexDir the directory of the index
+	 * @return File[] the shard directories, empty if the index is not sharded
+	 */
+	public static File[] getShardDirs(File indexDir) {
+		List<File> shards = new ArrayList<File>();
+		for(File shard = getShardDir(indexDir, 0); shard.isDirectory();
+				shard = getShardDir(indexDir, shards.size())) {
+			shards.add(shard);
+		}
+		return shards.toArray(new File[shards.size()]);
+	}
+
+	/**
+	 * Deletes the shard directories left by an earlier layout with more
+	 * shards, so that searches do not see their documents. An unsharded
+	 * layout deletes every shard directory, and a sharded layout deletes the
+	 * files of an earlier unsharded index in the index directory, which
+	 * searches of the shards would never open
+	 * @param indexDir the directory of the index
+	 * @param numShards number of shards of the new layout
+	 * @throws IOException if a shard could not be deleted
+	 */
+	public static void deleteStaleShards(File indexDir, int numShards)
+			throws IOException {
+		if(numShards > 1) {
+			deleteIndexFiles(indexDir);
+		}
+		int first = numShards > 1 ? numShards : 0;
+		for(int i = first; getShardDir(indexDir, i).isDirectory(); i++) {
+			File shard = getShardDir(indexDir, i);
+			File[] files = shard.listFiles();
+			if(files != null) {
+				for(File f : files) {
+					Files.delete(f.toPath());
+				}
+			}
+			Files.delete(shard.toPath());
+		}
+	}
+
+	/**
+	 * Helper method that deletes the Lucene files directly inside a
+	 * directory, leaving its shard directories and any other file
+	 * @param indexDir the directory of the index
+	 * @throws IOException if a file could not be deleted
+	 */
+	private static void deleteIndexFiles(File indexDir) throws IOException {
+		File[] files = indexDir.listFiles();
+		if(files == null) {
+			return;
+		}
+		for(File f : files) {
+			String name = f.getName();
+			if(f.isFile() && (name.startsWith(IndexFileNames.SEGMENTS)
+					|| name.startsWith(IndexFileNames.PENDING_SEGMENTS)
+					|| name.equals(IndexWriter.WRITE_LOCK_NAME)
+					|| IndexFileNames.CODEC_FILE_PATTERN.matcher(name)
+							.matches())) {
+				Files.delete(f.toPath());
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package indexer;
+
+/**
+ * A class that stores the number of files added, updated, deleted and
+ * skipped by an incremental indexing run of the Indexer class.
+ * @author Eric Gunn
+ *
+ */
+public class IndexUpdateResult {
+	
+	private int added;
+	private int updated;
+	private int deleted;
+	private int skipped;
+	private int numDocs;
+	
+	public IndexUpdateResult() {}
+	
+	/**
+	 * Constructor for an IndexUpdateResult holding the same counts as
+	 * another, such as a snapshot of counts that are still growing
+	 * @param other the counts to be copied
+	 */
+	public IndexUpdateResult(IndexUpdateResult other) {
+		this.added = other.added;
+		this.updated = other.updated;
+		this.deleted = other.deleted;
+		this.skipped = other.skipped;
+		this.numDocs = other.numDocs;
+	}
+	
+	/**
+	 * Counts one file that was new to the index
+	 */
+	public void addAdded() {
+		this.added++;
+	}
+	
+	/**
+	 * Counts one file that changed since it was last indexed
+	 */
+	public void addUpdated() {
+		this.updated++;
+	}
+	
+	/**
+	 * Counts one indexed file that no longer exists
+	 */
+	public void addDeleted() {
+		this.deleted++;
+	}
+	
+	/**
+	 * Counts one file that did not change since it was last indexed
+	 */
+	public void addSkipped() {
+		this.skipped++;
+	}
+	
+	/**
+	 * Adds the counts of another run to this one, such as a rescan done
+	 * while watching the data directory
+	 * @param other the counts to be added
+	 */
+	public void add(IndexUpdateResult other) {
+		this.added += other.added;
+		this.updated += other.updated;
+		this.deleted += other.deleted;
+		this.skipped += other.skipped;
+	}
+	
+	/**
+	 * Setter method for the number of documents in the index after the run
+	 * @param numDocs number of documents in the index
+	 */
+	public void setNumDocs(int numDocs) {
+		this.numDocs = numDocs;
+	}
+	
+	/**
+	 * Getter method for number of files added
+	 * @return int number of files added
+	 */
+	public int getAdded() {
+		return this.added;
+	}
+	
+	/**
+	 * Getter method for number of files updated
+	 * @return int number of files updated
+	 */
+	public int getUpdated() {
+		return this.updated;
+	}
+	
+	/**
+	 * Getter method for number of files deleted
+	 * @return int number of files deleted
+	 */
+	public int getDeleted() {
+		return this.deleted;
+	}
+	
+	/**
+	 * Getter method for number of files skipped
+	 * @return int number of files skipped
+	 */
+	public int getSkipped() {
+		return this.skipped;
+	}
+	
+	/**
+	 * Getter method for number of documents in the index after the run
+	 * @return int number of documents in the index
+	 */
+	public int getNumDocs() {
+		return this.numDocs;
+	}
+	
+	/**
+	 * Prints the member variables of the IndexUpdateResult
+	 */
+	public void print() {
+		System.out.println("Files added: " + this.added);
+		System.out.println("Files updated: " + this.updated);
+		System.out.println("Files deleted: " + this.deleted);
+		System.out.println("Files skipped: " + this.skipped);
+		System.out.println("Number of documents in index: " + this.numDocs);
+	}
+}
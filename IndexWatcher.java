@@ -0,0 +1,573 @@
+package indexer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PrefixQuery;
+
+/**
+ * This class keeps an index up to date with its data directory while the
+ * directory is being changed, instead of rebuilding the index. The index is
+ * first brought up to date the same way Indexer.indexIncremental() does it,
+ * then a WatchService reports every file that is created, modified or
+ * deleted. A file is re-indexed once no event has been reported for it for
+ * the debounce time, so a file being written is indexed once, and changes
+ * are committed at most once per commit interval. Searches see the changes
+ * once their SearchSession is refreshed, for example with
+ * SearchSession.startAutoRefresh().
+ *
+ * Files waiting to be indexed are held in a bounded map. When it is full,
+ * the watching thread waits for the index to catch up. If the operating
+ * system drops events in the meantime, the whole directory is compared with
+ * the index instead, and directories created meanwhile are watched, so a
+ * burst such as copying in a directory of 100k files uses bounded memory
+ * and ends with the same index a rebuild would give.
+ * The index is locked for writing while it is watched.
+ * @author Eric Gunn
+ *
+ */
+public class IndexWatcher implements Closeable {
+
+	private static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+	private static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 2000;
+	private static final int DEFAULT_MAX_PENDING = 10000;
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	private static final long MIN_POLL_MILLIS = 10;
+
+	private Indexer indexer;
+	private File indexDir;
+	private File dataDir;
+	private String suffix;
+	private IngestionProfile profile;
+	private FileCrawler crawler;
+
+	private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+	private long commitIntervalMillis = DEFAULT_COMMIT_INTERVAL_MILLIS;
+	private int maxPending = DEFAULT_MAX_PENDING;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private IndexWriter[] indexWriters;
+	private WatchService watchService;
+	private Map<WatchKey, Path> watchedDirs;
+	//files waiting to be indexed, in the order of their last event
+	private LinkedHashMap<Path, Change> pending;
+	private boolean rescan;
+	private volatile boolean closed;
+	private Thread watcher;
+	private ScheduledExecutorService applier;
+
+	//counts of the applier thread, guarded by this watcher
+	private IndexUpdateResult result;
+	private boolean uncommitted;
+	private long lastCommit;
+
+	/**
+	 * Constructor for an IndexWatcher object that writes with the
+	 * LOW_LATENCY_UPDATE ingestion profile
+	 * @param indexer the indexer whose settings, crawler and shards are used
+	 * @param indexDir the directory of the index to be kept up to date
+	 * @param dataDir the directory of the data files to be watched
+	 * @param suffix the suffix or extension of the files to be indexed
+	 */
+	public IndexWatcher(Indexer indexer, File indexDir, File dataDir,
+			String suffix) {
+		this(indexer, indexDir, dataDir, suffix,
+				IngestionProfile.LOW_LATENCY_UPDATE);
+	}
+
+	/**
+	 * Constructor for an IndexWatcher object
+	 * @param indexer the indexer whose settings, crawler and shards are used
+	 * @param indexDir the directory of the index to be kept up to date
+	 * @param dataDir the directory of the data files to be watched
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @param profile the IndexWriter settings to index with
+	 */
+	public IndexWatcher(Indexer indexer, File indexDir, File dataDir,
+			String suffix, IngestionProfile profile) {
+		this.indexer = indexer;
+		this.indexDir = indexDir;
+		this.dataDir = dataDir;
+		this.suffix = suffix;
+		this.profile = profile;
+		this.crawler = indexer.getCrawler(suffix);
+		this.watchedDirs = new HashMap<WatchKey, Path>();
+		this.pending = new LinkedHashMap<Path, Change>();
+		this.result = new IndexUpdateResult();
+	}
+
+	/**
+	 * Sets how long a file must go without events before it is indexed
+	 * @param debounceMillis quiet time in milliseconds
+	 */
+	public void setDebounceMillis(long debounceMillis) {
+		if(debounceMillis < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0."));
+		}
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Sets the shortest time between two commits of the index
+	 * @param commitIntervalMillis time between commits in milliseconds
+	 */
+	public void setCommitIntervalMillis(long commitIntervalMillis) {
+		if(commitIntervalMillis < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0."));
+		}
+		this.commitIntervalMillis = commitIntervalMillis;
+	}
+
+	/**
+	 * Sets the max number of files waiting to be indexed before the watching
+	 * thread waits
+	 * @param maxPending max number of files waiting
+	 */
+	public void setMaxPending(int maxPending) {
+		if(maxPending < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Sets the max number of files indexed between two checks for commits
+	 * @param batchSize max number of files per batch
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Brings the index up to date with the data directory, commits, and
+	 * starts watching the directory
+	 * @throws IOException if the index could not be opened or the directory
+	 * could not be watched
+	 */
+	public synchronized void start() throws IOException {
+		if(this.watcher != null) {
+			throw new IllegalStateException("Watcher was already started");
+		}
+		IndexShards.deleteStaleShards(indexDir, indexer.getShards());
+		this.indexWriters = indexer.openWriters(indexDir, profile);
+		try {
+			//watch before catching up, so no change is missed in between
+			this.watchService = FileSystems.getDefault().newWatchService();
+			register(dataDir.toPath(), false);
+			this.result.add(indexer.updateIndex(indexWriters, dataDir,
+					suffix));
+			commit();
+		}
+		catch (IOException e) {
+			if(this.watchService != null) {
+				this.watchService.close();
+			}
+			indexer.closeWriters(indexWriters);
+			throw e;
+		}
+
+		this.watcher = new Thread(() -> watch(), "index-watcher");
+		this.watcher.setDaemon(true);
+		this.watcher.start();
+
+		long poll = Math.max(MIN_POLL_MILLIS, debounceMillis / 2);
+		this.applier = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "index-watcher-apply");
+			t.setDaemon(true);
+			return t;
+		});
+		this.applier.scheduleWithFixedDelay(() -> apply(false), poll, poll,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Getter method for the number of files added, updated and deleted since
+	 * the watcher was started, and the number of documents as of the last
+	 * commit. The counts keep growing while the watcher runs, so a copy of
+	 * them as of this call is returned
+	 * @return IndexUpdateResult the counts, which do not change afterwards
+	 */
+	public synchronized IndexUpdateResult getResult() {
+		return new IndexUpdateResult(result);
+	}
+
+	/**
+	 * Stops watching, indexes the files still waiting, commits and closes
+	 * the index
+	 * @throws IOException if the index could not be committed or closed
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed || watcher == null) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		watchService.close();
+		applier.shutdown();
+		try {
+			applier.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			watcher.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			apply(true);
+		}
+		finally {
+			indexer.closeWriters(indexWriters);
+		}
+	}
+
+	/**
+	 * Watching thread loop that turns events into files waiting to be
+	 * indexed, until the watcher is closed
+	 */
+	private void watch() {
+		while(!closed) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			}
+			catch (ClosedWatchServiceException | InterruptedException e) {
+				return;
+			}
+			Path dir;
+			synchronized(watchedDirs) {
+				dir = watchedDirs.get(key);
+			}
+			for(WatchEvent<?> event : key.pollEvents()) {
+				if(event.kind() == StandardWatchEventKinds.OVERFLOW
+						|| dir == null) {
+					//events were lost, compare the whole directory instead
+					requestRescan();
+					continue;
+				}
+				Path path = dir.resolve((Path) event.context());
+				boolean created =
+						event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+				if(created && crawler.isRecursive()
+						&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					try {
+						register(path, true);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+						requestRescan();
+					}
+				}
+				offer(path, created);
+			}
+			if(!key.reset()) {
+				synchronized(watchedDirs) {
+					watchedDirs.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method that watches a directory, and its subdirectories if the
+	 * crawler is recursive
+	 * @param dir the directory to be watched
+	 * @param offerFiles true to also queue the files already in the
+	 * directory, for directories created while watching
+	 * @throws IOException if a directory could not be watched
+	 */
+	private void register(Path dir, boolean offerFiles) throws IOException {
+		if(!crawler.isRecursive()) {
+			watchDirectory(dir);
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d,
+					BasicFileAttributes attrs) throws IOException {
+				watchDirectory(d);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path f,
+					BasicFileAttributes attrs) {
+				if(offerFiles) {
+					offer(f, true);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Helper method that watches every subdirectory of the data directory
+	 * that is not watched yet, if the crawler is recursive. A directory that
+	 * cannot be read or watched is skipped, its files are still compared
+	 * with the index by the rescan
+	 * @throws IOException if the data directory could not be walked
+	 */
+	private void watchNewDirectories() throws IOException {
+		if(!crawler.isRecursive()) {
+			return;
+		}
+		Set<Path> watched;
+		synchronized(watchedDirs) {
+			watched = new HashSet<Path>(watchedDirs.values());
+		}
+		Files.walkFileTree(dataDir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d,
+					BasicFileAttributes attrs) {
+				if(!watched.contains(d)) {
+					try {
+						watchDirectory(d);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path f, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Helper method that watches a single directory
+	 * @param dir the directory to be watched
+	 * @throws IOException if the directory could not be watched
+	 */
+	private void watchDirectory(Path dir) throws IOException {
+		WatchKey key = dir.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		synchronized(watchedDirs) {
+			watchedDirs.put(key, dir);
+		}
+	}
+
+	/**
+	 * Adds a changed file to the files waiting to be indexed, waiting while
+	 * too many files are waiting
+	 * @param path the changed file or directory
+	 * @param created true if the file was created
+	 */
+	private synchronized void offer(Path path, boolean created) {
+		while(pending.size() >= maxPending && !pending.containsKey(path)
+				&& !rescan && !closed) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		//a rescan will find the file anyway
+		if(rescan) {
+			return;
+		}
+		//move the file to the end, the order of last events
+		Change old = pending.remove(path);
+		pending.put(path, new Change(System.currentTimeMillis(),
+				created || (old != null && old.created)));
+	}
+
+	/**
+	 * Drops the files waiting to be indexed and compares the whole data
+	 * directory with the index on the next batch
+	 */
+	private synchronized void requestRescan() {
+		rescan = true;
+		pending.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Applier loop body that indexes the files which have gone without
+	 * events for the debounce time, and commits if the commit interval has
+	 * passed
+	 * @param flush true to index every waiting file and commit, when closing
+	 */
+	private void apply(boolean flush) {
+		try {
+			boolean fullRescan;
+			List<Map.Entry<Path, Change>> batch =
+					new ArrayList<Map.Entry<Path, Change>>();
+			synchronized(this) {
+				fullRescan = rescan;
+				rescan = false;
+				long quietSince = System.currentTimeMillis() - debounceMillis;
+				Iterator<Map.Entry<Path, Change>> it =
+						pending.entrySet().iterator();
+				while(it.hasNext() && (flush || batch.size() < batchSize)) {
+					Map.Entry<Path, Change> entry = it.next();
+					//later entries had events even more recently
+					if(!flush && entry.getValue().lastEvent > quietSince) {
+						break;
+					}
+					batch.add(entry);
+					it.remove();
+				}
+				notifyAll();
+			}
+
+			if(fullRescan) {
+				System.out.println("Rescanning directory:... "
+						+ dataDir.getCanonicalPath());
+				//directories created while events were lost are not
+				//watched yet, watch them before comparing
+				watchNewDirectories();
+				IndexUpdateResult scan = indexer.updateIndex(indexWriters,
+						dataDir, suffix);
+				synchronized(this) {
+					result.add(scan);
+				}
+				uncommitted = true;
+			}
+			for(Map.Entry<Path, Change> entry : batch) {
+				applyChange(entry.getKey().toFile(), entry.getValue().created);
+			}
+			if(uncommitted && (flush || System.currentTimeMillis()
+					- lastCommit >= commitIntervalMillis)) {
+				commit();
+			}
+		}
+		catch (Exception e) {
+			//keep watching, the next rescan or event may succeed
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Helper method that indexes or deletes a single changed file
+	 * @param f the changed file or directory
+	 * @param created true if the file was created since it was last indexed
+	 * @throws IOException if the file could not be read or the index written
+	 */
+	private void applyChange(File f, boolean created) throws IOException {
+		String path = f.getCanonicalPath();
+		if(f.isFile()) {
+			if(!crawler.accepts(dataDir, f) || !indexer.isIndexable(f, suffix)) {
+				return;
+			}
+			//a binary file left out before is only read again once changed
+			if(indexer.isSkippedFile(f, path)) {
+				synchronized(this) {
+					result.addSkipped();
+				}
+				return;
+			}
+			System.out.println((created ? "Adding file:... "
+					: "Updating file:... ") + path);
+			int shard = Indexer.getShard(path, indexWriters.length);
+			Term term = new Term("filename", path);
+			for(int i = 0; i < indexWriters.length; i++) {
+				if(i != shard) {
+					indexWriters[i].deleteDocuments(term);
+				}
+			}
+			int written = indexer.writeDocuments(indexWriters[shard], f, true);
+			synchronized(this) {
+				if(written == 0) {
+					result.addSkipped();
+				}
+				else if(created) {
+					result.addAdded();
+				}
+				else {
+					result.addUpdated();
+				}
+			}
+			uncommitted = true;
+		}
+		else if(!f.exists()) {
+			//a deleted directory takes every file below it with it
+			for(IndexWriter indexWriter : indexWriters) {
+				indexWriter.deleteDocuments(new Term("filename", path));
+				indexWriter.deleteDocuments(new PrefixQuery(
+						new Term("filename", path + File.separator)));
+			}
+			if(crawler.accepts(dataDir, f)) {
+				System.out.println("Deleting file:... " + path);
+				synchronized(this) {
+					result.addDeleted();
+				}
+			}
+			uncommitted = true;
+		}
+	}
+
+	/**
+	 * Helper method that commits every shard
+	 * @throws IOException if the index could not be committed
+	 */
+	private void commit() throws IOException {
+		int numDocs = 0;
+		for(IndexWriter indexWriter : indexWriters) {
+			Indexer.commit(indexWriter);
+			numDocs += indexWriter.numDocs();
+		}
+		synchronized(this) {
+			result.setNumDocs(numDocs);
+		}
+		lastCommit = System.currentTimeMillis();
+		uncommitted = false;
+	}
+
+	/**
+	 * A file waiting to be indexed
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class Change {
+
+		private long lastEvent;
+		private boolean created;
+
+		Change(long lastEvent, boolean created) {
+			this.lastEvent = lastEvent;
+			this.created = created;
+		}
+	}
+}
@@ -1,25 +1,46 @@
 package indexer;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.FSDirectory;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 
@@ -32,13 +53,267 @@ import org.apache.lucene.document.TextField;
 public class Indexer {
 	
 	private static final int DOUBLE = 2;
+	private static final int DEFAULT_QUEUE_CAPACITY = 256;
+	private static final long DEFAULT_STREAMING_THRESHOLD = 64L * 1024 * 1024;
+	//largest document, so character offsets of its text fit in an int even
+	//if a byte decodes to two characters
+	private static final long MAX_DOCUMENT_SIZE = 1L << 30;
+	//chunk size of files larger than MAX_DOCUMENT_SIZE when none was set
+	private static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+	//lines between the recorded line offsets of a streamed file
+	private static final int STREAMING_LINE_INTERVAL = 1024;
+	
+	//stored fields of a chunk document, one of several for a large file
+	public static final String CHUNK_FIELD = "chunk";
+	public static final String CHUNK_LINE_FIELD = "chunk_line";
+	//lowercase file name and extension, for filters of the query language
+	public static final String NAME_FIELD = "name";
+	public static final String EXTENSION_FIELD = "extension";
+	//stored name of the charset a file was decoded with
+	public static final String CHARSET_FIELD = "charset";
+	
+	//number of threads used to read files and to write documents during
+	//indexing, 1 and 1 uses the single-threaded path
+	private int readerThreads = 1;
+	private int writerThreads = 1;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	
+	//n-gram field that keeps the offset of the word of each n-gram
+	private static final FieldType NGRAMS_WITH_OFFSETS = new FieldType();
+	static {
+		NGRAMS_WITH_OFFSETS.setTokenized(true);
+		NGRAMS_WITH_OFFSETS.setIndexOptions(
+				IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		NGRAMS_WITH_OFFSETS.freeze();
+	}
+	
+	//whether contents are also indexed as n-grams for substring searches
+	private boolean substringIndexing = false;
+	//whether the full contents of each file are stored in the index
+	private boolean storeContents = true;
+	//lists the data files, null lists the top directory by suffix
+	private FileCrawler crawler;
+	//segments left after indexing, -1 leaves it to the ingestion profile
+	private int forceMergeSegments = -1;
+	//number of sub-indexes files are split across, 1 keeps a single index
+	private int numShards = 1;
+	//files larger than this are indexed from a Reader, not a String
+	private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+	//files larger than this are split into chunk documents, 0 for never
+	private long chunkSize = 0;
+	//charset of every file, null detects the charset of each file
+	private Charset charset;
+	//whether files that look like binary data are left out of the index
+	private boolean skipBinaryFiles = true;
+	//file name to {size, last modified} of binary files left out, so
+	//incremental runs do not read them again until they change
+	private ConcurrentHashMap<String, long[]> skippedFiles =
+			new ConcurrentHashMap<String, long[]>();
+	//whether files read for results are memory-mapped
+	private boolean memoryMapping = false;
 	
 	public Indexer() {}
 	
+	/**
+	 * Sets the crawler that lists the files to be indexed, for indexing
+	 * subdirectories or picking files by glob patterns. Files it lists are
+	 * still only indexed if they have the suffix given to index()
+	 * @param crawler the crawler, or null to index the files of the data
+	 * directory itself
+	 */
+	public void setCrawler(FileCrawler crawler) {
+		this.crawler = crawler;
+	}
+	
+	/**
+	 * Sets whether file contents are also indexed as n-grams, which lets
+	 * searchSubstringIndex() find substrings without a wildcard search. This
+	 * makes the index larger
+	 * @param substringIndexing true to index n-grams of the contents
+	 */
+	public void setSubstringIndexing(boolean substringIndexing) {
+		this.substringIndexing = substringIndexing;
+	}
+	
+	/**
+	 * Sets whether the full contents of each file are stored in the index.
+	 * If not, the index only keeps the start of each line, and the offset
+	 * of each n-gram if there are n-grams, which makes it much smaller, and
+	 * contents are read from the file when they are needed
+	 * @param storeContents false to leave file contents out of the index
+	 */
+	public void setStoreContents(boolean storeContents) {
+		this.storeContents = storeContents;
+	}
+	
+	/**
+	 * Creates the analyzer used to write an index
+	 * @return Analyzer analyzer for every field of a document
+	 */
+	private Analyzer getAnalyzer() {
+		StandardAnalyzer standard = new StandardAnalyzer();
+		if(substringIndexing) {
+			return IndexMetrics.wrap(SubstringAnalyzer.wrap(standard));
+		}
+		return IndexMetrics.wrap(standard);
+	}
+	
+	/**
+	 * Sets the number of threads used when indexing. Reader threads read
+	 * files into documents and pass them through a bounded queue to writer
+	 * threads, which analyze and add them to the index. Setting both to 1
+	 * (the default) indexes every file on the calling thread
+	 * @param readerThreads number of threads reading files
+	 * @param writerThreads number of threads adding documents to the index
+	 */
+	public void setIngestionThreads(int readerThreads, int writerThreads) {
+		if(readerThreads < 1 || writerThreads < 1) {
+			throw(new IllegalArgumentException("Thread counts must be"
+					+ " greater or equal to 1."));
+		}
+		this.readerThreads = readerThreads;
+		this.writerThreads = writerThreads;
+	}
+	
+	/**
+	 * Sets the capacity of the queue between reader and writer threads when
+	 * indexing with more than one thread. Readers wait when it is full
+	 * @param queueCapacity max number of read documents waiting to be written
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if(queueCapacity < 1) {
+			throw(new IllegalArgumentException("Queue capacity must be"
+					+ " greater or equal to 1."));
+		}
+		this.queueCapacity = queueCapacity;
+	}
+	
+	/**
+	 * Sets the number of shards, or sub-indexes, that files are split across
+	 * by a hash of their path. Shards are written at the same time, with at
+	 * least one writer thread each, and searches run on every shard at once
+	 * @param numShards number of shards, 1 for a single index
+	 */
+	public void setShards(int numShards) {
+		if(numShards < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.numShards = numShards;
+	}
+	
+	/**
+	 * Getter method for the number of shards files are split across
+	 * @return int number of shards, 1 for a single index
+	 */
+	public int getShards() {
+		return this.numShards;
+	}
+	
+	/**
+	 * Sets the size above which a file is indexed straight from the file
+	 * through a Reader, instead of being read into a String first, so
+	 * memory does not grow with the size of the file. Contents of these
+	 * files are never stored, but their line offsets are, so their buffers
+	 * are read from the file like those of any file not stored. Only one
+	 * line in every thousand or so is recorded, and buffers are read from
+	 * the recorded line before them
+	 * @param streamingThreshold size in bytes, Long.MAX_VALUE to never
+	 * stream
+	 */
+	public void setStreamingThreshold(long streamingThreshold) {
+		if(streamingThreshold < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0."));
+		}
+		this.streamingThreshold = streamingThreshold;
+	}
+	
+	/**
+	 * Sets the size above which a file is split into several documents of
+	 * whole lines, each about this size, instead of being streamed. Each
+	 * chunk keeps the line number it starts at and the offsets of its lines,
+	 * so a hit maps back to its region of the file, and chunk contents can
+	 * still be stored. Files larger than 1 GB are always split, into 64 MB
+	 * chunks if no chunk size was set, since the offsets of their text would
+	 * not fit in an int
+	 * @param chunkSize size in bytes of each chunk, 0 to only split files
+	 * larger than 1 GB
+	 */
+	public void setChunkSize(long chunkSize) {
+		if(chunkSize < 0 || chunkSize > MAX_DOCUMENT_SIZE) {
+			throw(new IllegalArgumentException("Argument must be between 0"
+					+ " and " + MAX_DOCUMENT_SIZE + "."));
+		}
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Sets the charset every file is decoded with. By default the charset
+	 * of each file is detected from its first block: a byte order mark
+	 * names it, text that is valid UTF-8 is read as UTF-8, and other text as
+	 * FileEncoding.FALLBACK_CHARSET
+	 * @param charset the charset, or null to detect the charset of each
+	 * file. Its line breaks must be single bytes or UTF-16
+	 */
+	public void setCharset(Charset charset) {
+		if(charset != null) {
+			FileEncoding.checkCharset(charset);
+		}
+		this.charset = charset;
+		this.skippedFiles.clear();
+	}
+	
+	/**
+	 * Sets whether files that look like binary data, whose first block holds
+	 * a NUL byte, are left out of the index. Only their first block is read
+	 * @param skipBinaryFiles false to index binary files as text, true by
+	 * default
+	 */
+	public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+		this.skipBinaryFiles = skipBinaryFiles;
+		this.skippedFiles.clear();
+	}
+	
+	/**
+	 * Sets whether files read to build results are searched through a
+	 * MappedTextBuffer, which memory-maps each file and matches its bytes
+	 * instead of decoding every line. Results are the same either way
+	 * @param memoryMapping true to memory-map the files read
+	 */
+	public void setMemoryMapping(boolean memoryMapping) {
+		this.memoryMapping = memoryMapping;
+	}
+	
+	/**
+	 * Sets whether the index is force-merged once files are indexed,
+	 * overriding the ingestion profile. Fewer segments make searches faster
+	 * but merging a large index takes time and disk space
+	 * @param maxSegments max number of segments left, 0 to not force-merge,
+	 * -1 to use the setting of the profile
+	 */
+	public void setForceMerge(int maxSegments) {
+		if(maxSegments < -1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to -1."));
+		}
+		this.forceMergeSegments = maxSegments;
+	}
+	
+	/**
+	 * Checks whether ingestion should use the multi-threaded pipeline
+	 * @return boolean true if more than one reader or writer thread is set
+	 */
+	public boolean isParallelIngestion() {
+		return this.readerThreads > 1 || this.writerThreads > 1;
+	}
+	
 	/**
 	 * Main indexing function that creates an index in a given directory by
 	 * indexing files from a different given directory. The function will
-	 * only index files of the given suffix (works best with .txt)
+	 * only index files of the given suffix (works best with .txt). Files are
+	 * indexed in parallel if more than one thread was set with
+	 * setIngestionThreads()
 	 * @param indexDir the directory of the index to be created
 	 * @param dataDir the directory of the data files to be indexed
 	 * @param suffix the suffix or extension of the files to be indexed
@@ -46,13 +321,34 @@ public class Indexer {
 	 * @throws Exception if directory file is invalid
 	 */
 	public int index(File indexDir, File dataDir, String suffix) throws Exception {
-		StandardAnalyzer standard = new StandardAnalyzer();
-		IndexWriterConfig config = new IndexWriterConfig(standard);
+		return index(indexDir, dataDir, suffix, IngestionProfile.DEFAULT);
+	}
+	
+	/**
+	 * Main indexing function that creates an index with the IndexWriter
+	 * settings of an ingestion profile. The number of files indexed per
+	 * second is printed along with the profile once indexing is done
+	 * @param indexDir the directory of the index to be created
+	 * @param dataDir the directory of the data files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @param profile the IndexWriter settings to index with
+	 * @return int the number of files indexed
+	 * @throws Exception if directory file is invalid
+	 */
+	public int index(File indexDir, File dataDir, String suffix,
+			IngestionProfile profile) throws Exception {
+		if(numShards > 1) {
+			return indexSharded(indexDir, dataDir, suffix, profile);
+		}
+		IndexShards.deleteStaleShards(indexDir, numShards);
+		long start = System.nanoTime();
+		IndexWriterConfig config = profile.apply(
+				new IndexWriterConfig(getAnalyzer()));
 		Directory directory = FSDirectory.open(indexDir.toPath());
 		
 		//create IndexWriter object that writes to given directory
         IndexWriter indexWriter = new IndexWriter(directory, config);
-        indexWriter.commit();
+        commit(indexWriter);
         IndexReader indexReader = DirectoryReader.open(directory);
         IndexSearcher indexSearcher = new IndexSearcher(indexReader);
         
@@ -60,16 +356,355 @@ public class Indexer {
         indexWriter.deleteAll();
         
         //index the files in our data directory
-        indexDirectory(indexWriter, indexReader, indexSearcher, dataDir, suffix); 
+        if(isParallelIngestion()) {
+        	IngestionPipeline pipeline = new IngestionPipeline(this,
+        			indexWriter, readerThreads, writerThreads, queueCapacity);
+        	FileCrawler.FileIterator files = crawl(dataDir, suffix);
+        	try {
+        		pipeline.run(files, suffix);
+        	}
+        	finally {
+        		files.close();
+        	}
+        }
+        else {
+        	indexDirectory(indexWriter, indexReader, indexSearcher, dataDir,
+        			suffix);
+        }
         
-        indexWriter.commit();
+        commit(indexWriter);
+        forceMerge(indexWriter, profile);
         
         int numIndexed = indexWriter.numDocs();
         
-        indexWriter.close();        
+        indexWriter.close();
+        indexReader.close();
+        directory.close();
+        printThroughput(numIndexed, start, profile);
         return numIndexed;        
     }
 
+	/**
+	 * Incremental indexing function that brings an existing index up to date
+	 * with a data directory instead of rebuilding it. Files that are new to
+	 * the index are added, files whose size or last modified time changed
+	 * are replaced, files that no longer exist are deleted and unchanged
+	 * files are skipped. If the index does not exist yet, every file is added
+	 * @param indexDir the directory of the index to be updated
+	 * @param dataDir the directory of the data files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @return IndexUpdateResult the number of files added, updated, deleted
+	 * and skipped
+	 * @throws Exception if directory file is invalid
+	 */
+	public IndexUpdateResult indexIncremental(File indexDir, File dataDir,
+			String suffix) throws Exception {
+		return indexIncremental(indexDir, dataDir, suffix,
+				IngestionProfile.DEFAULT);
+	}
+	
+	/**
+	 * Incremental indexing function that updates an existing index with the
+	 * IndexWriter settings of an ingestion profile
+	 * @param indexDir the directory of the index to be updated
+	 * @param dataDir the directory of the data files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @param profile the IndexWriter settings to index with
+	 * @return IndexUpdateResult the number of files added, updated, deleted
+	 * and skipped
+	 * @throws Exception if directory file is invalid
+	 */
+	public IndexUpdateResult indexIncremental(File indexDir, File dataDir,
+			String suffix, IngestionProfile profile) throws Exception {
+		long start = System.nanoTime();
+		IndexShards.deleteStaleShards(indexDir, numShards);
+		IndexWriter[] indexWriters = openWriters(indexDir, profile);
+		IndexUpdateResult result;
+		
+		try {
+			result = updateIndex(indexWriters, dataDir, suffix);
+			
+			int numDocs = 0;
+			for(IndexWriter indexWriter : indexWriters) {
+				commit(indexWriter);
+				forceMerge(indexWriter, profile);
+				numDocs += indexWriter.numDocs();
+			}
+			result.setNumDocs(numDocs);
+		}
+		finally {
+			closeWriters(indexWriters);
+		}
+		printThroughput(result.getAdded() + result.getUpdated(), start,
+				profile);
+		return result;
+	}
+	
+	/**
+	 * Helper method that brings open writers up to date with a data
+	 * directory, the same way indexIncremental() does, without committing
+	 * @param indexWriters the writers of the index, one per shard
+	 * @param dataDir the directory of the data files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @return IndexUpdateResult the number of files added, updated, deleted
+	 * and skipped
+	 * @throws IOException if a file or the index could not be read
+	 */
+	IndexUpdateResult updateIndex(IndexWriter[] indexWriters, File dataDir,
+			String suffix) throws IOException {
+		IndexUpdateResult result = new IndexUpdateResult();
+		//file name to {size, last modified, shard} of everything indexed
+		HashMap<String, long[]> indexed = new HashMap<String, long[]>();
+		for(int i = 0; i < indexWriters.length; i++) {
+			getIndexedFiles(indexWriters[i], i, indexed);
+		}
+		
+		FileCrawler.FileIterator files = crawl(dataDir, suffix);
+		try {
+			while(files.hasNext()) {
+				File f = files.next();
+				if(!isIndexable(f, suffix)) {
+					continue;
+				}
+				String path = f.getCanonicalPath();
+				int shard = getShard(path, indexWriters.length);
+				IndexWriter indexWriter = indexWriters[shard];
+				long[] stamp = indexed.remove(path);
+				if(stamp == null && isSkippedFile(f, path)) {
+					result.addSkipped();
+				}
+				else if(stamp == null) {
+					System.out.println("Adding file:... " + path);
+					if(writeDocuments(indexWriter, f, false) > 0) {
+						result.addAdded();
+					}
+					else {
+						result.addSkipped();
+					}
+				}
+				else if(stamp[0] != f.length()
+						|| stamp[1] != f.lastModified()) {
+					System.out.println("Updating file:... " + path);
+					//a file indexed with another shard count moves shards
+					if(stamp[2] != shard) {
+						indexWriters[(int) stamp[2]].deleteDocuments(
+								new Term("filename", path));
+					}
+					//a file that is now binary is only deleted
+					if(writeDocuments(indexWriter, f, true) > 0) {
+						result.addUpdated();
+					}
+					else {
+						result.addDeleted();
+					}
+				}
+				else {
+					result.addSkipped();
+				}
+			}
+		}
+		finally {
+			files.close();
+		}
+		
+		//whatever is left was not found in the data directory
+		for(Entry<String, long[]> entry : indexed.entrySet()) {
+			System.out.println("Deleting file:... " + entry.getKey());
+			indexWriters[(int) entry.getValue()[2]].deleteDocuments(
+					new Term("filename", entry.getKey()));
+			result.addDeleted();
+		}
+		return result;
+	}
+	
+	/**
+	 * Helper method for index() that builds a sharded index. Every shard is
+	 * emptied and files are added to the shard of their path by the
+	 * ingestion pipeline, with at least one writer thread per shard
+	 * @param indexDir the directory of the sharded index
+	 * @param dataDir the directory of the data files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @param profile the IndexWriter settings to index with
+	 * @return int the number of files indexed in all shards
+	 * @throws Exception if directory file is invalid
+	 */
+	private int indexSharded(File indexDir, File dataDir, String suffix,
+			IngestionProfile profile) throws Exception {
+		long start = System.nanoTime();
+		IndexShards.deleteStaleShards(indexDir, numShards);
+		IndexWriter[] indexWriters = openWriters(indexDir, profile);
+		int numIndexed = 0;
+		
+		try {
+			for(IndexWriter indexWriter : indexWriters) {
+				indexWriter.deleteAll();
+			}
+			IngestionPipeline pipeline = new IngestionPipeline(this,
+					indexWriters, readerThreads,
+					Math.max(writerThreads, numShards), queueCapacity);
+			FileCrawler.FileIterator files = crawl(dataDir, suffix);
+			try {
+				pipeline.run(files, suffix);
+			}
+			finally {
+				files.close();
+			}
+			
+			for(IndexWriter indexWriter : indexWriters) {
+				commit(indexWriter);
+				forceMerge(indexWriter, profile);
+				numIndexed += indexWriter.numDocs();
+			}
+		}
+		finally {
+			closeWriters(indexWriters);
+		}
+		printThroughput(numIndexed, start, profile);
+		return numIndexed;
+	}
+	
+	/**
+	 * Helper method that opens a writer for the index, or one writer per
+	 * shard if sharding was set with setShards()
+	 * @param indexDir the directory of the index
+	 * @param profile the IndexWriter settings to index with
+	 * @return IndexWriter[] the writers, in shard order
+	 * @throws IOException if an index could not be opened
+	 */
+	IndexWriter[] openWriters(File indexDir, IngestionProfile profile)
+			throws IOException {
+		IndexWriter[] indexWriters = new IndexWriter[numShards];
+		try {
+			for(int i = 0; i < numShards; i++) {
+				File dir = numShards > 1 ? IndexShards.getShardDir(indexDir, i)
+						: indexDir;
+				Directory directory = FSDirectory.open(dir.toPath());
+				try {
+					indexWriters[i] = new IndexWriter(directory, profile.apply(
+							new IndexWriterConfig(getAnalyzer())));
+				}
+				catch (IOException e) {
+					directory.close();
+					throw e;
+				}
+			}
+		}
+		catch (IOException e) {
+			closeWriters(indexWriters);
+			throw e;
+		}
+		return indexWriters;
+	}
+	
+	/**
+	 * Helper method that closes writers opened by openWriters() and their
+	 * directories
+	 * @param indexWriters the writers, some of which may be null
+	 * @throws IOException if an index could not be closed
+	 */
+	void closeWriters(IndexWriter[] indexWriters) throws IOException {
+		for(IndexWriter indexWriter : indexWriters) {
+			if(indexWriter != null) {
+				indexWriter.close();
+				indexWriter.getDirectory().close();
+			}
+		}
+	}
+	
+	/**
+	 * Helper method that picks the shard of a file
+	 * @param path canonical path of the file
+	 * @param numWriters number of shards open
+	 * @return int the shard, always 0 for a single index
+	 */
+	static int getShard(String path, int numWriters) {
+		return numWriters == 1 ? 0 : IndexShards.getShard(path, numWriters);
+	}
+	
+	/**
+	 * Helper method that force-merges and commits the index if the profile
+	 * or setForceMerge() asks for it
+	 * @param indexWriter writer of the index
+	 * @param profile the profile indexed with
+	 * @throws IOException if the index could not be merged
+	 */
+	private void forceMerge(IndexWriter indexWriter, IngestionProfile profile)
+			throws IOException {
+		int maxSegments = forceMergeSegments >= 0 ? forceMergeSegments
+				: profile.getForceMergeSegments();
+		if(maxSegments > 0) {
+			System.out.println("Merging index down to " + maxSegments
+					+ " segment(s)...");
+			indexWriter.forceMerge(maxSegments);
+			commit(indexWriter);
+		}
+	}
+	
+	/**
+	 * Helper method that prints how fast files were indexed and with which
+	 * profile
+	 * @param numFiles number of files indexed
+	 * @param start System.nanoTime() when indexing started
+	 * @param profile the profile indexed with
+	 */
+	private void printThroughput(int numFiles, long start,
+			IngestionProfile profile) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Indexed %d files in %.3f s"
+				+ " (%.1f files/s) with profile %s", numFiles, seconds,
+				seconds > 0 ? numFiles / seconds : 0.0, profile));
+	}
+	
+	/**
+	 * Helper method for indexIncremental() that reads the file name, size and
+	 * last modified time of every document in an index or shard
+	 * @param indexWriter writer of the index to be read
+	 * @param shard the number of the shard being read
+	 * @param indexed pairs of file names with their size, last modified
+	 * time and shard, which size and last modified time are -1 for
+	 * documents indexed without them
+	 * @throws IOException if the index could not be read
+	 */
+	private void getIndexedFiles(IndexWriter indexWriter, int shard,
+			HashMap<String, long[]> indexed) throws IOException {
+		HashSet<String> fields = new HashSet<String>(
+				Arrays.asList("filename", "size", "modified"));
+		DirectoryReader reader = DirectoryReader.open(indexWriter);
+		
+		for(LeafReaderContext leaf : reader.leaves()) {
+			Bits liveDocs = leaf.reader().getLiveDocs();
+			SortedDocValues filenames = leaf.reader().getSortedDocValues(
+					"filename");
+			NumericDocValues sizes = leaf.reader().getNumericDocValues(
+					"size");
+			NumericDocValues modifiedTimes =
+					leaf.reader().getNumericDocValues("modified");
+			for(int i = 0; i < leaf.reader().maxDoc(); i++) {
+				if(liveDocs != null && !liveDocs.get(i)) {
+					continue;
+				}
+				//read the columns of documents indexed with doc values
+				if(filenames != null && sizes != null && modifiedTimes != null
+						&& filenames.advanceExact(i) && sizes.advanceExact(i)
+						&& modifiedTimes.advanceExact(i)) {
+					indexed.put(filenames.binaryValue().utf8ToString(),
+							new long[] {sizes.longValue(),
+									modifiedTimes.longValue(), shard});
+					continue;
+				}
+				Document d = leaf.reader().document(i, fields);
+				IndexableField size = d.getField("size");
+				IndexableField modified = d.getField("modified");
+				indexed.put(d.get("filename"), new long[] {
+					size == null ? -1 : size.numericValue().longValue(),
+					modified == null ? -1 : modified.numericValue().longValue(),
+					shard
+				});
+			}
+		}
+		reader.close();
+	}
+
 	/**
 	 * Helper method for index() that handles going inside a directory
 	 * @param indexWriter writer object from the index() method
@@ -84,114 +719,449 @@ public class Indexer {
 			File dataDir, String suffix)
 					throws IOException {
 		//process all files in the directory of suffix
-		File[] files = dataDir.listFiles();
-        for (File f : files) {
-            indexFileWithIndexWriter(indexWriter, indexReader,
-            		indexSearcher, f, suffix);
-        }
+		FileCrawler.FileIterator files = crawl(dataDir, suffix);
+		try {
+			while(files.hasNext()) {
+				indexFileWithIndexWriter(indexWriter, indexReader,
+						indexSearcher, files.next(), suffix);
+			}
+		}
+		finally {
+			files.close();
+		}
     }
 	
 	/**
-	 * Method that performs the actual indexing for a single file
-	 * @param indexWriter writer object from the index() method
-	 * @param indexReader reader object from the index() method
-	 * @param indexSearcher searcher object from the index() method
-	 * @param f the file to be indexed
-	 * @param suffix the suffix or extension of the files to be indexed
-	 * @throws IOException if passed in file is invalid
+	 * Helper method that lists the files of a data directory lazily, with
+	 * the crawler set by setCrawler() if there is one
+	 * @param dataDir the directory of the data files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @return FileIterator the files to be checked and indexed, to be closed
+	 * when done
+	 */
+	private FileCrawler.FileIterator crawl(File dataDir, String suffix) {
+		FileCrawler.FileIterator files = getCrawler(suffix).crawl(dataDir);
+		//time spent waiting for each file is the crawl stage
+		return new FileCrawler.FileIterator() {
+			@Override
+			public boolean hasNext() {
+				long start = IndexMetrics.start();
+				boolean hasNext = files.hasNext();
+				IndexMetrics.record(IndexMetrics.Stage.CRAWL, start);
+				return hasNext;
+			}
+			
+			@Override
+			public File next() {
+				File f = files.next();
+				IndexMetrics.count(IndexMetrics.Counter.FILES_CRAWLED, 1);
+				return f;
+			}
+			
+			@Override
+			public void close() {
+				files.close();
+			}
+		};
+	}
+	
+	/**
+	 * Commits an index writer, timing it as the commit stage
+	 * @param indexWriter the writer to be committed
+	 * @throws IOException if the index could not be committed
+	 */
+	static void commit(IndexWriter indexWriter) throws IOException {
+		long start = IndexMetrics.start();
+		indexWriter.commit();
+		IndexMetrics.record(IndexMetrics.Stage.COMMIT, start);
+	}
+	
+	/**
+	 * Gets the crawler that lists the data files
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @return FileCrawler the crawler set by setCrawler(), or one that lists
+	 * the top directory by suffix
+	 */
+	FileCrawler getCrawler(String suffix) {
+		return crawler != null ? crawler : new FileCrawler(suffix);
+	}
+	
+	/**
+	 * Method that performs the actual indexing for a single file
+	 * @param indexWriter writer object from the index() method
+	 * @param indexReader reader object from the index() method
+	 * @param indexSearcher searcher object from the index() method
+	 * @param f the file to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @throws IOException if passed in file is invalid
+	 */
+	private void indexFileWithIndexWriter(IndexWriter indexWriter,
+			IndexReader indexReader, IndexSearcher indexSearcher,
+			File f, String suffix)
+					throws IOException {
+		//make sure file is acceptable
+		if (!isIndexable(f, suffix)) {
+			return;
+	    }
+	    System.out.println("Indexing file:... " + f.getCanonicalPath());
+	    
+	    //add the document, or chunk documents, to our index directory
+	    writeDocuments(indexWriter, f, false);
+	}
+	
+	/**
+	 * Checks whether a file should be indexed
+	 * @param f the file to be checked
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @return boolean true if the file is a readable, visible file of the
+	 * given suffix
+	 */
+	boolean isIndexable(File f, String suffix) {
+		//make sure file is acceptable
+		if (f.isHidden() || f.isDirectory() || !f.canRead() || !f.exists()) {
+			return false;
+	    }
+		//suffix null check and suffix at end of file check
+	    if (suffix != null && !f.getName().endsWith(suffix)) {
+	        return false;
+	    }
+	    return true;
+	}
+	
+	/**
+	 * Searches through an index to find a list of files that contain the
+	 * exact given query string. Opens and closes the index for this single
+	 * search, use a SearchSession to run many searches on one open index
+	 * @param indexDir the directory of the index
+	 * @param queryStr the string to be searched for
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws Exception if index directory file is invalid
+	 */
+	public String[] searchIndex(File indexDir, String queryStr, int maxHits)
+			throws Exception {
+		SearchSession session = new SearchSession(indexDir);
+		try {
+			return searchIndex(session, queryStr, maxHits);
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Searches through an open index to find a list of files that contain
+	 * the exact given query string
+	 * @param session the search session holding the open index
+	 * @param queryStr the string to be searched for
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws Exception if the index could not be searched
+	 */
+	public String[] searchIndex(SearchSession session, String queryStr,
+			int maxHits) throws Exception {
+		queryStr = queryStr.toLowerCase();
+		
+		//search the contents for our query
+		Term t = new Term("contents", queryStr);
+		TermQuery query = new TermQuery(t);
+		String[] filenames = session.search(query, maxHits);
+		
+		//print the total number of files found
+		System.out.println("Found " + filenames.length);
+		return filenames;
+	}
+	
+	/**
+	 * Searches through an index to find a list of files that contain words
+	 * that contain the given query string/substring. Opens and closes the
+	 * index for this single search, use a SearchSession to run many searches
+	 * on one open index
+	 * @param indexDir the directory of the index
+	 * @param queryStr the string to be searched for
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws Exception if index directory file is invalid
+	 */
+	public String[] searchWildcardIndex(File indexDir, String queryStr,
+			int maxHits) throws Exception {
+		SearchSession session = new SearchSession(indexDir);
+		try {
+			return searchWildcardIndex(session, queryStr, maxHits);
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Searches through an open index to find a list of files that contain
+	 * words that contain the given query string/substring
+	 * @param session the search session holding the open index
+	 * @param queryStr the string to be searched for
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws Exception if the index could not be searched
+	 */
+	public String[] searchWildcardIndex(SearchSession session,
+			String queryStr, int maxHits) throws Exception {
+		queryStr = queryStr.toLowerCase();
+		
+		//search the contents for our query + wildcard (*)
+		//in essence, this acts as a substring search
+		Term t = new Term("contents", "*" + queryStr + "*");
+		WildcardQuery query = new WildcardQuery(t);
+		System.out.println("Listing files...");
+		String[] filenames = session.search(query, maxHits);
+		
+		//print the total number of files found
+		System.out.println("Found \"" + queryStr + "\" in "
+				+ filenames.length + " files");
+		return filenames;
+	}
+	
+	/**
+	 * Searches through an index to find a list of files that contain words
+	 * that contain the given query string/substring, returning the same files
+	 * as searchWildcardIndex(). Uses the n-gram field written when the index
+	 * was built with setSubstringIndexing(true), so the cost depends on the
+	 * query rather than the number of words in the index. Falls back to
+	 * searchWildcardIndex() if the index has no n-gram field. Unlike
+	 * searchWildcardIndex(), '*' and '?' are not wildcards here, and a query
+	 * holding them is rejected
+	 * @param indexDir the directory of the index
+	 * @param queryStr the string to be searched for
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws Exception if index directory file is invalid
+	 */
+	public String[] searchSubstringIndex(File indexDir, String queryStr,
+			int maxHits) throws Exception {
+		SearchSession session = new SearchSession(indexDir);
+		try {
+			return searchSubstringIndex(session, queryStr, maxHits);
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Searches through an open index to find a list of files that contain
+	 * words that contain the given query string/substring, using the n-gram
+	 * field if the index has one
+	 * @param session the search session holding the open index
+	 * @param queryStr the string to be searched for
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws Exception if the index could not be searched
+	 */
+	public String[] searchSubstringIndex(SearchSession session,
+			String queryStr, int maxHits) throws Exception {
+		SubstringAnalyzer.checkQuery(queryStr);
+		if(!session.hasField(SubstringAnalyzer.FIELD)) {
+			return searchWildcardIndex(session, queryStr, maxHits);
+		}
+		queryStr = queryStr.toLowerCase();
+		
+		System.out.println("Listing files...");
+		String[] filenames = session.search(
+				SubstringAnalyzer.buildQuery(queryStr), maxHits);
+		
+		//print the total number of files found
+		System.out.println("Found \"" + queryStr + "\" in "
+				+ filenames.length + " files");
+		return filenames;
+	}
+	
+	/**
+	 * Searches through an open index for one page of ranked files. The next
+	 * page is searched by passing the cursor of this page back, which only
+	 * searches as many hits as fit on a page however deep it is
+	 * @param session the search session holding the open index
+	 * @param type which of the index searches to run
+	 * @param queryStr the string to be searched for
+	 * @param pageSize the max number of files on the page
+	 * @param after cursor from SearchPage.getNext() of the page before, or
+	 * null for the first page
+	 * @return SearchPage the files of the page with their scores, the total
+	 * number of hits and the cursor to the next page
+	 * @throws Exception if the index could not be searched
+	 */
+	public SearchPage searchPage(SearchSession session,
+			QueryCache.SearchType type, String queryStr, int pageSize,
+			SearchPage.Cursor after) throws Exception {
+		//operators of the query language are upper case
+		if(type != QueryCache.SearchType.QUERY) {
+			queryStr = queryStr.toLowerCase();
+		}
+		SearchPage page = session.search(buildQuery(session, type, queryStr),
+				pageSize, after);
+		
+		//print which part of the results was found
+		if(session.isVerbose()) {
+			System.out.println("Found \"" + queryStr + "\" in "
+					+ page.getTotalHits() + " documents, showing files "
+					+ (page.getStart() + 1) + " to "
+					+ (page.getStart() + page.getFilenames().length));
+		}
+		return page;
+	}
+	
+	/**
+	 * Counts the files matching a search of an open index without
+	 * collecting or loading any document, for callers that only need to
+	 * know how many files mention the query
+	 * @param session the search session holding the open index
+	 * @param type which of the index searches to run
+	 * @param queryStr the string to be searched for
+	 * @return long number of files found, a file split into chunks counted
+	 * once
+	 * @throws Exception if the index could not be searched
+	 */
+	public long countIndex(SearchSession session, QueryCache.SearchType type,
+			String queryStr) throws Exception {
+		//operators of the query language are upper case
+		if(type != QueryCache.SearchType.QUERY) {
+			queryStr = queryStr.toLowerCase();
+		}
+		return session.count(buildQuery(session, type, queryStr));
+	}
+	
+	/**
+	 * Checks whether any file matches a search of an open index, stopping
+	 * at the first match
+	 * @param session the search session holding the open index
+	 * @param type which of the index searches to run
+	 * @param queryStr the string to be searched for
+	 * @return boolean true if at least one file was found
+	 * @throws Exception if the index could not be searched
+	 */
+	public boolean existsInIndex(SearchSession session,
+			QueryCache.SearchType type, String queryStr) throws Exception {
+		if(type != QueryCache.SearchType.QUERY) {
+			queryStr = queryStr.toLowerCase();
+		}
+		return session.exists(buildQuery(session, type, queryStr));
+	}
+	
+	/**
+	 * Searches an open index for a page of ranked files and builds its
+	 * results, or returns the same page from the cache. The session is
+	 * refreshed first, as in getCachedResultStruct()
+	 * @param session the search session holding the open index
+	 * @param cache the cache of earlier results
+	 * @param type which of the index searches to run
+	 * @param queryString the text to be searched for
+	 * @param pageSize the max number of files on the page
+	 * @param after cursor from SearchPage.getNext() of the page before, or
+	 * null for the first page
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results
+	 * @return SearchPage the page, with its results in getResults(), which
+	 * must not be changed since they may be shared with other callers
+	 * @throws Exception if the index could not be searched
+	 */
+	public SearchPage getCachedPage(SearchSession session, QueryCache cache,
+			QueryCache.SearchType type, String queryString, int pageSize,
+			SearchPage.Cursor after, int halfBufferSize) throws Exception {
+		session.refresh();
+		long version = session.getVersion();
+		SearchPage page = cache.getPage(version, type, queryString, after,
+				pageSize, halfBufferSize);
+		if(page != null) {
+			return page;
+		}
+		
+		page = searchPage(session, type, queryString, pageSize, after);
+		long[] modified = QueryCache.getModifiedTimes(page.getFilenames());
+		page.setResults(buildResultStruct(session, type, page.getFilenames(),
+				halfBufferSize, queryString));
+		cache.putPage(version, type, queryString, after, pageSize,
+				halfBufferSize, modified, page);
+		return page;
+	}
+	
+	/**
+	 * Helper method that builds the query of an index search
+	 * @param session the search session holding the open index
+	 * @param type which of the index searches to run
+	 * @param queryStr the string to be searched for, lower case unless it is
+	 * in the query language
+	 * @return Query the query on the contents, or on the n-gram field for a
+	 * substring search of an index that has one
+	 * @throws IOException if the index could not be read
+	 */
+	private static Query buildQuery(SearchSession session,
+			QueryCache.SearchType type, String queryStr) throws IOException {
+		switch(type) {
+		case QUERY:
+			return IndexQueryParser.parseQuery(queryStr);
+		case TERM:
+			return new TermQuery(new Term("contents", queryStr));
+		case SUBSTRING:
+			SubstringAnalyzer.checkQuery(queryStr);
+			if(session.hasField(SubstringAnalyzer.FIELD)) {
+				return SubstringAnalyzer.buildQuery(queryStr);
+			}
+			//no n-gram field, search like searchWildcardIndex()
+			return buildWildcardQuery(queryStr);
+		default:
+			return buildWildcardQuery(queryStr);
+		}
+	}
+	
+	/**
+	 * Helper method that builds the query of a wildcard search
+	 * @param queryStr the string to be searched for, in lower case
+	 * @return Query the query for the string anywhere in a word
 	 */
-	private void indexFileWithIndexWriter(IndexWriter indexWriter,
-			IndexReader indexReader, IndexSearcher indexSearcher,
-			File f, String suffix)
-					throws IOException {
-		//make sure file is acceptable
-		if (f.isHidden() || f.isDirectory() || !f.canRead() || !f.exists()) {
-			return;
-	    }
-		//suffix null check and suffix at end of file check
-	    if (suffix != null && !f.getName().endsWith(suffix)) {
-	        return;
-	    }      
-	    System.out.println("Indexing file:... " + f.getCanonicalPath());
-	    Document doc = getDocument(f);
-	    
-	    //add document to our index directory by writing it
-	    indexWriter.addDocument(doc);
+	private static Query buildWildcardQuery(String queryStr) {
+		return new WildcardQuery(new Term("contents", "*" + queryStr + "*"));
 	}
 	
 	/**
-	 * Searches through an index to find a list of files that contain the
-	 * exact given query string
+	 * Searches through an index to find a list of files that match a query
+	 * in the language of IndexQueryParser: AND, OR and NOT, phrases, prefix,
+	 * wildcard and fuzzy terms, and filename and extension filters. Opens and
+	 * closes the index for this single search, use a SearchSession to run
+	 * many searches on one open index
 	 * @param indexDir the directory of the index
-	 * @param queryStr the string to be searched for
+	 * @param queryStr the query to be run
 	 * @param maxHits the max number of files to return
 	 * @return String[] a list of canonical file paths of the files found
-	 * @throws Exception if index directory file is invalid
+	 * @throws Exception if index directory file is invalid or the query is
+	 * not valid
 	 */
-	public String[] searchIndex(File indexDir, String queryStr, int maxHits)
-			throws Exception {        
-		Directory directory = FSDirectory.open(indexDir.toPath());
-		IndexReader reader = DirectoryReader.open(directory);
-		IndexSearcher searcher = new IndexSearcher(reader);
-		
-		queryStr = queryStr.toLowerCase();
-		
-		//search the contents for our query
-		Term t = new Term("contents", queryStr);
-		TermQuery query = new TermQuery(t);        
-		TopDocs topDocs = searcher.search(query, maxHits);       
-		ScoreDoc[] hits = topDocs.scoreDocs;
-		
-		String[] filenames = new String[hits.length];
-		
-		//print which files are found
-		for (int i = 0; i < hits.length; i++) {
-			int docId = hits[i].doc;
-			Document d = searcher.doc(docId);
-			filenames[i] = d.get("filename");
-			System.out.println(d.get("filename"));
+	public String[] searchQueryIndex(File indexDir, String queryStr,
+			int maxHits) throws Exception {
+		SearchSession session = new SearchSession(indexDir);
+		try {
+			return searchQueryIndex(session, queryStr, maxHits);
+		}
+		finally {
+			session.close();
 		}
-		//print the total number of files found
-		System.out.println("Found " + hits.length);
-		return filenames;
 	}
 	
 	/**
-	 * Searches through an index to find a list of files that contain words
-	 * that contain the given query string/substring
-	 * @param indexDir the directory of the index
-	 * @param queryStr the string to be searched for
+	 * Searches through an open index to find a list of files that match a
+	 * query in the language of IndexQueryParser, in one pass
+	 * @param session the search session holding the open index
+	 * @param queryStr the query to be run
 	 * @param maxHits the max number of files to return
 	 * @return String[] a list of canonical file paths of the files found
-	 * @throws Exception if index directory file is invalid
+	 * @throws Exception if the index could not be searched or the query is
+	 * not valid
 	 */
-	public String[] searchWildcardIndex(File indexDir, String queryStr,
-			int maxHits) throws Exception {        
-		Directory directory = FSDirectory.open(indexDir.toPath());
-		IndexReader reader = DirectoryReader.open(directory);
-		IndexSearcher searcher = new IndexSearcher(reader);
-
-		queryStr = queryStr.toLowerCase();
-		
-		//search the contents for our query + wildcard (*)
-		//in essence, this acts as a substring search
-		Term t = new Term("contents", "*" + queryStr + "*");
-		WildcardQuery query = new WildcardQuery(t);        
-		TopDocs topDocs = searcher.search(query, maxHits);       
-		ScoreDoc[] hits = topDocs.scoreDocs;
+	public String[] searchQueryIndex(SearchSession session, String queryStr,
+			int maxHits) throws Exception {
+		String[] filenames = session.search(
+				IndexQueryParser.parseQuery(queryStr), maxHits);
 		
-		String[] filenames = new String[hits.length];
-		
-		//print which files are found
-		System.out.println("Listing files...");
-		for (int i = 0; i < hits.length; i++) {
-			int docId = hits[i].doc;
-			Document d = searcher.doc(docId);
-			filenames[i] = d.get("filename");
-			System.out.println(d.get("filename"));
-		}
 		//print the total number of files found
-		System.out.println("Found \"" + queryStr + "\" in " + hits.length + " files");
+		System.out.println("Found " + filenames.length + " files matching "
+				+ queryStr);
 		return filenames;
 	}
 	
@@ -201,53 +1171,443 @@ public class Indexer {
 	 * @throws Exception if index directory file is invalid
 	 */
 	public void printIndex(File indexDir) throws Exception {
-		Directory directory = FSDirectory.open(indexDir.toPath());
-		IndexReader reader = DirectoryReader.open(directory);
-		System.out.println("Index contains " + reader.numDocs()
-				+ " documents");
-		for(int i = 0; i < reader.numDocs(); i++) {
-			System.out.println("File: " + reader.document(i).get("filename"));
-			System.out.println(reader.document(i).get("contents"));
+		SearchSession session = new SearchSession(indexDir);
+		try {
+			printIndex(session);
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Prints to console the documents and their contents stored in an open
+	 * index
+	 * @param session the search session holding the open index
+	 * @throws Exception if the index could not be read
+	 */
+	public void printIndex(SearchSession session) throws Exception {
+		IndexSearcher searcher = session.acquire();
+		try {
+			IndexReader reader = searcher.getIndexReader();
+			Bits liveDocs = MultiFields.getLiveDocs(reader);
+			System.out.println("Index contains " + reader.numDocs()
+					+ " documents");
+			for(int i = 0; i < reader.maxDoc(); i++) {
+				//skip documents that were deleted or updated
+				if(liveDocs != null && !liveDocs.get(i)) {
+					continue;
+				}
+				Document d = reader.document(i);
+				String contents = d.get("contents");
+				//contents are read from the file if they were not stored
+				if(contents == null) {
+					contents = readDocumentLines(d);
+				}
+				System.out.println("File: " + d.get("filename"));
+				System.out.println(contents);
+			}
+		}
+		finally {
+			session.release(searcher);
+		}
+	}
+	
+	/**
+	 * Helper method for printIndex() that reads the lines of a document
+	 * whose contents were not stored. A chunk document only reads the lines
+	 * of its chunk
+	 * @param d the stored fields of the document
+	 * @return String the lines of the document
+	 * @throws IOException if the file could not be read
+	 */
+	private static String readDocumentLines(Document d) throws IOException {
+		File f = new File(d.get("filename"));
+		//indexes built before charsets were stored detect them again
+		FileEncoding encoding = FileEncoding.detect(f,
+				FileEncoding.forName(d.get(CHARSET_FIELD)));
+		BytesRef offsets = d.getBinaryValue(LineOffsets.FIELD);
+		if(d.getField(CHUNK_FIELD) == null || offsets == null) {
+			return readContents(f, encoding, null);
+		}
+		LineOffsets lineOffsets = new LineOffsets(offsets);
+		long start = lineOffsets.getLineByteStart(1);
+		long last = lineOffsets.getLineByteStart(lineOffsets.getNumLines());
+		return readLines(f, encoding, start, last - start + 1, null, null);
+	}
+	
+	/**
+	 * Creates the documents of a file. This is a single document, unless the
+	 * file is larger than the chunk size set with setChunkSize(), or than
+	 * 1 GB, in which case each chunk is read only once the documents are iterated to it.
+	 * A binary file has no documents, unless setSkipBinaryFiles(false)
+	 * @param f file passed in to be read
+	 * @return Iterable the documents of the file, in order
+	 * @throws IOException if passed in file is invalid
+	 */
+	Iterable<Document> getDocuments(File f) throws IOException {
+		FileEncoding encoding = FileEncoding.detect(f, charset);
+		if(encoding.isBinary() && skipBinaryFiles) {
+			IndexMetrics.count(IndexMetrics.Counter.BINARY_FILES_SKIPPED, 1);
+			return Collections.emptyList();
+		}
+		if(chunkSize > 0 && f.length() > chunkSize) {
+			return () -> new ChunkIterator(f, encoding, chunkSize);
+		}
+		if(f.length() > MAX_DOCUMENT_SIZE) {
+			return () -> new ChunkIterator(f, encoding, DEFAULT_CHUNK_SIZE);
+		}
+		return Collections.singletonList(getDocument(f, encoding));
+	}
+	
+	/**
+	 * Adds the documents of a file to the index, or replaces the documents
+	 * already indexed for it
+	 * @param indexWriter writer of the index
+	 * @param f the file to be indexed
+	 * @param update true to replace the documents of the file
+	 * @return int number of documents written, 0 if the file was skipped
+	 * @throws IOException if the file could not be read or written
+	 */
+	int writeDocuments(IndexWriter indexWriter, File f, boolean update)
+			throws IOException {
+		try {
+			int written = 0;
+			boolean first = true;
+			for(Document doc : getDocuments(f)) {
+				long start = IndexMetrics.start();
+				//replacing the first chunk deletes every older chunk
+				if(update && first) {
+					indexWriter.updateDocument(new Term("filename",
+							doc.get("filename")), doc);
+				}
+				else {
+					indexWriter.addDocument(doc);
+				}
+				IndexMetrics.record(IndexMetrics.Stage.ADD_DOCUMENT, start);
+				IndexMetrics.count(IndexMetrics.Counter.DOCUMENTS_INDEXED, 1);
+				first = false;
+				written++;
+			}
+			if(written > 0) {
+				return written;
+			}
+			String path = f.getCanonicalPath();
+			skippedFiles.put(path, new long[] {f.length(), f.lastModified()});
+			//a file that is now skipped leaves nothing of its old version
+			if(update) {
+				indexWriter.deleteDocuments(new Term("filename", path));
+			}
+			return 0;
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Checks whether a file was left out of the index as binary data and
+	 * has not changed since
+	 * @param f the file to be checked
+	 * @param path canonical path of the file
+	 * @return boolean true if the file can be skipped without reading it
+	 */
+	boolean isSkippedFile(File f, String path) {
+		long[] stamp = skippedFiles.get(path);
+		if(stamp == null) {
+			return false;
+		}
+		if(stamp[0] == f.length() && stamp[1] == f.lastModified()) {
+			return true;
 		}
-	}	
+		skippedFiles.remove(path);
+		return false;
+	}
 	
 	/**
-	 * Creates a virtual document object given a file, storing its file name
-	 * and contents
+	 * Creates a virtual document object given a file, storing its file name,
+	 * contents, size and last modified time. Files larger than the streaming
+	 * threshold are indexed through a Reader without being read here
 	 * @param f file passed in to be read
+	 * @param encoding charset of the file
+	 * @return Document a virtual document containing fields found in the
+	 * Lucene API
+	 * @throws IOException if passed in file is invalid
+	 */
+	Document getDocument(File f, FileEncoding encoding) throws IOException {
+		if(f.length() > streamingThreshold) {
+			return getStreamingDocument(f, encoding);
+		}
+		//index file contents
+		LineOffsets lineOffsets = new LineOffsets();
+		long start = IndexMetrics.start();
+		String s = readContents(f, encoding, lineOffsets);
+		IndexMetrics.record(IndexMetrics.Stage.FILE_READ, start);
+		IndexMetrics.count(IndexMetrics.Counter.BYTES_READ, f.length());
+		return buildDocument(f, encoding, s, lineOffsets, false);
+	}
+	
+	/**
+	 * Helper method that creates the document of a file from its text
+	 * @param f the file
+	 * @param encoding charset of the file
+	 * @param s the text to be indexed
+	 * @param lineOffsets the start of each line of the text
+	 * @param keepOffsets true to store the line offsets even when the text
+	 * is stored
 	 * @return Document a virtual document containing fields found in the
 	 * Lucene API
 	 * @throws IOException if passed in file is invalid
 	 */
-	private Document getDocument(File f) throws IOException {
+	private Document buildDocument(File f, FileEncoding encoding, String s,
+			LineOffsets lineOffsets, boolean keepOffsets) throws IOException {
 		Document document = new Document();
 		
-		//index file contents
-		FileReader read = new FileReader(f);
-	    BufferedReader br = new BufferedReader(read);
-	    StringBuilder sb = new StringBuilder();
-	    String line = br.readLine();
-	    while (line != null) {
-	    	sb.append(line).append("\n");
-	    	line = br.readLine();
-	    }
-	    String s = sb.toString();
-		
-		TextField contentField = new TextField("contents",
-				s, Field.Store.YES);
-   
-		//index file name
-		StringField fileNameField = new StringField("filename",
-				f.getCanonicalPath(), Field.Store.YES);
-   
+		Field contentField;
+		if(storeContents) {
+			contentField = new TextField("contents", s, Field.Store.YES);
+			if(keepOffsets) {
+				document.add(new StoredField(LineOffsets.FIELD,
+						lineOffsets.toBytesRef()));
+			}
+		}
+		else {
+			//the text is read from the file when needed, from the line
+			//the n-gram offsets give if there are n-grams
+			contentField = new TextField("contents", s, Field.Store.NO);
+			document.add(new StoredField(LineOffsets.FIELD,
+					lineOffsets.toBytesRef()));
+		}
+		
 	   	document.add(contentField);
-	   	document.add(fileNameField);
+		addFileFields(document, f, encoding);
 	   	
-	   	br.close();
+	   	//index file contents again as n-grams for substring searches,
+	   	//with offsets so hits can be found without the text
+	   	if(substringIndexing) {
+	   		document.add(storeContents
+	   				? new TextField(SubstringAnalyzer.FIELD, s, Field.Store.NO)
+	   				: new Field(SubstringAnalyzer.FIELD, s,
+	   						NGRAMS_WITH_OFFSETS));
+	   	}
 		
 		return document;
 	}
 	
+	/**
+	 * Helper method that creates the document of a large file whose contents
+	 * are read by Lucene through a Reader while it is indexed. The contents
+	 * are not stored, but the start of each line is recorded while they are
+	 * read, so buffers are read from the line the n-gram offsets give, the
+	 * same as other files whose contents are not stored. Only one line in
+	 * every STREAMING_LINE_INTERVAL is recorded, so the offsets stay small
+	 * however many lines the file has. The n-gram field
+	 * reads the file a second time, since holding the text for it would
+	 * defeat streaming
+	 * @param f the file
+	 * @param encoding charset of the file
+	 * @return Document a virtual document containing fields found in the
+	 * Lucene API
+	 * @throws IOException if passed in file is invalid
+	 */
+	private Document getStreamingDocument(File f, FileEncoding encoding)
+			throws IOException {
+		Document document = new Document();
+		LineOffsets lineOffsets = new LineOffsets(STREAMING_LINE_INTERVAL);
+		document.add(new TextField("contents", new LineReader(f, encoding, 0,
+				Long.MAX_VALUE, lineOffsets, false)));
+		//Lucene reads the contents before it stores the fields after them
+		document.add(new LineOffsetsField(lineOffsets));
+		addFileFields(document, f, encoding);
+		if(substringIndexing) {
+			document.add(new Field(SubstringAnalyzer.FIELD, new LineReader(f,
+					encoding, 0, Long.MAX_VALUE, null, false),
+					NGRAMS_WITH_OFFSETS));
+		}
+		return document;
+	}
+	
+	/**
+	 * Helper method that adds the file name, size, last modified time and
+	 * charset of a file to its document
+	 * @param document the document of the file
+	 * @param f the file
+	 * @param encoding charset of the file
+	 * @throws IOException if passed in file is invalid
+	 */
+	private static void addFileFields(Document document, File f,
+			FileEncoding encoding) throws IOException {
+		//index file name, with a doc value so hits are resolved to paths
+		//without loading stored fields
+		String path = f.getCanonicalPath();
+		StringField fileNameField = new StringField("filename", path,
+				Field.Store.YES);
+		SortedDocValuesField fileNameValue = new SortedDocValuesField(
+				"filename", new BytesRef(path));
+		
+		//index name and extension, without the directory or the dot
+		String name = f.getName().toLowerCase();
+		int dot = name.lastIndexOf('.');
+		StringField nameField = new StringField(NAME_FIELD, name,
+				Field.Store.NO);
+		StringField extensionField = new StringField(EXTENSION_FIELD,
+				dot < 0 ? "" : name.substring(dot + 1), Field.Store.NO);
+		
+		//store size and last modified time for incremental indexing, also
+		//as doc values so they are read as columns
+		long size = f.length();
+		long modified = f.lastModified();
+		StoredField sizeField = new StoredField("size", size);
+		StoredField modifiedField = new StoredField("modified", modified);
+		
+	   	document.add(fileNameField);
+	   	document.add(fileNameValue);
+	   	document.add(nameField);
+	   	document.add(extensionField);
+	   	document.add(sizeField);
+	   	document.add(new NumericDocValuesField("size", size));
+	   	document.add(modifiedField);
+	   	document.add(new NumericDocValuesField("modified", modified));
+	   	//buffers read from the file later are decoded the same way
+	   	document.add(new StoredField(CHARSET_FIELD,
+	   			encoding.getCharset().name()));
+	}
+	
+	/**
+	 * Reads the contents of a file the same way they are indexed, with each
+	 * line ending in a new line character. Lines end at a new line, a
+	 * carriage return, or both
+	 * @param f file passed in to be read
+	 * @param encoding charset of the file and length of its byte order mark
+	 * @param lineOffsets where the character and byte start of each line is
+	 * recorded, can be null
+	 * @return String contents of the file
+	 * @throws IOException if passed in file is invalid
+	 */
+	static String readContents(File f, FileEncoding encoding,
+			LineOffsets lineOffsets) throws IOException {
+		return readLines(f, encoding, 0, Long.MAX_VALUE, lineOffsets, null);
+	}
+	
+	/**
+	 * Reads whole lines of a file, the same way readContents() does,
+	 * starting at a byte offset and stopping at the first line that starts
+	 * at least maxBytes later. The file is read from a FileChannel into the
+	 * direct buffer of this thread, and each line is decoded from there with
+	 * the decoder of this thread, so nothing is allocated per line but the
+	 * text itself
+	 * @param f file passed in to be read
+	 * @param encoding charset of the file and length of its byte order mark
+	 * @param start byte offset of the first line to be read, a byte order
+	 * mark is skipped
+	 * @param maxBytes number of bytes after which no new line is started
+	 * @param lineOffsets where the character and byte start of each line is
+	 * recorded, can be null. Byte starts are offsets in the whole file
+	 * @param end where the byte offset of the first line not read is
+	 * written, or -1 if the end of the file was reached, can be null
+	 * @return String the lines that were read
+	 * @throws IOException if passed in file is invalid
+	 */
+	static String readLines(File f, FileEncoding encoding, long start,
+			long maxBytes, LineOffsets lineOffsets, long[] end)
+					throws IOException {
+		LineReader reader = new LineReader(f, encoding, start, maxBytes,
+				lineOffsets, true);
+		StringBuilder sb = new StringBuilder();
+		try {
+			reader.readAll(sb);
+		}
+		finally {
+			reader.close();
+		}
+		if(end != null) {
+			end[0] = reader.getEnd();
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Iterator over the chunk documents of a large file. Each chunk is read
+	 * when it is reached, opening the file at the offset the last chunk
+	 * ended, so only one chunk is held in memory and no file is left open
+	 * @author Eric Gunn
+	 *
+	 */
+	private class ChunkIterator implements Iterator<Document> {
+		
+		private File f;
+		private FileEncoding encoding;
+		private long size;
+		//byte offset of the next chunk, -1 once the file was read
+		private long position = 0;
+		private int chunk = 0;
+		private int line = 1;
+		
+		ChunkIterator(File f, FileEncoding encoding, long size) {
+			this.f = f;
+			this.encoding = encoding;
+			this.size = size;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return position >= 0;
+		}
+		
+		@Override
+		public Document next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				LineOffsets lineOffsets = new LineOffsets();
+				long[] end = new long[1];
+				long start = IndexMetrics.start();
+				String s = readLines(f, encoding, position, size,
+						lineOffsets, end);
+				IndexMetrics.record(IndexMetrics.Stage.FILE_READ, start);
+				long read = end[0] < 0 ? f.length() - position
+						: end[0] - position;
+				IndexMetrics.count(IndexMetrics.Counter.BYTES_READ, read);
+				Document document = buildDocument(f, encoding, s,
+						lineOffsets, true);
+				document.add(new StoredField(CHUNK_FIELD, chunk));
+				document.add(new NumericDocValuesField(CHUNK_FIELD, chunk));
+				document.add(new StoredField(CHUNK_LINE_FIELD, line));
+				chunk++;
+				line += lineOffsets.getNumLines();
+				position = end[0];
+				return document;
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Stored field holding the line offsets of a streamed file, which are
+	 * only complete once its contents were read. Lucene stores the fields of
+	 * a document in order, after reading the fields before them, so this
+	 * field must be added after the contents
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class LineOffsetsField extends StoredField {
+		
+		private LineOffsets lineOffsets;
+		
+		LineOffsetsField(LineOffsets lineOffsets) {
+			super(LineOffsets.FIELD, new BytesRef());
+			this.lineOffsets = lineOffsets;
+		}
+		
+		@Override
+		public BytesRef binaryValue() {
+			return lineOffsets.toBytesRef();
+		}
+	}
+	
 	/**
 	 * Creates a HashMap given a list of canonical file paths, a size
 	 * for the buffer to be returned, and the string to be searched for
@@ -277,7 +1637,7 @@ public class Indexer {
 				new HashMap<String, String>(files.length * DOUBLE);
 		
 		for(File f : files) {
-			TextBuffer buff = new TextBuffer(halfBufferSize);
+			TextBuffer buff = TextBuffer.create(halfBufferSize, memoryMapping);
 			results.put(f.getName(), buff.getBuffer(f,  queryString));
 		}
 		
@@ -319,7 +1679,7 @@ public class Indexer {
 		
 		for(File f : files) {
 			parentPath = f.getParent();
-			TextBuffer buff = new TextBuffer(halfBufferSize);
+			TextBuffer buff = TextBuffer.create(halfBufferSize, memoryMapping);
 			buffers[count] = buff.getBuffer(f, queryString);
 			startLines[count] = buff.getStartLine();
 			endLines[count] = buff.getEndLine();
@@ -335,6 +1695,231 @@ public class Indexer {
 		return results;
 	}
 	
+	/**
+	 * Searches each file for the given string and writes each result as
+	 * JSON as soon as it is found, without holding the results in memory.
+	 * The JSON has the same shape as a generated ResultStruct
+	 * @param filenames canonical file paths of the files found
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results.
+	 * An exception will be thrown if less than 0
+	 * @param queryString the text to be searched for
+	 * @param writer where the JSON is written, closed when done
+	 * @param indent size of indent for JSON styling, 0 for none
+	 * @return int the number of results written
+	 * @throws IOException if the JSON could not be written
+	 */
+	public int writeResults(String[] filenames, int halfBufferSize,
+			String queryString, Writer writer, int indent)
+					throws IOException {
+		if(halfBufferSize < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0. Passing in 0 will return the single line"
+					+ " of the queried string."));
+		}
+		JsonResultWriter json = new JsonResultWriter(writer, indent);
+		try {
+			String parentPath = filenames.length == 0 ? ""
+					: new File(filenames[0]).getParent();
+			//assume .txt extension
+			json.begin(".txt", queryString, parentPath);
+			for(String filename : filenames) {
+				TextBuffer buff = TextBuffer.create(halfBufferSize,
+						memoryMapping);
+				String buffer = buff.getBuffer(new File(filename),
+						queryString);
+				int numLines = buff.getQueryLine() == 0 ? 0
+						: buff.getEndLine() - buff.getStartLine() + 1;
+				json.writeResult(filename, buffer, buff.getStartLine(),
+						buff.getEndLine(), buff.getQueryLine(), numLines,
+						null);
+			}
+			return json.getNumResults();
+		}
+		finally {
+			json.close();
+		}
+	}
+	
+	/**
+	 * Creates a ResultStruct object holding every hit in each file, given a
+	 * list of canonical file paths, a size for the buffer to be returned, and
+	 * the string to be searched for. Each file is read once
+	 * @param filenames canonical file paths of the files to create the
+	 * ResultStruct object with
+	 * @param halfBufferSize number of lines above and below each line
+	 * containing the query string that will be returned in the results.
+	 * An exception will be thrown if less than 0
+	 * @param queryString the text to be searched for
+	 * @param maxHitsPerFile max number of hits to return for each file, 0
+	 * for no limit
+	 * @return ResultStruct an object containing details of a search
+	 */
+	public ResultStruct getMultiHitResultStruct(String[] filenames,
+			int halfBufferSize, String queryString, int maxHitsPerFile) {
+		if(halfBufferSize < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0. Passing in 0 will return the single line"
+					+ " of the queried string."));
+		}
+		List<List<TextBuffer.Hit>> hits =
+				new ArrayList<List<TextBuffer.Hit>>(filenames.length);
+		String parentPath = "";
+		
+		for(String filename : filenames) {
+			//uses canonical path, so directory is not required
+			File f = new File(filename);
+			parentPath = f.getParent();
+			TextBuffer buff = new TextBuffer(halfBufferSize);
+			hits.add(buff.getHits(f, queryString, maxHitsPerFile));
+		}
+		
+		//assume .txt extension
+		return new ResultStruct(filenames, hits, ".txt", parentPath,
+				queryString);
+	}
+	
+	/**
+	 * Helper method that creates the snippet engine of an open index
+	 * @param session the search session holding the open index
+	 * @return SnippetEngine engine that reads files the way this indexer
+	 * was set to
+	 */
+	private SnippetEngine getSnippetEngine(SearchSession session) {
+		SnippetEngine engine = new SnippetEngine(session);
+		engine.setMemoryMapping(memoryMapping);
+		return engine;
+	}
+	
+	/**
+	 * Creates a HashMap given a list of canonical file paths found in an open
+	 * index, using the index to build each buffer instead of reading every
+	 * file from the start
+	 * @param session the search session holding the open index
+	 * @param filenames canonical file paths of the files found
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results
+	 * @param queryString the text to be searched for
+	 * @return HashMap containing simple details of a search
+	 * @throws IOException if the index could not be read
+	 */
+	public HashMap<String, String> getResults(SearchSession session,
+			String[] filenames, int halfBufferSize, String queryString)
+					throws IOException {
+		return getSnippetEngine(session).getResults(filenames,
+				halfBufferSize, queryString);
+	}
+	
+	/**
+	 * Creates a ResultStruct object given a list of canonical file paths
+	 * found in an open index, using the index to build each buffer instead
+	 * of reading every file from the start
+	 * @param session the search session holding the open index
+	 * @param filenames canonical file paths of the files found
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results
+	 * @param queryString the text to be searched for
+	 * @return ResultStruct an object containing details of a search
+	 * @throws IOException if the index could not be read
+	 */
+	public ResultStruct getResultStruct(SearchSession session,
+			String[] filenames, int halfBufferSize, String queryString)
+					throws IOException {
+		return getSnippetEngine(session).getResultStruct(filenames,
+				halfBufferSize, queryString);
+	}
+	
+	/**
+	 * Searches an open index and builds the results, or returns the results
+	 * of the same search from the cache. The session is refreshed first, so
+	 * results cached before the index was last committed are searched again,
+	 * as are results whose hit files were modified
+	 * @param session the search session holding the open index
+	 * @param cache the cache of earlier results
+	 * @param type which of the index searches to run
+	 * @param queryString the text to be searched for
+	 * @param maxHits the max number of files to return
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results
+	 * @return ResultStruct the results, which must not be changed since they
+	 * may be shared with other callers
+	 * @throws Exception if the index could not be searched
+	 */
+	public ResultStruct getCachedResultStruct(SearchSession session,
+			QueryCache cache, QueryCache.SearchType type, String queryString,
+			int maxHits, int halfBufferSize) throws Exception {
+		session.refresh();
+		long version = session.getVersion();
+		ResultStruct results = cache.get(version, type, queryString, maxHits,
+				halfBufferSize);
+		if(results != null) {
+			return results;
+		}
+		
+		String[] filenames;
+		switch(type) {
+		case TERM:
+			filenames = searchIndex(session, queryString, maxHits);
+			break;
+		case SUBSTRING:
+			filenames = searchSubstringIndex(session, queryString, maxHits);
+			break;
+		case QUERY:
+			filenames = searchQueryIndex(session, queryString, maxHits);
+			break;
+		default:
+			filenames = searchWildcardIndex(session, queryString, maxHits);
+			break;
+		}
+		long[] modified = QueryCache.getModifiedTimes(filenames);
+		results = buildResultStruct(session, type, filenames, halfBufferSize,
+				queryString);
+		cache.put(version, type, queryString, maxHits, halfBufferSize,
+				filenames, modified, results);
+		return results;
+	}
+	
+	/**
+	 * Creates a ResultStruct object for the files found by a query in the
+	 * language of IndexQueryParser, with every word the query looks for
+	 * highlighted in the buffers
+	 * @param session the search session holding the open index
+	 * @param filenames canonical file paths of indexed files
+	 * @param halfBufferSize number of lines above and below the first line
+	 * containing a word of the query that will be returned in the results
+	 * @param queryString the query
+	 * @return ResultStruct an object containing details of a search
+	 * @throws IOException if the index could not be read
+	 */
+	public ResultStruct getQueryResultStruct(SearchSession session,
+			String[] filenames, int halfBufferSize, String queryString)
+					throws IOException {
+		return getSnippetEngine(session).getResultStruct(filenames,
+				halfBufferSize, queryString,
+				IndexQueryParser.parseQuery(queryString));
+	}
+	
+	/**
+	 * Helper method that builds the results of the files found by a search
+	 * @param session the search session holding the open index
+	 * @param type which of the index searches found the files
+	 * @param filenames canonical file paths of the files found
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @param queryString the text that was searched for
+	 * @return ResultStruct the results
+	 * @throws IOException if the index could not be read
+	 */
+	private ResultStruct buildResultStruct(SearchSession session,
+			QueryCache.SearchType type, String[] filenames,
+			int halfBufferSize, String queryString) throws IOException {
+		if(type == QueryCache.SearchType.QUERY) {
+			return getQueryResultStruct(session, filenames, halfBufferSize,
+					queryString);
+		}
+		return getResultStruct(session, filenames, halfBufferSize,
+				queryString);
+	}
+	
 	/**
 	 * Prints each key-value pair in a given hash map of the form
 	 * that we use in this class
@@ -380,6 +1965,26 @@ public class Indexer {
 			return dir.listFiles((d, name) -> name.endsWith(extension));
 		}
 		
+		/**
+		 * Retrieves a list of File objects listed by a crawler, which may
+		 * include files in subdirectories of the given directory
+		 * @param crawler the crawler that picks the files
+		 * @param directory the directory to grab files from
+		 * @return File[] list of File objects listed by the crawler
+		 */
+		public static File[] retrieveFiles(FileCrawler crawler,
+				String directory) {
+			List<File> files = new ArrayList<File>();
+			FileCrawler.FileIterator crawl = crawler.crawl(new File(directory));
+			try {
+				crawl.forEachRemaining(files::add);
+			}
+			finally {
+				crawl.close();
+			}
+			return files.toArray(new File[files.size()]);
+		}
+		
 		/**
 		 * Prints the current working directory
 		 */
@@ -0,0 +1,227 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * This class indexes files with multiple threads. Reader threads turn files
+ * into documents and put them on a bounded queue, and writer threads take
+ * documents off the queue and add them to the index. The IndexWriter is
+ * thread-safe, so analysis runs on all writer threads at once. A sharded
+ * index has one IndexWriter per shard, and each document is added to the
+ * shard of its file, so every shard is written at the same time.
+ * @author Eric Gunn
+ *
+ */
+public class IngestionPipeline {
+
+	//marker put on the queue once per writer thread when reading is done
+	private static final Document END_OF_FILES = new Document();
+	private static final long POLL_MILLIS = 100;
+
+	private Indexer indexer;
+	private IndexWriter[] indexWriters;
+	private int readerThreads;
+	private int writerThreads;
+	private BlockingQueue<Document> queue;
+	private AtomicReference<Exception> failure;
+
+	/**
+	 * Constructor for an IngestionPipeline object
+	 * @param indexer indexer used to check and read each file
+	 * @param indexWriter writer that documents are added to
+	 * @param readerThreads number of threads reading files
+	 * @param writerThreads number of threads adding documents to the index
+	 * @param queueCapacity max number of documents waiting to be written
+	 */
+	public IngestionPipeline(Indexer indexer, IndexWriter indexWriter,
+			int readerThreads, int writerThreads, int queueCapacity) {
+		this(indexer, new IndexWriter[] {indexWriter}, readerThreads,
+				writerThreads, queueCapacity);
+	}
+
+	/**
+	 * Constructor for an IngestionPipeline object that writes to the shards
+	 * of a sharded index
+	 * @param indexer indexer used to check and read each file
+	 * @param indexWriters one writer per shard, in shard order
+	 * @param readerThreads number of threads reading files
+	 * @param writerThreads number of threads adding documents to the index
+	 * @param queueCapacity max number of documents waiting to be written
+	 */
+	public IngestionPipeline(Indexer indexer, IndexWriter[] indexWriters,
+			int readerThreads, int writerThreads, int queueCapacity) {
+		this.indexer = indexer;
+		this.indexWriters = indexWriters;
+		this.readerThreads = readerThreads;
+		this.writerThreads = writerThreads;
+		this.queue = new ArrayBlockingQueue<Document>(queueCapacity);
+		this.failure = new AtomicReference<Exception>();
+	}
+
+	/**
+	 * Indexes the given files and waits until all of them are written
+	 * @param files the files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @throws IOException if a file could not be read or written
+	 */
+	public void run(File[] files, String suffix) throws IOException {
+		run(Arrays.asList(files).iterator(), suffix);
+	}
+
+	/**
+	 * Indexes the files given by an iterator and waits until all of them are
+	 * written. The iterator is shared between reader threads
+	 * @param files iterator over the files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 * @throws IOException if a file could not be read or written
+	 */
+	public void run(Iterator<File> files, String suffix) throws IOException {
+		ExecutorService readers = Executors.newFixedThreadPool(readerThreads);
+		ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+
+		for(int i = 0; i < writerThreads; i++) {
+			writers.execute(() -> write());
+		}
+		for(int i = 0; i < readerThreads; i++) {
+			readers.execute(() -> read(files, suffix));
+		}
+
+		try {
+			readers.shutdown();
+			readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			//tell every writer that no more documents are coming
+			for(int i = 0; i < writerThreads; i++) {
+				offer(END_OF_FILES);
+			}
+			writers.shutdown();
+			writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			readers.shutdownNow();
+			writers.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IOException("Indexing was interrupted", e);
+		}
+
+		Exception e = failure.get();
+		if(e instanceof IOException) {
+			throw (IOException) e;
+		}
+		else if(e != null) {
+			throw new IOException("Indexing failed", e);
+		}
+	}
+
+	/**
+	 * Reader loop that reads files into documents until there are no files
+	 * left or another thread failed
+	 * @param files iterator over the files to be indexed
+	 * @param suffix the suffix or extension of the files to be indexed
+	 */
+	private void read(Iterator<File> files, String suffix) {
+		while(failure.get() == null) {
+			File f;
+			synchronized(files) {
+				if(!files.hasNext()) {
+					return;
+				}
+				f = files.next();
+			}
+			if(!indexer.isIndexable(f, suffix)) {
+				continue;
+			}
+			try {
+				System.out.println("Indexing file:... " + f.getCanonicalPath());
+				//chunks of a large file are read one at a time
+				for(Document doc : indexer.getDocuments(f)) {
+					if(!offer(doc)) {
+						return;
+					}
+				}
+			}
+			catch (Exception e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	/**
+	 * Writer loop that adds documents to the index until the end marker is
+	 * taken off the queue
+	 */
+	private void write() {
+		while(true) {
+			Document doc;
+			try {
+				doc = queue.take();
+			}
+			catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				return;
+			}
+			if(doc == END_OF_FILES) {
+				return;
+			}
+			//a failed pipeline keeps draining so readers are not blocked
+			if(failure.get() != null) {
+				continue;
+			}
+			try {
+				long start = IndexMetrics.start();
+				getWriter(doc).addDocument(doc);
+				IndexMetrics.record(IndexMetrics.Stage.ADD_DOCUMENT, start);
+				IndexMetrics.count(IndexMetrics.Counter.DOCUMENTS_INDEXED, 1);
+			}
+			catch (Exception e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	/**
+	 * Helper method that picks the writer of the shard a document belongs to
+	 * @param doc document to be written
+	 * @return IndexWriter the writer of its shard
+	 */
+	private IndexWriter getWriter(Document doc) {
+		if(indexWriters.length == 1) {
+			return indexWriters[0];
+		}
+		return indexWriters[IndexShards.getShard(doc.get("filename"),
+				indexWriters.length)];
+	}
+
+	/**
+	 * Puts a document on the queue, waiting while the queue is full
+	 * @param doc document to be written
+	 * @return boolean false if the thread was interrupted while waiting
+	 */
+	private boolean offer(Document doc) {
+		try {
+			while(!queue.offer(doc, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				//writers stopped taking documents, give up
+				if(failure.get() != null && doc != END_OF_FILES) {
+					return false;
+				}
+			}
+			return true;
+		}
+		catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
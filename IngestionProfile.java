@@ -0,0 +1,113 @@
+package indexer;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SerialMergeScheduler;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * Named sets of IndexWriter settings that trade indexing speed against
+ * search speed. A profile sets the RAM buffer, the number of buffered
+ * documents, the merge scheduler, the merge policy and whether segments are
+ * written as compound files, and says whether the index is force-merged once
+ * the files are indexed.
+ * @author Eric Gunn
+ *
+ */
+public enum IngestionProfile {
+
+	/**
+	 * The IndexWriter defaults, as used before profiles existed
+	 */
+	DEFAULT(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, 0, false, 0, true,
+			0),
+
+	/**
+	 * Indexes a large data directory as fast as possible. A large RAM buffer
+	 * writes few, large segments, merges are put off and compound files are
+	 * not built. Search may be slower until the index is merged
+	 */
+	BULK_LOAD(256, 0, false, 50, false, 0),
+
+	/**
+	 * Keeps small updates visible quickly. Segments are flushed often and
+	 * written as compound files, so many small segments do not use many file
+	 * handles, and merges run in the background
+	 */
+	LOW_LATENCY_UPDATE(16, 1000, false, 10, true, 0),
+
+	/**
+	 * Builds an index for searching rather than updating. Segments are merged
+	 * aggressively, one at a time, and the index is force-merged down to a
+	 * single segment at the end
+	 */
+	READ_OPTIMIZED(64, 0, true, 4, false, 1);
+
+	private double ramBufferSizeMB;
+	private int maxBufferedDocs;
+	private boolean serialMerges;
+	private double segmentsPerTier;
+	private boolean compoundFile;
+	private int forceMergeSegments;
+
+	/**
+	 * Constructor for an IngestionProfile
+	 * @param ramBufferSizeMB memory used to buffer documents before a flush
+	 * @param maxBufferedDocs documents buffered before a flush, 0 to flush by
+	 * memory only
+	 * @param serialMerges true to merge on the indexing thread, one merge at a
+	 * time, false to merge on background threads
+	 * @param segmentsPerTier segments of about the same size allowed before
+	 * they are merged, 0 for the default
+	 * @param compoundFile whether new segments are written as compound files
+	 * @param forceMergeSegments max number of segments left once indexing is
+	 * done, 0 to not force-merge
+	 */
+	private IngestionProfile(double ramBufferSizeMB, int maxBufferedDocs,
+			boolean serialMerges, double segmentsPerTier, boolean compoundFile,
+			int forceMergeSegments) {
+		this.ramBufferSizeMB = ramBufferSizeMB;
+		this.maxBufferedDocs = maxBufferedDocs;
+		this.serialMerges = serialMerges;
+		this.segmentsPerTier = segmentsPerTier;
+		this.compoundFile = compoundFile;
+		this.forceMergeSegments = forceMergeSegments;
+	}
+
+	/**
+	 * Applies the settings of this profile to a writer config. Each call
+	 * creates its own merge scheduler and merge policy, which must not be
+	 * shared between writers
+	 * @param config the config of the IndexWriter to be opened
+	 * @return IndexWriterConfig the same config
+	 */
+	public IndexWriterConfig apply(IndexWriterConfig config) {
+		if(this == DEFAULT) {
+			return config;
+		}
+		config.setRAMBufferSizeMB(ramBufferSizeMB);
+		config.setMaxBufferedDocs(maxBufferedDocs > 0 ? maxBufferedDocs
+				: IndexWriterConfig.DISABLE_AUTO_FLUSH);
+		config.setMergeScheduler(serialMerges ? new SerialMergeScheduler()
+				: new ConcurrentMergeScheduler());
+
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		if(segmentsPerTier > 0) {
+			mergePolicy.setSegmentsPerTier(segmentsPerTier);
+		}
+		//merged segments follow the same compound file setting as flushed ones
+		mergePolicy.setNoCFSRatio(compoundFile ? 1.0 : 0.0);
+		config.setMergePolicy(mergePolicy);
+		config.setUseCompoundFile(compoundFile);
+		return config;
+	}
+
+	/**
+	 * Getter method for the number of segments the index is force-merged to
+	 * @return int max number of segments left once indexing is done, 0 if
+	 * the index is not force-merged
+	 */
+	public int getForceMergeSegments() {
+		return forceMergeSegments;
+	}
+}
@@ -4,7 +4,10 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Map.Entry;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 import org.json.*;
 
@@ -24,6 +27,7 @@ public class JsonGenerator {
 	 * @return JSONObject containing the JSON
 	 */
 	public JSONObject generate(ResultStruct res) {
+		long start = IndexMetrics.start();
 		
 		JSONObject json = new JSONObject();
 		
@@ -34,21 +38,38 @@ public class JsonGenerator {
 		
 		JSONArray list = new JSONArray();
 		
-		for(Entry<String, ResultStruct.InnerStruct> e : res.getMap().entrySet()) {
-			ResultStruct.InnerStruct inner = e.getValue();
+		//results in rank order, read straight from the result columns
+		for(int i = 0; i < res.getNumResults(); i++) {
 			JSONArray lineNums = new JSONArray();
-			lineNums.put(0, new JSONObject().put("line start", inner.getLineStart()));
-			lineNums.put(1, new JSONObject().put("line end", inner.getLineEnd()));
-			lineNums.put(2, new JSONObject().put("query line", inner.getQueryLine()));
-			lineNums.put(3, new JSONObject().put("number of lines", inner.getNumLines()));
-			list.put(new JSONArray()
-					.put(0, new JSONObject().put("file name", inner.getFileName()))
-					.put(1, new JSONObject().put("buffer", inner.getBuffer()))
-					.put(2, new JSONObject().put("lines", lineNums)));
+			lineNums.put(0, new JSONObject().put("line start", res.getLineStart(i)));
+			lineNums.put(1, new JSONObject().put("line end", res.getLineEnd(i)));
+			lineNums.put(2, new JSONObject().put("query line", res.getQueryLine(i)));
+			lineNums.put(3, new JSONObject().put("number of lines", res.getNumLines(i)));
+			JSONArray entry = new JSONArray()
+					.put(0, new JSONObject().put("file name", res.getFileName(i)))
+					.put(1, new JSONObject().put("buffer", res.getBuffer(i)))
+					.put(2, new JSONObject().put("lines", lineNums));
+			//every hit in the file, if all hits were searched for
+			if(res.getHits(i) != null) {
+				JSONArray hits = new JSONArray();
+				for(TextBuffer.Hit hit : res.getHits(i)) {
+					hits.put(new JSONObject()
+							.put("buffer", hit.getBuffer())
+							.put("line start", hit.getStartLine())
+							.put("line end", hit.getEndLine())
+							.put("query lines", new JSONArray(hit.getQueryLines()))
+							.put("number of lines", hit.getNumLines()));
+				}
+				entry.put(3, new JSONObject().put("hits", hits));
+			}
+			list.put(entry);
 		}
 		
 		json.put("results", list);
 		
+		IndexMetrics.record(IndexMetrics.Stage.JSON, start);
+		IndexMetrics.count(IndexMetrics.Counter.RESULTS_SERIALIZED,
+				res.getNumResults());
 		return json;
 	}
 	
@@ -89,4 +110,57 @@ public class JsonGenerator {
 	    writer.close();
 	}
 	
+	/**
+	 * Writes a ResultStruct as JSON straight to a Writer without building a
+	 * JSONObject first, with default indent of size 4. The Writer is closed
+	 * @param res the ResultStruct object containing details of the search
+	 * @param writer where the JSON is written
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void write(ResultStruct res, Writer writer) throws IOException {
+		long start = IndexMetrics.start();
+		JsonResultWriter json = new JsonResultWriter(writer, DEFAULT_INDENT);
+		try {
+			json.begin(res.getExtension(), res.getQuery(), res.getDirectory());
+			for(int i = 0; i < res.getNumResults(); i++) {
+				json.writeResult(res, i);
+			}
+		}
+		finally {
+			json.close();
+		}
+		IndexMetrics.record(IndexMetrics.Stage.JSON, start);
+		IndexMetrics.count(IndexMetrics.Counter.RESULTS_SERIALIZED,
+				res.getNumResults());
+	}
+	
+	/**
+	 * Writes a ResultStruct as UTF-8 JSON straight to an OutputStream
+	 * without building a JSONObject first, with default indent of size 4.
+	 * The stream is closed
+	 * @param res the ResultStruct object containing details of the search
+	 * @param out where the JSON is written
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void write(ResultStruct res, OutputStream out) throws IOException {
+		write(res, new BufferedWriter(
+				new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Writes a ResultStruct as JSON to a file without building a JSONObject
+	 * first, with default indent of size 4
+	 * @param res the ResultStruct object containing details of the search
+	 * @param outputPath file path to be written to
+	 * @throws IOException if file path passed in already exists
+	 */
+	public void writeToFile(ResultStruct res, String outputPath)
+			throws IOException {
+		File f = new File(outputPath);
+		if(f.exists()) {
+			throw new IOException("File already exists, failed to write");
+		}
+		write(res, new BufferedWriter(new FileWriter(outputPath)));
+	}
+	
 }
@@ -0,0 +1,295 @@
+package indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * This class writes search results as JSON straight to a Writer, one result
+ * at a time, instead of building a JSONObject of every result first. Memory
+ * use stays the same no matter how many results are written. The JSON has
+ * the same shape as the one built by JsonGenerator.generate(), except that
+ * the number of results is written after the results, since it is only
+ * known once they have all been written.
+ * @author Eric Gunn
+ *
+ */
+public class JsonResultWriter implements Closeable {
+
+	private Writer out;
+	private int indent;
+	private int numResults;
+	private boolean begun;
+	private boolean ended;
+
+	/**
+	 * Constructor for a JsonResultWriter object
+	 * @param out where the JSON is written
+	 * @param indent size of indent for JSON styling, 0 writes everything on
+	 * one line
+	 */
+	public JsonResultWriter(Writer out, int indent) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+	/**
+	 * Writes the details of the search, before any result
+	 * @param extension file extension that was searched
+	 * @param query search string
+	 * @param directory file directory that was searched
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void begin(String extension, String query, String directory)
+			throws IOException {
+		if(begun) {
+			throw new IllegalStateException("Results were already begun");
+		}
+		begun = true;
+		out.write('{');
+		writeKey(1, "extension");
+		writeString(extension);
+		out.write(',');
+		writeKey(1, "query");
+		writeString(query);
+		out.write(',');
+		writeKey(1, "directory");
+		writeString(directory);
+		out.write(',');
+		writeKey(1, "results");
+		out.write('[');
+	}
+
+	/**
+	 * Writes one result
+	 * @param inner the result of a single file
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void writeResult(ResultStruct.InnerStruct inner)
+			throws IOException {
+		writeResult(inner.getFileName(), inner.getBuffer(),
+				inner.getLineStart(), inner.getLineEnd(),
+				inner.getQueryLine(), inner.getNumLines(), inner.getHits());
+	}
+
+	/**
+	 * Writes one result of a ResultStruct
+	 * @param results the results of a search
+	 * @param i rank of the result to be written
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void writeResult(ResultStruct results, int i) throws IOException {
+		writeResult(results.getFileName(i), results.getBuffer(i),
+				results.getLineStart(i), results.getLineEnd(i),
+				results.getQueryLine(i), results.getNumLines(i),
+				results.getHits(i));
+	}
+
+	/**
+	 * Writes one result
+	 * @param fileName name of the file
+	 * @param buffer block of text wrapping the query string
+	 * @param lineStart starting line number of the buffer
+	 * @param lineEnd ending line number of the buffer
+	 * @param queryLine line number of the query string
+	 * @param numLines number of lines in the buffer
+	 * @param hits every hit in the file, or null if only the first hit was
+	 * searched for
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void writeResult(String fileName, String buffer, int lineStart,
+			int lineEnd, int queryLine, int numLines,
+			List<TextBuffer.Hit> hits) throws IOException {
+		if(!begun || ended) {
+			throw new IllegalStateException("Results must be written between"
+					+ " begin() and end()");
+		}
+		if(numResults > 0) {
+			out.write(',');
+		}
+		numResults++;
+
+		newLine(2);
+		out.write('[');
+		newLine(3);
+		writeSingle("file name");
+		writeString(fileName);
+		out.write("},");
+		newLine(3);
+		writeSingle("buffer");
+		writeString(buffer);
+		out.write("},");
+		newLine(3);
+		writeSingle("lines");
+		out.write('[');
+		newLine(4);
+		writeSingle("line start");
+		out.write(Integer.toString(lineStart));
+		out.write("},");
+		newLine(4);
+		writeSingle("line end");
+		out.write(Integer.toString(lineEnd));
+		out.write("},");
+		newLine(4);
+		writeSingle("query line");
+		out.write(Integer.toString(queryLine));
+		out.write("},");
+		newLine(4);
+		writeSingle("number of lines");
+		out.write(Integer.toString(numLines));
+		out.write('}');
+		newLine(3);
+		out.write("]}");
+		if(hits != null) {
+			out.write(',');
+			newLine(3);
+			writeSingle("hits");
+			writeHits(hits);
+			out.write('}');
+		}
+		newLine(2);
+		out.write(']');
+	}
+
+	/**
+	 * Writes the number of results and closes the JSON
+	 * @throws IOException if the JSON could not be written
+	 */
+	public void end() throws IOException {
+		if(!begun) {
+			begin("", "", "");
+		}
+		if(ended) {
+			return;
+		}
+		ended = true;
+		if(numResults > 0) {
+			newLine(1);
+		}
+		out.write("],");
+		writeKey(1, "number of results found");
+		out.write(Integer.toString(numResults));
+		newLine(0);
+		out.write('}');
+		out.flush();
+	}
+
+	/**
+	 * Ends the JSON if it was not ended and closes the Writer
+	 * @throws IOException if the JSON could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			end();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Getter method for number of results written so far
+	 * @return int number of results written
+	 */
+	public int getNumResults() {
+		return numResults;
+	}
+
+	/**
+	 * Helper method that writes the hits of a multi-hit result
+	 * @param hits every hit in the file
+	 * @throws IOException if the JSON could not be written
+	 */
+	private void writeHits(List<TextBuffer.Hit> hits) throws IOException {
+		out.write('[');
+		for(int i = 0; i < hits.size(); i++) {
+			TextBuffer.Hit hit = hits.get(i);
+			if(i > 0) {
+				out.write(',');
+			}
+			newLine(4);
+			out.write('{');
+			writeKey(5, "buffer");
+			writeString(hit.getBuffer());
+			out.write(',');
+			writeKey(5, "line start");
+			out.write(Integer.toString(hit.getStartLine()));
+			out.write(',');
+			writeKey(5, "line end");
+			out.write(Integer.toString(hit.getEndLine()));
+			out.write(',');
+			writeKey(5, "query lines");
+			out.write('[');
+			List<Integer> queryLines = hit.getQueryLines();
+			for(int j = 0; j < queryLines.size(); j++) {
+				if(j > 0) {
+					out.write(',');
+				}
+				out.write(Integer.toString(queryLines.get(j)));
+			}
+			out.write("],");
+			writeKey(5, "number of lines");
+			out.write(Integer.toString(hit.getNumLines()));
+			newLine(4);
+			out.write('}');
+		}
+		newLine(3);
+		out.write(']');
+	}
+
+	/**
+	 * Helper method that starts an object with a single key on one line
+	 * @param key the only key of the object
+	 * @throws IOException if the JSON could not be written
+	 */
+	private void writeSingle(String key) throws IOException {
+		out.write('{');
+		writeString(key);
+		out.write(indent > 0 ? ": " : ":");
+	}
+
+	/**
+	 * Helper method that writes a key on a new line
+	 * @param depth how deeply the key is nested
+	 * @param key the key to be written
+	 * @throws IOException if the JSON could not be written
+	 */
+	private void writeKey(int depth, String key) throws IOException {
+		newLine(depth);
+		writeString(key);
+		out.write(indent > 0 ? ": " : ":");
+	}
+
+	/**
+	 * Helper method that writes a quoted and escaped string
+	 * @param value the string, or null
+	 * @throws IOException if the JSON could not be written
+	 */
+	private void writeString(String value) throws IOException {
+		if(value == null) {
+			out.write("null");
+		}
+		else {
+			JSONObject.quote(value, out);
+		}
+	}
+
+	/**
+	 * Helper method that starts a new indented line, if indenting
+	 * @param depth how deeply the next value is nested
+	 * @throws IOException if the JSON could not be written
+	 */
+	private void newLine(int depth) throws IOException {
+		if(indent == 0) {
+			return;
+		}
+		out.write('\n');
+		for(int i = 0; i < depth * indent; i++) {
+			out.write(' ');
+		}
+	}
+}
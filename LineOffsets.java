@@ -0,0 +1,213 @@
+package indexer;
+
+import java.util.Arrays;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * This class holds the character offset at which each line of a file
+ * starts in the text that was indexed, and the byte offset at which it
+ * starts in the file. It is stored with each document in a compact form (the
+ * difference between line starts, written as variable length integers) so
+ * that an offset of a hit can be turned into a line number, and the line can
+ * be read, without reading the file from the start.
+ * Only every Nth line can be recorded, for files too large to hold a start
+ * for each of their lines. A line is then found by reading the file from
+ * the recorded line before it.
+ * Lines break where the indexed text has a new line. A file whose text
+ * also has the line breaks a Scanner splits lines at, U+0085, U+2028 or
+ * U+2029, is marked, since a TextBuffer numbers its lines differently.
+ * @author Eric Gunn
+ *
+ */
+public class LineOffsets {
+	
+	public static final String FIELD = "line_offsets";
+	
+	private static final int INITIAL_LINES = 64;
+	private static final int MAX_VINT_BYTES = 5;
+	private static final int MAX_VLONG_BYTES = 9;
+	
+	//only the first line of every interval lines is recorded
+	private int interval;
+	private int[] starts;
+	private long[] byteStarts;
+	private int numLines;
+	private int numRecorded;
+	//whether the text has line breaks a Scanner counts but these do not
+	private boolean otherLineBreaks;
+	
+	/**
+	 * Constructor for an empty LineOffsets object recording every line,
+	 * lines are added with addLine()
+	 */
+	public LineOffsets() {
+		this(1);
+	}
+	
+	/**
+	 * Constructor for an empty LineOffsets object recording one line in
+	 * every interval lines, lines are added with addLine()
+	 * @param interval number of lines between recorded lines, 1 to record
+	 * every line
+	 */
+	public LineOffsets(int interval) {
+		if(interval < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.interval = interval;
+		this.starts = new int[INITIAL_LINES];
+		this.byteStarts = new long[INITIAL_LINES];
+	}
+	
+	/**
+	 * Constructor for a LineOffsets object from its stored form
+	 * @param bytes the bytes written by toBytesRef()
+	 */
+	public LineOffsets(BytesRef bytes) {
+		ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes,
+				bytes.offset, bytes.length);
+		this.interval = in.readVInt();
+		this.otherLineBreaks = in.readByte() != 0;
+		this.numLines = in.readVInt();
+		this.numRecorded = (numLines + interval - 1) / interval;
+		this.starts = new int[Math.max(numRecorded, 1)];
+		this.byteStarts = new long[Math.max(numRecorded, 1)];
+		int offset = 0;
+		long byteOffset = 0;
+		for(int i = 0; i < numRecorded; i++) {
+			offset += in.readVInt();
+			byteOffset += in.readVLong();
+			this.starts[i] = offset;
+			this.byteStarts[i] = byteOffset;
+		}
+	}
+	
+	/**
+	 * Adds the next line of the file, recording it if it is the first line
+	 * of an interval
+	 * @param start character offset at which the line starts
+	 * @param byteStart byte offset at which the line starts in the file
+	 */
+	public void addLine(int start, long byteStart) {
+		if(numLines++ % interval != 0) {
+			return;
+		}
+		if(numRecorded == starts.length) {
+			starts = Arrays.copyOf(starts, numRecorded * 2);
+			byteStarts = Arrays.copyOf(byteStarts, numRecorded * 2);
+		}
+		starts[numRecorded] = start;
+		byteStarts[numRecorded] = byteStart;
+		numRecorded++;
+	}
+	
+	/**
+	 * Writes the line starts in their stored form
+	 * @return BytesRef the interval, whether there are other line breaks
+	 * and the number of lines, followed by the
+	 * difference between each recorded line's character and byte start and
+	 * the recorded line before it
+	 */
+	public BytesRef toBytesRef() {
+		byte[] bytes = new byte[2 * MAX_VINT_BYTES + 1 + numRecorded
+		                        * (MAX_VINT_BYTES + MAX_VLONG_BYTES)];
+		int pos = writeVLong(bytes, 0, interval);
+		bytes[pos++] = (byte) (otherLineBreaks ? 1 : 0);
+		pos = writeVLong(bytes, pos, numLines);
+		int previous = 0;
+		long previousByte = 0;
+		for(int i = 0; i < numRecorded; i++) {
+			pos = writeVLong(bytes, pos, starts[i] - previous);
+			pos = writeVLong(bytes, pos, byteStarts[i] - previousByte);
+			previous = starts[i];
+			previousByte = byteStarts[i];
+		}
+		return new BytesRef(bytes, 0, pos);
+	}
+	
+	/**
+	 * Finds the last recorded line that starts at or before a character
+	 * offset, which is the line containing it if every line is recorded
+	 * @param offset character offset in the indexed text
+	 * @return int line number, starting from 1
+	 */
+	public int getLine(int offset) {
+		int index = Arrays.binarySearch(starts, 0, numRecorded, offset);
+		//not a line start, so it is inside the line before the insertion point
+		index = index >= 0 ? index : -index - 2;
+		return Math.max(index, 0) * interval + 1;
+	}
+	
+	/**
+	 * Finds the last recorded line at or before a line
+	 * @param line line number, starting from 1
+	 * @return int line number of the recorded line, starting from 1
+	 */
+	public int getRecordedLine(int line) {
+		return line - (line - 1) % interval;
+	}
+	
+	/**
+	 * Getter method for the start of a line
+	 * @param line recorded line number, starting from 1
+	 * @return int character offset at which the line starts
+	 */
+	public int getLineStart(int line) {
+		return starts[(line - 1) / interval];
+	}
+	
+	/**
+	 * Getter method for the byte offset of a line in the file
+	 * @param line recorded line number, starting from 1
+	 * @return long byte offset at which the line starts
+	 */
+	public long getLineByteStart(int line) {
+		return byteStarts[(line - 1) / interval];
+	}
+	
+	/**
+	 * Marks the text as having U+0085, U+2028 or U+2029 in its lines, which
+	 * a Scanner also breaks lines at
+	 */
+	public void setOtherLineBreaks() {
+		this.otherLineBreaks = true;
+	}
+	
+	/**
+	 * Getter method for whether line numbers from these offsets differ from
+	 * those a TextBuffer counts
+	 * @return boolean true if the text has U+0085, U+2028 or U+2029 in its
+	 * lines
+	 */
+	public boolean hasOtherLineBreaks() {
+		return otherLineBreaks;
+	}
+	
+	/**
+	 * Getter method for number of lines
+	 * @return int number of lines in the file
+	 */
+	public int getNumLines() {
+		return numLines;
+	}
+	
+	/**
+	 * Helper method that writes a variable length integer, readable by
+	 * readVInt() if it fits in an int
+	 * @param bytes array to write to
+	 * @param pos position to start writing at
+	 * @param value non-negative value to be written
+	 * @return int position after the written bytes
+	 */
+	private static int writeVLong(byte[] bytes, int pos, long value) {
+		while((value & ~0x7FL) != 0) {
+			bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[pos++] = (byte) value;
+		return pos;
+	}
+}
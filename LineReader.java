@@ -0,0 +1,253 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+
+/**
+ * A Reader over the lines of a file, or of part of it, that decodes straight
+ * from a FileChannel. Lines end at a new line, a carriage return, or both,
+ * and each line is read ending in a single new line character, so the text
+ * is the same whether a file is read into memory or streamed to Lucene.
+ * The character and byte offset of each line can be recorded while reading,
+ * which gives a streamed file the same line offsets as a file read at once.
+ * A Scanner also breaks lines at U+0085, U+2028 and U+2029, which are kept
+ * in the text, and the offsets are marked if any of them is read.
+ * The file is opened on the first read.
+ * @author Eric Gunn
+ *
+ */
+class LineReader extends Reader {
+	
+	private File f;
+	private FileEncoding encoding;
+	private long start;
+	private long maxBytes;
+	private LineOffsets lineOffsets;
+	private boolean threadBuffers;
+	
+	private FileChannel channel;
+	private CharsetDecoder decoder;
+	private ByteBuffer bytes;
+	private CharBuffer chars;
+	//line breaks are one byte, or one UTF-16 code unit
+	private int unit;
+	private int low;
+	
+	//file offset of the first byte of the buffer
+	private long base;
+	private long position;
+	private long lineStart;
+	private int lineChars;
+	private boolean inLine;
+	private boolean skipNewLine;
+	private boolean full;
+	private boolean eof;
+	private boolean finished;
+	
+	//text decoded and not read yet, and the offset of its first character
+	private StringBuilder pending = new StringBuilder();
+	private int pendingStart;
+	private int pendingRead;
+	
+	/**
+	 * Constructor for a LineReader object
+	 * @param f the file
+	 * @param encoding charset of the file and length of its byte order mark
+	 * @param start byte offset of the first line to be read, a byte order
+	 * mark is skipped
+	 * @param maxBytes number of bytes after which no new line is started,
+	 * Long.MAX_VALUE to read to the end of the file
+	 * @param lineOffsets where the character and byte start of each line is
+	 * recorded, can be null. Byte starts are offsets in the whole file
+	 * @param threadBuffers true to decode with the buffers of this thread,
+	 * only if the whole text is read before another file is read on the
+	 * same thread
+	 */
+	LineReader(File f, FileEncoding encoding, long start, long maxBytes,
+			LineOffsets lineOffsets, boolean threadBuffers) {
+		this.f = f;
+		this.encoding = encoding;
+		this.start = Math.max(start, encoding.getBomLength());
+		this.maxBytes = maxBytes;
+		this.lineOffsets = lineOffsets;
+		this.threadBuffers = threadBuffers;
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		while(pendingRead == pending.length()) {
+			if(finished) {
+				return -1;
+			}
+			pendingStart += pending.length();
+			pending.setLength(0);
+			pendingRead = 0;
+			fill(pending, pendingStart);
+		}
+		int n = Math.min(len, pending.length() - pendingRead);
+		pending.getChars(pendingRead, pendingRead + n, cbuf, off);
+		pendingRead += n;
+		return n;
+	}
+	
+	/**
+	 * Reads the whole text into a StringBuilder, decoding into it directly
+	 * instead of through read()
+	 * @param sb where the text is appended, empty
+	 * @throws IOException if the file could not be read
+	 */
+	void readAll(StringBuilder sb) throws IOException {
+		while(!finished) {
+			fill(sb, 0);
+		}
+	}
+	
+	/**
+	 * Getter method for where reading stopped
+	 * @return long byte offset of the first line not read, or -1 if the end
+	 * of the file was reached
+	 */
+	long getEnd() {
+		return full ? position : -1;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		finished = true;
+		if(channel != null) {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Helper method that opens the file at the first line and picks the
+	 * buffers it is decoded with
+	 * @throws IOException if the file could not be opened
+	 */
+	private void open() throws IOException {
+		if(threadBuffers) {
+			decoder = encoding.getDecoder();
+			bytes = FileEncoding.getByteBuffer();
+			chars = FileEncoding.getCharBuffer();
+		}
+		else {
+			decoder = encoding.newDecoder();
+			bytes = FileEncoding.newByteBuffer();
+			chars = FileEncoding.newCharBuffer();
+		}
+		unit = encoding.getUnitSize();
+		low = encoding.isBigEndian() ? 1 : 0;
+		base = start;
+		position = start;
+		lineStart = start;
+		channel = FileChannel.open(f.toPath());
+		channel.position(start);
+	}
+	
+	/**
+	 * Helper method that reads the next block of the file and appends the
+	 * text decoded from it, or the rest of the last line once the whole
+	 * file was read
+	 * @param sb where the text is appended
+	 * @param shift offset in the whole text of the first character of sb
+	 * @throws IOException if the file could not be read
+	 */
+	private void fill(StringBuilder sb, int shift) throws IOException {
+		if(channel == null) {
+			open();
+		}
+		if(eof) {
+			//last line without a line ending
+			bytes.flip();
+			decode(sb, true);
+			if(inLine) {
+				if(lineOffsets != null) {
+					lineOffsets.addLine(lineChars, lineStart);
+				}
+				sb.append('\n');
+			}
+			close();
+			return;
+		}
+		eof = channel.read(bytes) < 0;
+		bytes.flip();
+		int read = bytes.limit();
+		//whole units only, a cut off unit waits for the next read
+		int limit = read - read % unit;
+		for(int i = bytes.position(); i < limit; i += unit) {
+			position = base + i;
+			byte b = bytes.get(i + low);
+			boolean lineBreak = (b == '\n' || b == '\r')
+					&& (unit == 1 || bytes.get(i + 1 - low) == 0);
+			//second half of a carriage return and new line pair
+			if(skipNewLine) {
+				skipNewLine = false;
+				if(lineBreak && b == '\n') {
+					lineStart = position + unit;
+					bytes.position(i + unit);
+					continue;
+				}
+			}
+			//stop before starting a new line once enough was read
+			if(!inLine && position == lineStart
+					&& position - start >= maxBytes) {
+				full = true;
+				close();
+				return;
+			}
+			if(!inLine) {
+				inLine = true;
+				lineChars = shift + sb.length();
+			}
+			if(lineBreak) {
+				if(lineOffsets != null) {
+					lineOffsets.addLine(lineChars, lineStart);
+				}
+				bytes.limit(i);
+				decode(sb, true);
+				bytes.limit(read);
+				bytes.position(i + unit);
+				sb.append('\n');
+				inLine = false;
+				lineStart = position + unit;
+				skipNewLine = b == '\r';
+			}
+		}
+		//decode what there is of the current line, keeping the bytes of a
+		//character cut off by the end of the buffer
+		bytes.limit(limit);
+		decode(sb, false);
+		bytes.limit(read);
+		base += bytes.position();
+		bytes.compact();
+	}
+	
+	/**
+	 * Helper method that decodes the buffered bytes and appends the text,
+	 * marking the line offsets if it has a line break they do not count
+	 * @param sb where the text is appended
+	 * @param endOfInput true if the bytes end a line
+	 */
+	private void decode(StringBuilder sb, boolean endOfInput) {
+		int from = sb.length();
+		FileEncoding.decode(decoder, bytes, chars, sb, endOfInput);
+		if(lineOffsets == null || lineOffsets.hasOtherLineBreaks()) {
+			return;
+		}
+		for(int i = from; i < sb.length(); i++) {
+			char c = sb.charAt(i);
+			if(c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				lineOffsets.setOtherLineBreaks();
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A TextBuffer that memory-maps the file and searches its bytes directly.
+ * Lines are not turned into strings while searching. The start and end of
+ * the last few lines are kept in a ring of offsets, and only the lines of
+ * the buffer are decoded once the query is found. The buffer and line
+ * numbers are the same as a TextBuffer finds for UTF-8 or ASCII text. Lines
+ * holding bytes that are not ASCII are also decoded and lowered the way a
+ * TextBuffer lowers them when their bytes do not match the query.
+ * Queries that are not ASCII, files larger than 2 GB and files whose
+ * sniffed charset is not UTF-8 are handled by the TextBuffer scanner.
+ * @author Eric Gunn
+ *
+ */
+public class MappedTextBuffer extends TextBuffer {
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	//lead bytes of the UTF-8 line separators U+0085, U+2028 and U+2029
+	private static final byte NEL_LEAD = (byte) 0xC2;
+	private static final byte NEL = (byte) 0x85;
+	private static final byte LS_LEAD = (byte) 0xE2;
+	private static final byte LS_MIDDLE = (byte) 0x80;
+	private static final byte LS = (byte) 0xA8;
+	private static final byte PS = (byte) 0xA9;
+
+	private MappedByteBuffer bytes;
+	private int limit;
+	//start and end offset of the last lines, used as a ring
+	private int[] lineStarts;
+	private int[] lineEnds;
+
+	/**
+	 * Constructor for a MappedTextBuffer object
+	 * @param halfTotalLines half the total size of the buffer or total size
+	 * of the text line-wrap on either side (above and below the query string's
+	 * location in the file).
+	 * If this is set to 0, only the line of the query string will be
+	 * returned. An exception will be thrown if less than 0
+	 */
+	public MappedTextBuffer(int halfTotalLines) {
+		super(halfTotalLines);
+		this.lineStarts = new int[halfTotalLines + 1];
+		this.lineEnds = new int[halfTotalLines + 1];
+	}
+
+	/**
+	 * Gets the block of text in which the search query is found
+	 * @param f file to be searched
+	 * @param query string to be searched for in the given file
+	 * @return String the block of text that wraps the query string
+	 */
+	@Override
+	public String getBuffer(File f, String query) {
+		String lowercaseQuery = query.toLowerCase();
+		if(!canMap(lowercaseQuery) || f.length() > Integer.MAX_VALUE) {
+			return super.getBuffer(f, query);
+		}
+		long start = IndexMetrics.start();
+		try {
+			FileChannel channel = FileChannel.open(f.toPath());
+			try {
+				this.limit = (int) channel.size();
+				this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						this.limit);
+			}
+			finally {
+				channel.close();
+			}
+			//sniff the mapped bytes, nothing is copied
+			FileEncoding encoding = FileEncoding.detect(bytes.duplicate(),
+					null);
+			if(!encoding.getCharset().equals(StandardCharsets.UTF_8)) {
+				return super.getBuffer(f, query);
+			}
+			String buffer = search(lowercaseQuery, query,
+					encoding.getBomLength());
+			IndexMetrics.record(IndexMetrics.Stage.SNIPPET, start);
+			return buffer;
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return "";
+		}
+		finally {
+			this.bytes = null;
+		}
+	}
+
+	/**
+	 * Checks whether the query can be matched against raw bytes
+	 * @param lowercaseQuery query in lower case
+	 * @return boolean true if the query is ASCII without line breaks
+	 */
+	private static boolean canMap(String lowercaseQuery) {
+		if(lowercaseQuery.isEmpty()) {
+			return false;
+		}
+		for(int i = 0; i < lowercaseQuery.length(); i++) {
+			char c = lowercaseQuery.charAt(i);
+			if(c >= 0x80 || c == '\n' || c == '\r') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method that finds the first line containing the query and
+	 * builds the buffer around it
+	 * @param lowercaseQuery query in lower case
+	 * @param query query as given, for its length
+	 * @param start offset of the text, after any byte order mark
+	 * @return String the block of text that wraps the query string
+	 */
+	private String search(String lowercaseQuery, String query, int start) {
+		byte[] pattern = lowercaseQuery.getBytes(StandardCharsets.US_ASCII);
+		int ring = lineStarts.length;
+		int lineNum = 1;
+		int lineStart = start;
+		int pos = start;
+		//whether the current line has bytes that are not ASCII
+		boolean nonAscii = false;
+
+		while(pos < limit) {
+			int breakLength = lineBreakAt(pos);
+			if(breakLength > 0) {
+				lineStarts[lineNum % ring] = lineStart;
+				lineEnds[lineNum % ring] = pos;
+				if(nonAscii && foldedMatches(lineStart, pos, lowercaseQuery)) {
+					return buildBuffer(lineNum, pos, lowercaseQuery, query);
+				}
+				pos += breakLength;
+				lineStart = pos;
+				lineNum++;
+				nonAscii = false;
+				continue;
+			}
+			byte b = bytes.get(pos);
+			if(b < 0) {
+				nonAscii = true;
+			}
+			else if(lower(b) == pattern[0] && matches(pos, pattern)) {
+				int lineEnd = findLineEnd(pos);
+				lineStarts[lineNum % ring] = lineStart;
+				lineEnds[lineNum % ring] = lineEnd;
+				return buildBuffer(lineNum, lineEnd, lowercaseQuery, query);
+			}
+			pos++;
+		}
+		//the last line has no line break after it
+		if(nonAscii && foldedMatches(lineStart, limit, lowercaseQuery)) {
+			lineStarts[lineNum % ring] = lineStart;
+			lineEnds[lineNum % ring] = limit;
+			return buildBuffer(lineNum, limit, lowercaseQuery, query);
+		}
+		return "";
+	}
+
+	/**
+	 * Helper method that checks a line the bytes did not match the query
+	 * in, the same way a TextBuffer does. Letters that are not ASCII can
+	 * lower to ASCII ones, such as the Kelvin sign to 'k'
+	 * @param start start offset of the line
+	 * @param end end offset of the line, exclusive
+	 * @param lowercaseQuery query in lower case
+	 * @return boolean true if the lower case line contains the query
+	 */
+	private boolean foldedMatches(int start, int end, String lowercaseQuery) {
+		return decode(start, end).toLowerCase().contains(lowercaseQuery);
+	}
+
+	/**
+	 * Helper method that decodes the lines around the query line and joins
+	 * them the same way a TextBuffer does
+	 * @param queryLine line number containing the query
+	 * @param queryLineEnd end offset of the query line
+	 * @param lowercaseQuery query in lower case
+	 * @param query query as given, for its length
+	 * @return String the block of text that wraps the query string
+	 */
+	private String buildBuffer(int queryLine, int queryLineEnd,
+			String lowercaseQuery, String query) {
+		int ring = lineStarts.length;
+		int halfTotalLines = getHalfTotalLines();
+		int countAboveLines = Math.min(halfTotalLines, queryLine - 1);
+		StringBuilder sb = new StringBuilder();
+
+		for(int n = queryLine - countAboveLines; n < queryLine; n++) {
+			sb.append(decode(lineStarts[n % ring], lineEnds[n % ring]))
+				.append('\n');
+		}
+
+		//cut up line containing query string in order to highlight
+		String line = decode(lineStarts[queryLine % ring], queryLineEnd);
+		int index = line.toLowerCase().indexOf(lowercaseQuery);
+		sb.append(line, 0, index)
+			.append(HTML_MODIFIER_START)
+			.append(line, index, index + query.length())
+			.append(HTML_MODIFIER_END)
+			.append(line, index + query.length(), line.length())
+			.append('\n');
+
+		//add the remaining halfTotalLines after
+		int countBelowLines = 0;
+		int pos = queryLineEnd + lineBreakAt(queryLineEnd);
+		for(int i = 0; i < halfTotalLines; i++) {
+			if(pos < limit) {
+				int end = findLineEnd(pos);
+				sb.append(decode(pos, end));
+				if(i != halfTotalLines - 1) {
+					sb.append('\n');
+				}
+				countBelowLines++;
+				pos = end + lineBreakAt(end);
+			}
+			//if EOF is reached, delete the last new line character
+			else {
+				sb.setLength(sb.length() - 1);
+				break;
+			}
+		}
+
+		setLineNumbers(queryLine - countAboveLines, queryLine,
+				queryLine + countBelowLines);
+		return sb.toString();
+	}
+
+	/**
+	 * Helper method that checks whether a line break starts at an offset
+	 * @param pos offset in the file
+	 * @return int length of the line break in bytes, 0 if there is none
+	 */
+	private int lineBreakAt(int pos) {
+		if(pos >= limit) {
+			return 0;
+		}
+		byte b = bytes.get(pos);
+		if(b == LF) {
+			return 1;
+		}
+		if(b == CR) {
+			return pos + 1 < limit && bytes.get(pos + 1) == LF ? 2 : 1;
+		}
+		if(b == NEL_LEAD) {
+			return pos + 1 < limit && bytes.get(pos + 1) == NEL ? 2 : 0;
+		}
+		if(b == LS_LEAD && pos + 2 < limit && bytes.get(pos + 1) == LS_MIDDLE) {
+			byte last = bytes.get(pos + 2);
+			return last == LS || last == PS ? 3 : 0;
+		}
+		return 0;
+	}
+
+	/**
+	 * Helper method that finds the end of the line containing an offset
+	 * @param pos offset in the file
+	 * @return int offset of the line break, or the end of the file
+	 */
+	private int findLineEnd(int pos) {
+		while(pos < limit && lineBreakAt(pos) == 0) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Helper method that compares the file to the query at an offset,
+	 * ignoring ASCII case
+	 * @param pos offset in the file
+	 * @param pattern query bytes in lower case
+	 * @return boolean true if the query is found at the offset
+	 */
+	private boolean matches(int pos, byte[] pattern) {
+		if(pos + pattern.length > limit) {
+			return false;
+		}
+		for(int i = 1; i < pattern.length; i++) {
+			if(lower(bytes.get(pos + i)) != pattern[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method that lowers the case of an ASCII letter
+	 * @param b byte from the file
+	 * @return byte the byte in lower case
+	 */
+	private static byte lower(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+	}
+
+	/**
+	 * Helper method that decodes part of the file
+	 * @param start start offset
+	 * @param end end offset, exclusive
+	 * @return String the decoded text
+	 */
+	private String decode(int start, int end) {
+		byte[] line = new byte[end - start];
+		for(int i = 0; i < line.length; i++) {
+			line[i] = bytes.get(start + i);
+		}
+		return new String(line, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,409 @@
+package indexer;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A bounded cache of search results, so that a repeated search skips both
+ * the index query and the snippet pass over every hit file. Results are
+ * keyed on the query string, the type of search, the max number of hits and
+ * the buffer size, and pages of results also on the cursor they start
+ * after. The least recently used results are evicted once the
+ * cache holds too many results or too many estimated bytes.
+ *
+ * A cached result is dropped, and searched again, when the index it came
+ * from has been committed since, or when any of its hit files has been
+ * modified since. Cached ResultStruct objects are shared between callers and
+ * must not be changed.
+ * @author Eric Gunn
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * The kind of index search a result came from. QUERY is a query in the
+	 * language of IndexQueryParser
+	 */
+	public enum SearchType {
+		TERM, WILDCARD, SUBSTRING, QUERY
+	}
+
+	//rough size of the objects around each cached string
+	private static final long ENTRY_OVERHEAD = 256;
+	private static final long RESULT_OVERHEAD = 128;
+
+	private int maxEntries;
+	private long maxBytes;
+	private long bytes;
+	private LinkedHashMap<Key, Entry> entries;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Constructor for a QueryCache object
+	 * @param maxEntries max number of search results kept
+	 * @param maxBytes max estimated memory used by the results kept
+	 */
+	public QueryCache(int maxEntries, long maxBytes) {
+		if(maxEntries < 1 || maxBytes < 1) {
+			throw(new IllegalArgumentException("Arguments must be greater or"
+					+ " equal to 1."));
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		//access order, so the eldest entry is the least recently used
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Looks up the cached results of a search. Results cached from an older
+	 * version of the index, or whose hit files have been modified, are
+	 * dropped
+	 * @param version version of the index being searched, from
+	 * SearchSession.getVersion()
+	 * @param type the kind of index search
+	 * @param query the search string
+	 * @param maxHits the max number of files searched for
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @return ResultStruct the cached results, or null if there are none
+	 */
+	public ResultStruct get(long version, SearchType type, String query,
+			int maxHits, int halfBufferSize) {
+		Entry entry = lookup(version,
+				new Key(type, query, null, maxHits, halfBufferSize));
+		return entry == null ? null : entry.results;
+	}
+
+	/**
+	 * Looks up a cached page of results, see get()
+	 * @param version version of the index being searched, from
+	 * SearchSession.getVersion()
+	 * @param type the kind of index search
+	 * @param query the search string
+	 * @param after cursor the page starts after, or null for the first page
+	 * @param pageSize the max number of files on the page
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @return SearchPage the cached page with its results, or null if there
+	 * is none
+	 */
+	public SearchPage getPage(long version, SearchType type, String query,
+			SearchPage.Cursor after, int pageSize, int halfBufferSize) {
+		Entry entry = lookup(version, new Key(type, query,
+				getCursorKey(after), pageSize, halfBufferSize));
+		return entry == null ? null : entry.page;
+	}
+
+	/**
+	 * Helper method that looks up a cached entry, dropping it if it is stale
+	 * @param version version of the index being searched
+	 * @param key what the results are cached under
+	 * @return Entry the valid entry, or null if there is none
+	 */
+	private Entry lookup(long version, Key key) {
+		Entry entry;
+		synchronized(this) {
+			entry = entries.get(key);
+			if(entry == null) {
+				misses++;
+				return null;
+			}
+		}
+		//check the hit files outside the lock, it touches the disk
+		boolean valid = entry.version == version && !entry.isModified();
+		synchronized(this) {
+			if(valid) {
+				hits++;
+				return entry;
+			}
+			//another thread may have replaced the entry in the meantime
+			if(entries.get(key) == entry) {
+				entries.remove(key);
+				bytes -= entry.bytes;
+			}
+			invalidations++;
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Caches the results of a search, evicting the least recently used
+	 * results if the cache is full. Results larger than the whole cache are
+	 * not kept
+	 * @param version version of the index the search ran on, read before
+	 * searching
+	 * @param type the kind of index search
+	 * @param query the search string
+	 * @param maxHits the max number of files searched for
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @param filenames canonical file paths of the files found
+	 * @param modified last modified time of each file found, read before
+	 * building the results, see getModifiedTimes()
+	 * @param results the results to be cached
+	 */
+	public void put(long version, SearchType type, String query,
+			int maxHits, int halfBufferSize, String[] filenames,
+			long[] modified, ResultStruct results) {
+		store(new Key(type, query, null, maxHits, halfBufferSize),
+				new Entry(version, filenames, modified, results, null));
+	}
+
+	/**
+	 * Caches a page of results, see put()
+	 * @param version version of the index the search ran on, read before
+	 * searching
+	 * @param type the kind of index search
+	 * @param query the search string
+	 * @param after cursor the page starts after, or null for the first page
+	 * @param pageSize the max number of files on the page
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @param modified last modified time of each file of the page, read
+	 * before building the results, see getModifiedTimes()
+	 * @param page the page to be cached, with its results
+	 */
+	public void putPage(long version, SearchType type, String query,
+			SearchPage.Cursor after, int pageSize, int halfBufferSize,
+			long[] modified, SearchPage page) {
+		store(new Key(type, query, getCursorKey(after), pageSize,
+				halfBufferSize), new Entry(version, page.getFilenames(),
+						modified, page.getResults(), page));
+	}
+
+	/**
+	 * Helper method that caches an entry, evicting the least recently used
+	 * entries if the cache is full
+	 * @param key what the results are cached under
+	 * @param entry the results
+	 */
+	private synchronized void store(Key key, Entry entry) {
+		if(entry.bytes > maxBytes) {
+			return;
+		}
+		Entry old = entries.put(key, entry);
+		if(old != null) {
+			bytes -= old.bytes;
+		}
+		bytes += entry.bytes;
+
+		Iterator<Entry> eldest = entries.values().iterator();
+		while(entries.size() > maxEntries || bytes > maxBytes) {
+			Entry evicted = eldest.next();
+			eldest.remove();
+			bytes -= evicted.bytes;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every cached result. Counters are kept
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Reads the last modified time of each file, to be given to put()
+	 * @param filenames canonical file paths
+	 * @return long[] the last modified time of each file, 0 if it does not
+	 * exist
+	 */
+	public static long[] getModifiedTimes(String[] filenames) {
+		long[] modified = new long[filenames.length];
+		for(int i = 0; i < filenames.length; i++) {
+			modified[i] = new File(filenames[i]).lastModified();
+		}
+		return modified;
+	}
+
+	/**
+	 * Helper method that turns the cursor a page starts after into part of
+	 * its key
+	 * @param after the cursor, or null for the first page
+	 * @return String the cursor as a string, empty for the first page
+	 */
+	private static String getCursorKey(SearchPage.Cursor after) {
+		return after == null ? "" : after.toString();
+	}
+
+	/**
+	 * Getter method for the number of lookups that found valid results
+	 * @return long number of cache hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Getter method for the number of lookups that found no valid results
+	 * @return long number of cache misses, including invalidations
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Getter method for the number of results evicted to make room
+	 * @return long number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Getter method for the number of results dropped because the index or
+	 * a hit file changed
+	 * @return long number of invalidations
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * Getter method for the number of results cached
+	 * @return int number of results cached
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Getter method for the estimated memory used by the cached results
+	 * @return long estimated bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Prints the counters and size of the cache
+	 */
+	public synchronized void print() {
+		System.out.println("Cache hits: " + hits);
+		System.out.println("Cache misses: " + misses);
+		System.out.println("Cache evictions: " + evictions);
+		System.out.println("Cache invalidations: " + invalidations);
+		System.out.println("Cached results: " + entries.size() + " ("
+				+ bytes + " bytes)");
+	}
+
+	/**
+	 * What a search is cached under. A page of results also has the cursor
+	 * it starts after, and is never found by a search for the same number of
+	 * hits without paging
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class Key {
+
+		private SearchType type;
+		private String query;
+		//null for results that are not paged
+		private String after;
+		private int maxHits;
+		private int halfBufferSize;
+
+		Key(SearchType type, String query, String after, int maxHits,
+				int halfBufferSize) {
+			this.type = type;
+			this.query = query;
+			this.after = after;
+			this.maxHits = maxHits;
+			this.halfBufferSize = halfBufferSize;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return type == other.type && query.equals(other.query)
+					&& Objects.equals(after, other.after)
+					&& maxHits == other.maxHits
+					&& halfBufferSize == other.halfBufferSize;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, query, after, maxHits, halfBufferSize);
+		}
+	}
+
+	/**
+	 * Cached results with what is needed to tell whether they are stale
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class Entry {
+
+		private long version;
+		private String[] filenames;
+		private long[] modified;
+		private ResultStruct results;
+		//the page the results belong to, null if they are not paged
+		private SearchPage page;
+		private long bytes;
+
+		Entry(long version, String[] filenames, long[] modified,
+				ResultStruct results, SearchPage page) {
+			this.version = version;
+			this.filenames = filenames;
+			this.modified = modified;
+			this.results = results;
+			this.page = page;
+			this.bytes = estimateBytes(filenames, results);
+		}
+
+		/**
+		 * Checks whether a hit file was modified since the results were
+		 * built
+		 * @return boolean true if any hit file changed or was deleted
+		 */
+		boolean isModified() {
+			for(int i = 0; i < filenames.length; i++) {
+				if(new File(filenames[i]).lastModified() != modified[i]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Estimates the memory used by cached results, counting two bytes
+		 * per character
+		 * @param filenames canonical file paths of the files found
+		 * @param results the results
+		 * @return long the estimated bytes
+		 */
+		private static long estimateBytes(String[] filenames,
+				ResultStruct results) {
+			long total = ENTRY_OVERHEAD;
+			for(String filename : filenames) {
+				total += RESULT_OVERHEAD + 2L * filename.length();
+			}
+			for(int i = 0; i < results.getNumResults(); i++) {
+				total += RESULT_OVERHEAD + 2L * results.getFileName(i).length()
+						+ 2L * Math.max(results.getBufferLength(i), 0);
+				List<TextBuffer.Hit> innerHits = results.getHits(i);
+				if(innerHits != null) {
+					for(TextBuffer.Hit hit : innerHits) {
+						total += RESULT_OVERHEAD
+								+ 2L * length(hit.getBuffer());
+					}
+				}
+			}
+			return total;
+		}
+
+		private static int length(String s) {
+			return s == null ? 0 : s.length();
+		}
+	}
+}
@@ -0,0 +1,546 @@
+package indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP service that answers searches from many users over one open
+ * index. Every request shares the same SearchSession, Indexer and
+ * QueryCache, so the index is opened once no matter how many users search
+ * it. The server listens on the loopback address unless told otherwise.
+ *
+ * GET /search takes these parameters:
+ * - q: the text to be searched for (required)
+ * - type: term, wildcard (the default), substring or query, see
+ *   QueryCache.SearchType
+ * - size: the max number of files on the page, 100 by default
+ * - cursor: the "next cursor" of the page before, to get the next page
+ * - lines: number of lines above and below the query line in each buffer,
+ *   at most 1000
+ * and answers with the JSON of JsonGenerator.generate() for the page,
+ * along with "total hits", "start" and, if there are more pages,
+ * "next cursor".
+ *
+ * GET /count takes q and type the same way and answers with the number of
+ * matching "files", without loading any document, or with true or false
+ * for "exists" if exists=true is given. GET /metrics answers with
+ * IndexMetrics.toJSON().
+ *
+ * Searches run on a fixed number of worker threads with a bounded queue.
+ * A request that finds the queue full is answered at once with 503 instead
+ * of waiting, and a request that takes longer than the timeout is answered
+ * with 504. A timed out search is not interrupted, since interrupting a
+ * thread that is reading the index can close the index files for everyone,
+ * but it is skipped if it had not started yet.
+ * @author Eric Gunn
+ *
+ */
+public class QueryServer implements Closeable {
+	
+	public static final String SEARCH_PATH = "/search";
+	public static final String COUNT_PATH = "/count";
+	public static final String METRICS_PATH = "/metrics";
+	
+	private static final int DEFAULT_PORT = 8080;
+	private static final int DEFAULT_MAX_QUEUED = 64;
+	private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+	private static final int DEFAULT_HALF_BUFFER_SIZE = 2;
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int MAX_PAGE_SIZE = 1000;
+	//buffers of every hit on a page are held at once
+	private static final int MAX_HALF_BUFFER_SIZE = 1000;
+	private static final int DEFAULT_CACHE_ENTRIES = 256;
+	private static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+	
+	private static final int OK = 200;
+	private static final int BAD_REQUEST = 400;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int INTERNAL_ERROR = 500;
+	private static final int UNAVAILABLE = 503;
+	private static final int GATEWAY_TIMEOUT = 504;
+	
+	private Indexer indexer;
+	private SearchSession session;
+	private QueryCache cache;
+	
+	private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+	private int port = DEFAULT_PORT;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxQueued = DEFAULT_MAX_QUEUED;
+	private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	private int halfBufferSize = DEFAULT_HALF_BUFFER_SIZE;
+	
+	private HttpServer server;
+	private ExecutorService connections;
+	private ThreadPoolExecutor workers;
+	
+	/**
+	 * Constructor for a QueryServer object. The session is not closed with
+	 * the server, and stops printing the files it finds
+	 * @param indexer the indexer used to search and build results
+	 * @param session the search session holding the open index, shared by
+	 * every request
+	 */
+	public QueryServer(Indexer indexer, SearchSession session) {
+		this.indexer = indexer;
+		this.session = session;
+		this.session.setVerbose(false);
+		this.cache = new QueryCache(DEFAULT_CACHE_ENTRIES,
+				DEFAULT_CACHE_BYTES);
+	}
+	
+	/**
+	 * Sets the cache shared by every request
+	 * @param cache the cache of earlier results
+	 */
+	public void setCache(QueryCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Sets the address the server listens on, the loopback address by
+	 * default
+	 * @param bindAddress the address to listen on
+	 */
+	public void setBindAddress(InetAddress bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+	
+	/**
+	 * Sets the port the server listens on
+	 * @param port the port, 0 for any free port, see getPort()
+	 */
+	public void setPort(int port) {
+		if(port < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0."));
+		}
+		this.port = port;
+	}
+	
+	/**
+	 * Sets the number of searches that run at the same time, the number of
+	 * processors by default
+	 * @param threads number of worker threads
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Sets the max number of searches waiting for a worker thread. Requests
+	 * beyond it are refused with 503
+	 * @param maxQueued max number of waiting searches
+	 */
+	public void setMaxQueued(int maxQueued) {
+		if(maxQueued < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.maxQueued = maxQueued;
+	}
+	
+	/**
+	 * Sets how long a request may wait and run before it is answered with
+	 * 504
+	 * @param timeoutMillis timeout in milliseconds
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		if(timeoutMillis < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/**
+	 * Sets the number of lines above and below the query line in each buffer
+	 * when a request does not give one
+	 * @param halfBufferSize number of lines, at most 1000
+	 */
+	public void setHalfBufferSize(int halfBufferSize) {
+		if(halfBufferSize < 0 || halfBufferSize > MAX_HALF_BUFFER_SIZE) {
+			throw(new IllegalArgumentException("Argument must be between 0"
+					+ " and " + MAX_HALF_BUFFER_SIZE + "."));
+		}
+		this.halfBufferSize = halfBufferSize;
+	}
+	
+	/**
+	 * Starts listening for requests
+	 * @throws IOException if the server could not listen on its address
+	 */
+	public synchronized void start() throws IOException {
+		if(this.server != null) {
+			throw new IllegalStateException("Server was already started");
+		}
+		this.workers = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueued),
+				new NamedThreadFactory("query-worker"));
+		//enough threads to wait on every worker and queued search, and to
+		//refuse requests beyond those
+		this.connections = Executors.newFixedThreadPool(
+				2 * threads + maxQueued,
+				new NamedThreadFactory("query-connection"));
+		this.server = HttpServer.create(new InetSocketAddress(bindAddress,
+				port), 0);
+		this.server.createContext(SEARCH_PATH,
+				exchange -> handle(exchange, false));
+		this.server.createContext(COUNT_PATH,
+				exchange -> handle(exchange, true));
+		this.server.createContext(METRICS_PATH, exchange -> {
+			try {
+				send(exchange, OK, IndexMetrics.toJSON());
+			}
+			finally {
+				exchange.close();
+			}
+		});
+		this.server.setExecutor(connections);
+		this.server.start();
+	}
+	
+	/**
+	 * Getter method for the port the server listens on
+	 * @return int the port, useful when the server was given port 0
+	 */
+	public synchronized int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+	
+	/**
+	 * Stops listening, lets requests that are running finish, and stops the
+	 * threads
+	 */
+	@Override
+	public synchronized void close() {
+		if(this.server == null) {
+			return;
+		}
+		this.server.stop(0);
+		this.connections.shutdown();
+		this.workers.shutdown();
+		try {
+			this.connections.awaitTermination(timeoutMillis,
+					TimeUnit.MILLISECONDS);
+			this.workers.awaitTermination(timeoutMillis,
+					TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.server = null;
+	}
+	
+	/**
+	 * Handles one request on a connection thread: hands the search to a
+	 * worker and waits for it until the timeout
+	 * @param exchange the request and its response
+	 * @param countOnly true to count the files found instead of listing them
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handle(HttpExchange exchange, boolean countOnly)
+			throws IOException {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		try {
+			if(!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+				sendError(exchange, METHOD_NOT_ALLOWED,
+						"Only GET is supported");
+				return;
+			}
+			Request request;
+			try {
+				request = new Request(parseQuery(
+						exchange.getRequestURI().getRawQuery()));
+			}
+			catch (IllegalArgumentException e) {
+				sendError(exchange, BAD_REQUEST, e.getMessage());
+				return;
+			}
+			
+			Future<JSONObject> future;
+			try {
+				future = workers.submit(() -> countOnly
+						? count(request, deadline) : search(request, deadline));
+			}
+			catch (RejectedExecutionException e) {
+				sendError(exchange, UNAVAILABLE, "Too many searches");
+				return;
+			}
+			
+			JSONObject json;
+			try {
+				json = future.get(Math.max(deadline - System.nanoTime(), 0),
+						TimeUnit.NANOSECONDS);
+			}
+			catch (TimeoutException e) {
+				//a search that has not started is dropped, see search()
+				future.cancel(false);
+				sendError(exchange, GATEWAY_TIMEOUT, "Search timed out");
+				return;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				sendError(exchange, UNAVAILABLE, "Server is stopping");
+				return;
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof IllegalArgumentException) {
+					sendError(exchange, BAD_REQUEST, cause.getMessage());
+				}
+				else {
+					sendError(exchange, INTERNAL_ERROR, String.valueOf(cause));
+				}
+				return;
+			}
+			if(json == null) {
+				sendError(exchange, GATEWAY_TIMEOUT, "Search timed out");
+				return;
+			}
+			send(exchange, OK, json);
+		}
+		finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Runs a search on a worker thread
+	 * @param request the parameters of the search
+	 * @param deadline System.nanoTime() by which the answer is due
+	 * @return JSONObject the page as JSON, or null if the deadline passed
+	 * before the search started
+	 * @throws Exception if the index could not be searched or the query is
+	 * not valid
+	 */
+	private JSONObject search(Request request, long deadline)
+			throws Exception {
+		if(System.nanoTime() - deadline >= 0) {
+			return null;
+		}
+		SearchPage page = indexer.getCachedPage(session, cache, request.type,
+				request.query, request.pageSize, request.after,
+				request.halfBufferSize);
+		JSONObject json = new JsonGenerator().generate(page.getResults());
+		json.put("total hits", page.getTotalHits());
+		json.put("start", page.getStart());
+		if(page.hasNext()) {
+			json.put("next cursor", page.getNext().toString());
+		}
+		return json;
+	}
+	
+	/**
+	 * Counts the files found by a search on a worker thread, or checks
+	 * whether there are any
+	 * @param request the parameters of the search
+	 * @param deadline System.nanoTime() by which the answer is due
+	 * @return JSONObject the query and its number of "files" or whether it
+	 * "exists", or null if the deadline passed before the search started
+	 * @throws Exception if the index could not be searched or the query is
+	 * not valid
+	 */
+	private JSONObject count(Request request, long deadline)
+			throws Exception {
+		if(System.nanoTime() - deadline >= 0) {
+			return null;
+		}
+		session.refresh();
+		JSONObject json = new JSONObject().put("query", request.query);
+		if(request.exists) {
+			return json.put("exists", indexer.existsInIndex(session,
+					request.type, request.query));
+		}
+		return json.put("files", indexer.countIndex(session, request.type,
+				request.query));
+	}
+	
+	/**
+	 * Helper method that sends a JSON response
+	 * @param exchange the request and its response
+	 * @param status the HTTP status code
+	 * @param json the body
+	 * @throws IOException if the response could not be sent
+	 */
+	private static void send(HttpExchange exchange, int status,
+			JSONObject json) throws IOException {
+		byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+	
+	/**
+	 * Helper method that sends an error as JSON with an "error" message
+	 * @param exchange the request and its response
+	 * @param status the HTTP status code
+	 * @param message what went wrong
+	 * @throws IOException if the response could not be sent
+	 */
+	private static void sendError(HttpExchange exchange, int status,
+			String message) throws IOException {
+		send(exchange, status, new JSONObject().put("error", message));
+	}
+	
+	/**
+	 * Helper method that reads the parameters of a URL query string
+	 * @param rawQuery the query string, still URL encoded, can be null
+	 * @return Map each parameter with its last value
+	 */
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> params = new HashMap<String, String>();
+		if(rawQuery == null || rawQuery.isEmpty()) {
+			return params;
+		}
+		try {
+			for(String pair : rawQuery.split("&")) {
+				int eq = pair.indexOf('=');
+				String key = eq < 0 ? pair : pair.substring(0, eq);
+				String value = eq < 0 ? "" : pair.substring(eq + 1);
+				params.put(URLDecoder.decode(key, "UTF-8"),
+						URLDecoder.decode(value, "UTF-8"));
+			}
+		}
+		catch (UnsupportedEncodingException e) {
+			//UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+		return params;
+	}
+	
+	/**
+	 * The parameters of a search request, checked on the connection thread
+	 * so a bad request never takes a worker
+	 * @author Eric Gunn
+	 *
+	 */
+	private class Request {
+		
+		private String query;
+		private QueryCache.SearchType type;
+		private int pageSize;
+		private SearchPage.Cursor after;
+		private int halfBufferSize;
+		private boolean exists;
+		
+		/**
+		 * Constructor for a Request object
+		 * @param params the parameters of the request
+		 * @throws IllegalArgumentException if a parameter is missing or not
+		 * valid
+		 */
+		Request(Map<String, String> params) {
+			this.query = params.get("q");
+			if(query == null || query.trim().isEmpty()) {
+				throw(new IllegalArgumentException("Parameter q is"
+						+ " required."));
+			}
+			String typeName = params.get("type");
+			try {
+				this.type = typeName == null ? QueryCache.SearchType.WILDCARD
+						: QueryCache.SearchType.valueOf(
+								typeName.toUpperCase(Locale.ROOT));
+			}
+			catch (IllegalArgumentException e) {
+				throw(new IllegalArgumentException("Unknown search type: "
+						+ typeName));
+			}
+			this.pageSize = getInt(params, "size", DEFAULT_PAGE_SIZE, 1,
+					MAX_PAGE_SIZE);
+			this.halfBufferSize = getInt(params, "lines",
+					QueryServer.this.halfBufferSize, 0, MAX_HALF_BUFFER_SIZE);
+			String cursor = params.get("cursor");
+			this.after = cursor == null || cursor.isEmpty() ? null
+					: SearchPage.Cursor.parse(cursor);
+			this.exists = Boolean.parseBoolean(params.get("exists"));
+		}
+		
+		/**
+		 * Helper method that reads a whole number parameter
+		 * @param params the parameters of the request
+		 * @param name name of the parameter
+		 * @param defaultValue value if the parameter is not given
+		 * @param min lowest value allowed
+		 * @param max highest value allowed
+		 * @return int the value
+		 * @throws IllegalArgumentException if the value is not a number in
+		 * range
+		 */
+		private int getInt(Map<String, String> params, String name,
+				int defaultValue, int min, int max) {
+			String value = params.get(name);
+			if(value == null) {
+				return defaultValue;
+			}
+			try {
+				int n = Integer.parseInt(value);
+				if(n >= min && n <= max) {
+					return n;
+				}
+			}
+			catch (NumberFormatException e) {
+				//reported below
+			}
+			throw(new IllegalArgumentException("Parameter " + name
+					+ " must be a number from " + min + " to " + max + "."));
+		}
+	}
+	
+	/**
+	 * Names the threads of the server, and makes them daemon threads so an
+	 * application that forgets to close the server can still exit
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class NamedThreadFactory
+			implements java.util.concurrent.ThreadFactory {
+		
+		private String prefix;
+		private AtomicInteger count = new AtomicInteger();
+		
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Converts search results between the JSON of JsonGenerator and the binary
+ * form of BinaryResultWriter, one result at a time, so neither side is
+ * held in memory as a whole. JSON written by JsonGenerator.generate() may
+ * list its results before the extension, query and directory, which the
+ * binary form needs first; such results are written to a temporary file
+ * until the details are read.
+ * @author Eric Gunn
+ *
+ */
+public class ResultConverter {
+	
+	private static final int DEFAULT_INDENT = 4;
+	
+	private ResultConverter() {}
+	
+	/**
+	 * Converts binary results to JSON with default indent of size 4. Both
+	 * streams are closed
+	 * @param in the binary results
+	 * @param out where the JSON is written, as UTF-8
+	 * @throws IOException if the results could not be read or written
+	 */
+	public static void binaryToJson(InputStream in, OutputStream out)
+			throws IOException {
+		binaryToJson(in, new BufferedWriter(
+				new OutputStreamWriter(out, StandardCharsets.UTF_8)),
+				DEFAULT_INDENT);
+	}
+	
+	/**
+	 * Converts binary results to JSON. Both the stream and the Writer are
+	 * closed
+	 * @param in the binary results
+	 * @param out where the JSON is written
+	 * @param indent size of indent for JSON styling, 0 writes everything on
+	 * one line
+	 * @throws IOException if the results could not be read or written
+	 */
+	public static void binaryToJson(InputStream in, Writer out, int indent)
+			throws IOException {
+		BinaryResultReader reader = new BinaryResultReader(in);
+		try {
+			JsonResultWriter json = new JsonResultWriter(out, indent);
+			try {
+				json.begin(reader.getExtension(), reader.getQuery(),
+						reader.getDirectory());
+				ResultStruct.InnerStruct inner;
+				while((inner = reader.next()) != null) {
+					json.writeResult(inner);
+				}
+			}
+			finally {
+				json.close();
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Converts JSON results, as written by JsonGenerator or
+	 * JsonResultWriter, to binary. Both streams are closed
+	 * @param in the JSON, as UTF-8
+	 * @param out where the binary results are written
+	 * @param compress true to deflate the binary results
+	 * @throws IOException if the results could not be read or written, or
+	 * the JSON does not hold search results
+	 */
+	public static void jsonToBinary(InputStream in, OutputStream out,
+			boolean compress) throws IOException {
+		jsonToBinary(new BufferedReader(
+				new InputStreamReader(in, StandardCharsets.UTF_8)), out,
+				compress);
+	}
+	
+	/**
+	 * Converts JSON results, as written by JsonGenerator or
+	 * JsonResultWriter, to binary. Both the Reader and the stream are closed
+	 * @param in the JSON
+	 * @param out where the binary results are written
+	 * @param compress true to deflate the binary results
+	 * @throws IOException if the results could not be read or written, or
+	 * the JSON does not hold search results
+	 */
+	public static void jsonToBinary(Reader in, OutputStream out,
+			boolean compress) throws IOException {
+		File spill = null;
+		try {
+			JSONTokener tokener = new JSONTokener(in);
+			String extension = null;
+			String query = null;
+			String directory = null;
+			BinaryResultWriter writer = null;
+			try {
+				expect(tokener, '{');
+				char c = tokener.nextClean();
+				while(c != '}') {
+					tokener.back();
+					String key = tokener.nextValue().toString();
+					expect(tokener, ':');
+					if("results".equals(key)) {
+						if(extension == null || query == null
+								|| directory == null) {
+							//details come later, hold the results until then
+							spill = File.createTempFile("results", ".bin");
+							writer = new BinaryResultWriter(
+									new BufferedOutputStream(
+											new FileOutputStream(spill)),
+									false);
+						}
+						else {
+							writer = new BinaryResultWriter(out, compress);
+						}
+						writer.begin(extension, query, directory);
+						writeResults(tokener, writer);
+						writer.close();
+					}
+					else {
+						Object value = tokener.nextValue();
+						String s = value == JSONObject.NULL ? null
+								: value.toString();
+						if("extension".equals(key)) {
+							extension = s;
+						}
+						else if("query".equals(key)) {
+							query = s;
+						}
+						else if("directory".equals(key)) {
+							directory = s;
+						}
+					}
+					c = tokener.nextClean();
+					if(c == ',') {
+						c = tokener.nextClean();
+					}
+				}
+			}
+			catch (JSONException e) {
+				throw new IOException("Invalid JSON results: "
+						+ e.getMessage(), e);
+			}
+			finally {
+				in.close();
+			}
+			
+			if(writer == null) {
+				//no results key, write the details alone
+				writer = new BinaryResultWriter(out, compress);
+				writer.begin(extension, query, directory);
+				writer.close();
+			}
+			else if(spill != null) {
+				copy(spill, out, compress, extension, query, directory);
+			}
+		}
+		finally {
+			out.close();
+			if(spill != null && !spill.delete()) {
+				spill.deleteOnExit();
+			}
+		}
+	}
+	
+	/**
+	 * Helper method that reads the results array of the JSON one result at
+	 * a time
+	 * @param tokener the JSON, positioned at the start of the array
+	 * @param writer where each result is written
+	 * @throws IOException if a result could not be written
+	 */
+	private static void writeResults(JSONTokener tokener,
+			BinaryResultWriter writer) throws IOException {
+		expect(tokener, '[');
+		char c = tokener.nextClean();
+		while(c != ']') {
+			tokener.back();
+			Object entry = tokener.nextValue();
+			if(!(entry instanceof JSONArray)) {
+				throw new IOException("Invalid JSON result: " + entry);
+			}
+			writeResult((JSONArray) entry, writer);
+			c = tokener.nextClean();
+			if(c == ',') {
+				c = tokener.nextClean();
+			}
+		}
+	}
+	
+	/**
+	 * Helper method that writes one result of the JSON, which is an array
+	 * of objects each holding one of the fields of the result
+	 * @param entry the result
+	 * @param writer where the result is written
+	 * @throws IOException if the result could not be written
+	 */
+	private static void writeResult(JSONArray entry,
+			BinaryResultWriter writer) throws IOException {
+		JSONObject fields = new JSONObject();
+		for(int i = 0; i < entry.length(); i++) {
+			JSONObject field = entry.getJSONObject(i);
+			for(String key : field.keySet()) {
+				fields.put(key, field.get(key));
+			}
+		}
+		JSONObject lines = new JSONObject();
+		JSONArray lineArray = fields.optJSONArray("lines");
+		if(lineArray != null) {
+			for(int i = 0; i < lineArray.length(); i++) {
+				JSONObject line = lineArray.getJSONObject(i);
+				for(String key : line.keySet()) {
+					lines.put(key, line.get(key));
+				}
+			}
+		}
+		List<TextBuffer.Hit> hits = null;
+		JSONArray hitArray = fields.optJSONArray("hits");
+		if(hitArray != null) {
+			hits = new ArrayList<TextBuffer.Hit>(hitArray.length());
+			for(int i = 0; i < hitArray.length(); i++) {
+				JSONObject hit = hitArray.getJSONObject(i);
+				JSONArray queryArray = hit.getJSONArray("query lines");
+				List<Integer> queryLines =
+						new ArrayList<Integer>(queryArray.length());
+				for(int j = 0; j < queryArray.length(); j++) {
+					queryLines.add(queryArray.getInt(j));
+				}
+				hits.add(new TextBuffer.Hit(getString(hit, "buffer"),
+						hit.getInt("line start"), hit.getInt("line end"),
+						queryLines));
+			}
+		}
+		writer.writeResult(getString(fields, "file name"),
+				getString(fields, "buffer"), lines.optInt("line start"),
+				lines.optInt("line end"), lines.optInt("query line"),
+				lines.optInt("number of lines"), hits);
+	}
+	
+	/**
+	 * Helper method that copies results held in a temporary file behind
+	 * the details of the search
+	 * @param spill the temporary file
+	 * @param out where the binary results are written
+	 * @param compress true to deflate the binary results
+	 * @param extension file extension that was searched
+	 * @param query search string
+	 * @param directory file directory that was searched
+	 * @throws IOException if the results could not be read or written
+	 */
+	private static void copy(File spill, OutputStream out, boolean compress,
+			String extension, String query, String directory)
+					throws IOException {
+		BinaryResultReader reader = new BinaryResultReader(
+				new BufferedInputStream(new FileInputStream(spill)));
+		try {
+			BinaryResultWriter writer = new BinaryResultWriter(out, compress);
+			try {
+				writer.begin(extension, query, directory);
+				ResultStruct.InnerStruct inner;
+				while((inner = reader.next()) != null) {
+					writer.writeResult(inner);
+				}
+			}
+			finally {
+				writer.close();
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Helper method that reads a string that JSON may hold as null or leave
+	 * out
+	 * @param json the object holding the string
+	 * @param key the key of the string
+	 * @return String the string, or null
+	 */
+	private static String getString(JSONObject json, String key) {
+		return json.isNull(key) ? null : json.get(key).toString();
+	}
+	
+	/**
+	 * Helper method that reads the next character of the JSON and checks it
+	 * @param tokener the JSON
+	 * @param expected the character that must come next
+	 * @throws IOException if another character comes next
+	 */
+	private static void expect(JSONTokener tokener, char expected)
+			throws IOException {
+		char c = tokener.nextClean();
+		if(c != expected) {
+			throw new IOException("Invalid JSON results: expected '"
+					+ expected + "' but found '" + c + "'");
+		}
+	}
+}
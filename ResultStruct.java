@@ -1,35 +1,66 @@
 package indexer;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * A class that stores a variety of details regarding a search operation
  * performed with the Indexer or SimpleSearcher classes.
+ *
+ * Results are kept in rank order as columns: one array per line number and
+ * every buffer copied end to end into a single char array, so a large
+ * result set is a handful of arrays instead of several objects per result.
+ * Results are read by their rank with the indexed getters, which do not
+ * copy anything but the buffer String, or through getMap(), which wraps
+ * each result in an InnerStruct view the first time it is called.
  * @author Eric Gunn
  *
  */
 public class ResultStruct {
 	
-	private static final int LOAD_FACTOR_INVERSE = 2;
+	private static final String[] NO_FILES = new String[0];
+	private static final int[] NO_LINES = new int[0];
+	private static final char[] NO_CHARS = new char[0];
+	
+	private String[] fileNames;
+	private int[] lineStarts;
+	private int[] lineEnds;
+	private int[] queryLines;
+	private int[] numLines;
+	//buffers end to end, each found by its offset and length, -1 for null
+	private char[] bufferChars;
+	private int[] bufferOffsets;
+	private int[] bufferLengths;
+	private List<List<TextBuffer.Hit>> hits;
 	
-	private HashMap<String, ResultStruct.InnerStruct> map;
+	private LinkedHashMap<String, ResultStruct.InnerStruct> map;
 	
 	private String extension;
 	private String query;
 	private String directory;
 	private int numResults;
-
+	
 	/**
 	 * Default constructor, should use the other one
 	 */
 	public ResultStruct() {
-		this.map = new HashMap<String, ResultStruct.InnerStruct>();
+		this.fileNames = NO_FILES;
+		this.lineStarts = NO_LINES;
+		this.lineEnds = NO_LINES;
+		this.queryLines = NO_LINES;
+		this.numLines = NO_LINES;
+		this.bufferChars = NO_CHARS;
+		this.bufferOffsets = NO_LINES;
+		this.bufferLengths = NO_LINES;
 	}
 	
 	/**
 	 * Detailed constructor for a ResultStruct object
-	 * @param fileNames list of file names that were searched
+	 * @param fileNames list of file names that were searched, in rank order
 	 * @param buffers list of buffers that were generated for each file
 	 * @param startLines list of each file's buffer's starting line number
 	 * @param endLines list of each file's buffer's ending line number
@@ -41,26 +72,125 @@ public class ResultStruct {
 	public ResultStruct(String[] fileNames, String[] buffers, int[] startLines,
 			int[] endLines, int[] queryLines, String extension,
 			String directory, String query) {
-		//create hash map with double size to avoid going over load factor
-		this.map = new HashMap<String, ResultStruct.InnerStruct>
-			(fileNames.length * LOAD_FACTOR_INVERSE);
 		this.extension = extension;
 		this.query = query;
 		this.directory = directory;
 		this.numResults = fileNames.length;
+		this.fileNames = fileNames.clone();
+		this.lineStarts = startLines.clone();
+		this.lineEnds = endLines.clone();
+		this.queryLines = queryLines.clone();
+		this.numLines = new int[numResults];
+		for(int i = 0; i < numResults; i++) {
+			if(queryLines[i] != 0) {
+				this.numLines[i] = endLines[i] - startLines[i] + 1;
+			}
+		}
+		setBuffers(buffers);
+	}
+	
+	/**
+	 * Constructor for a ResultStruct object that holds every hit found in
+	 * each file. The buffer and line numbers of each file are those of its
+	 * first hit
+	 * @param fileNames list of file names that were searched, in rank order
+	 * @param hits list of each file's hits, in file order
+	 * @param extension file extension to be searched
+	 * @param directory file directory to look in
+	 * @param query search string to look for in each file
+	 */
+	public ResultStruct(String[] fileNames, List<List<TextBuffer.Hit>> hits,
+			String extension, String directory, String query) {
+		this.extension = extension;
+		this.query = query;
+		this.directory = directory;
+		this.numResults = fileNames.length;
+		this.fileNames = fileNames.clone();
+		this.lineStarts = new int[numResults];
+		this.lineEnds = new int[numResults];
+		this.queryLines = new int[numResults];
+		this.numLines = new int[numResults];
+		this.hits = hits;
 		
-		//build each inner struct and put them in the hash map
-		for(int i = 0; i < fileNames.length; i++) {
-			InnerStruct inner = new InnerStruct(fileNames[i]);
-			inner.setBuffer(buffers[i]);
-			inner.setLineStart(startLines[i]);
-			inner.setLineEnd(endLines[i]);
-			inner.setQueryLine(queryLines[i]);
-			if(queryLines[i] == 0) {
-				inner.setNumLines(0);
+		String[] buffers = new String[numResults];
+		for(int i = 0; i < numResults; i++) {
+			List<TextBuffer.Hit> fileHits = hits.get(i);
+			if(fileHits.isEmpty()) {
+				buffers[i] = "";
+			}
+			else {
+				TextBuffer.Hit first = fileHits.get(0);
+				buffers[i] = first.getBuffer();
+				this.lineStarts[i] = first.getStartLine();
+				this.lineEnds[i] = first.getEndLine();
+				this.queryLines[i] = first.getQueryLine();
+				this.numLines[i] = first.getNumLines();
+			}
+		}
+		setBuffers(buffers);
+	}
+	
+	/**
+	 * Constructor for a ResultStruct object that is given every column as
+	 * it is, such as one read back from a saved result
+	 * @param fileNames list of file names that were searched, in rank order
+	 * @param buffers list of buffers that were generated for each file
+	 * @param startLines list of each file's buffer's starting line number
+	 * @param endLines list of each file's buffer's ending line number
+	 * @param queryLines list of each file's buffer's query line number
+	 * @param numLines list of the number of lines in each file's buffer
+	 * @param hits list of each file's hits, or null if only the first hit
+	 * was searched for
+	 * @param extension file extension to be searched
+	 * @param directory file directory to look in
+	 * @param query search string to look for in each file
+	 */
+	ResultStruct(String[] fileNames, String[] buffers, int[] startLines,
+			int[] endLines, int[] queryLines, int[] numLines,
+			List<List<TextBuffer.Hit>> hits, String extension,
+			String directory, String query) {
+		this.extension = extension;
+		this.query = query;
+		this.directory = directory;
+		this.numResults = fileNames.length;
+		this.fileNames = fileNames;
+		this.lineStarts = startLines;
+		this.lineEnds = endLines;
+		this.queryLines = queryLines;
+		this.numLines = numLines;
+		this.hits = hits;
+		setBuffers(buffers);
+	}
+	
+	/**
+	 * Helper method that copies the buffers end to end into one array
+	 * @param buffers the buffer of each result, null if there is none
+	 */
+	private void setBuffers(String[] buffers) {
+		long total = 0;
+		for(String buffer : buffers) {
+			if(buffer != null) {
+				total += buffer.length();
+			}
+		}
+		if(total > Integer.MAX_VALUE) {
+			throw(new IllegalArgumentException("Buffers must not be longer"
+					+ " than " + Integer.MAX_VALUE + " characters in total."));
+		}
+		this.bufferChars = new char[(int) total];
+		this.bufferOffsets = new int[numResults];
+		this.bufferLengths = new int[numResults];
+		int offset = 0;
+		for(int i = 0; i < numResults; i++) {
+			String buffer = buffers[i];
+			bufferOffsets[i] = offset;
+			if(buffer == null) {
+				bufferLengths[i] = -1;
+				continue;
 			}
-			else inner.setNumLines(endLines[i] - startLines[i] + 1);
-			this.map.put(fileNames[i], inner);
+			buffer.getChars(0, buffer.length(), bufferChars, offset);
+			bufferLengths[i] = buffer.length();
+			offset += buffer.length();
 		}
 	}
 	
@@ -71,20 +201,27 @@ public class ResultStruct {
 		System.out.println("Result Struct: Searched for \"" + this.query + "\"");
 		System.out.println("Directory: " + this.directory);
 		System.out.println("Extension: " + this.extension);
-		System.out.println("Number of files found: " + this.map.size());
+		System.out.println("Number of files found: " + this.numResults);
 		System.out.println();
 		
-		//prints each inner struct for each file
-		for(Entry<String, ResultStruct.InnerStruct> e : this.map.entrySet()) {
-			e.getValue().print();
+		//prints each result in rank order
+		for(int i = 0; i < this.numResults; i++) {
+			new InnerStruct(this, i).print();
 		}
 	}
 	
 	/**
-	 * Getter method for map
-	 * @return HashMap map of results
+	 * Getter method for map, built the first time it is called. Iterating
+	 * it gives the results in rank order
+	 * @return HashMap map of results, keyed on file name
 	 */
-	public HashMap<String, ResultStruct.InnerStruct> getMap() {
+	public synchronized HashMap<String, ResultStruct.InnerStruct> getMap() {
+		if(this.map == null) {
+			this.map = new LinkedHashMap<String, ResultStruct.InnerStruct>();
+			for(int i = 0; i < this.numResults; i++) {
+				this.map.put(this.fileNames[i], new InnerStruct(this, i));
+			}
+		}
 		return this.map;
 	}
 	
@@ -112,16 +249,131 @@ public class ResultStruct {
 		return this.directory;
 	}
 	
+	/**
+	 * Getter method for number of results
+	 * @return int number of results, including files listed twice
+	 */
 	public int getNumResults() {
 		return this.numResults;
 	}
 	
 	/**
-	 * Inner class that holds each search result and its relevant details
+	 * Getter method for the file name of a result
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return String file name
+	 */
+	public String getFileName(int i) {
+		return this.fileNames[i];
+	}
+	
+	/**
+	 * Getter method for the buffer of a result, copied into a new String
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return String buffer, or null if there is none
+	 */
+	public String getBuffer(int i) {
+		if(this.bufferLengths[i] < 0) {
+			return null;
+		}
+		return new String(this.bufferChars, this.bufferOffsets[i],
+				this.bufferLengths[i]);
+	}
+	
+	/**
+	 * Getter method for the buffer of a result without copying it
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return CharBuffer read-only view of the buffer, or null if there is
+	 * none
+	 */
+	public CharBuffer getBufferChars(int i) {
+		if(this.bufferLengths[i] < 0) {
+			return null;
+		}
+		return CharBuffer.wrap(this.bufferChars, this.bufferOffsets[i],
+				this.bufferLengths[i]).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Writes the buffer of a result without copying it
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @param writer where the buffer is written, nothing is written if
+	 * there is no buffer
+	 * @throws IOException if the buffer could not be written
+	 */
+	public void writeBuffer(int i, Writer writer) throws IOException {
+		if(this.bufferLengths[i] > 0) {
+			writer.write(this.bufferChars, this.bufferOffsets[i],
+					this.bufferLengths[i]);
+		}
+	}
+	
+	/**
+	 * Getter method for the length of the buffer of a result
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return int number of characters in the buffer, -1 if there is none
+	 */
+	public int getBufferLength(int i) {
+		return this.bufferLengths[i];
+	}
+	
+	/**
+	 * Getter method for the starting line number of a result's buffer
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return int starting line number of buffer
+	 */
+	public int getLineStart(int i) {
+		return this.lineStarts[i];
+	}
+	
+	/**
+	 * Getter method for the ending line number of a result's buffer
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return int ending line number of buffer
+	 */
+	public int getLineEnd(int i) {
+		return this.lineEnds[i];
+	}
+	
+	/**
+	 * Getter method for the line number of the query string in a result
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return int line number of query string
+	 */
+	public int getQueryLine(int i) {
+		return this.queryLines[i];
+	}
+	
+	/**
+	 * Getter method for the number of lines in a result's buffer
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return int number of lines in the buffer
+	 */
+	public int getNumLines(int i) {
+		return this.numLines[i];
+	}
+	
+	/**
+	 * Getter method for every hit found in the file of a result
+	 * @param i rank of the result, from 0 to getNumResults() - 1
+	 * @return List hits in file order, or null if only the first hit was
+	 * searched for
+	 */
+	public List<TextBuffer.Hit> getHits(int i) {
+		return this.hits == null ? null : this.hits.get(i);
+	}
+	
+	/**
+	 * Holds a single search result and its relevant details. One built by
+	 * getMap() is a view of a result of its ResultStruct; calling a setter
+	 * on it copies the result first, so the ResultStruct itself, which may
+	 * be shared through a QueryCache, is never changed
 	 * @author Eric Gunn
 	 *
 	 */
-	public class InnerStruct {
+	public static class InnerStruct {
+		
+		private ResultStruct results;
+		private int index;
 		
 		private String fileName;
 		private String buffer;
@@ -129,6 +381,7 @@ public class ResultStruct {
 		private int lineEnd;
 		private int queryLine;
 		private int numLines;
+		private List<TextBuffer.Hit> hits;
 		
 		/**
 		 * Constructor for the inner struct
@@ -138,11 +391,40 @@ public class ResultStruct {
 			this.fileName = fileName;
 		}
 		
+		/**
+		 * Constructor for a view of a result
+		 * @param results the results holding the result
+		 * @param index rank of the result
+		 */
+		InnerStruct(ResultStruct results, int index) {
+			this.results = results;
+			this.index = index;
+		}
+		
+		/**
+		 * Helper method that copies the result out of its ResultStruct
+		 * before it is changed
+		 */
+		private void detach() {
+			if(this.results == null) {
+				return;
+			}
+			this.fileName = results.getFileName(index);
+			this.buffer = results.getBuffer(index);
+			this.lineStart = results.getLineStart(index);
+			this.lineEnd = results.getLineEnd(index);
+			this.queryLine = results.getQueryLine(index);
+			this.numLines = results.getNumLines(index);
+			this.hits = results.getHits(index);
+			this.results = null;
+		}
+		
 		/**
 		 * Setter method for the associated file name
 		 * @param fileName the associated file name
 		 */
 		public void setFileName(String fileName) {
+			detach();
 			this.fileName = fileName;
 		}
 		
@@ -151,6 +433,7 @@ public class ResultStruct {
 		 * @param buffer the associated buffer
 		 */
 		public void setBuffer(String buffer) {
+			detach();
 			this.buffer = buffer;
 		}
 		
@@ -159,6 +442,7 @@ public class ResultStruct {
 		 * @param lineStart the starting line number
 		 */
 		public void setLineStart(int lineStart) {
+			detach();
 			this.lineStart = lineStart;
 		}
 		
@@ -167,6 +451,7 @@ public class ResultStruct {
 		 * @param lineEnd the ending line number
 		 */
 		public void setLineEnd(int lineEnd) {
+			detach();
 			this.lineEnd = lineEnd;
 		}
 		
@@ -175,6 +460,7 @@ public class ResultStruct {
 		 * @param queryLine the query line number
 		 */
 		public void setQueryLine(int queryLine) {
+			detach();
 			this.queryLine = queryLine;
 		}
 		
@@ -183,23 +469,34 @@ public class ResultStruct {
 		 * @param numLines the number of lines of the associated buffer
 		 */
 		public void setNumLines(int numLines) {
+			detach();
 			this.numLines = numLines;
 		}
 		
+		/**
+		 * Setter method for every hit found in the file
+		 * @param hits the hits found, in file order
+		 */
+		public void setHits(List<TextBuffer.Hit> hits) {
+			detach();
+			this.hits = hits;
+		}
+		
 		/**
 		 * Getter method for file name
 		 * @return String file name
 		 */
 		public String getFileName() {
-			return this.fileName;
+			return results == null ? this.fileName
+					: results.getFileName(index);
 		}
-	
+		
 		/**
 		 * Getter method for buffer that wraps query string
 		 * @return String buffer
 		 */
 		public String getBuffer() {
-			return this.buffer;
+			return results == null ? this.buffer : results.getBuffer(index);
 		}
 		
 		/**
@@ -207,7 +504,8 @@ public class ResultStruct {
 		 * @return int starting line number of buffer
 		 */
 		public int getLineStart() {
-			return this.lineStart;
+			return results == null ? this.lineStart
+					: results.getLineStart(index);
 		}
 		
 		/**
@@ -215,7 +513,7 @@ public class ResultStruct {
 		 * @return int ending line number of buffer
 		 */
 		public int getLineEnd() {
-			return this.lineEnd;
+			return results == null ? this.lineEnd : results.getLineEnd(index);
 		}
 		
 		/**
@@ -223,7 +521,8 @@ public class ResultStruct {
 		 * @return int line number of query string
 		 */
 		public int getQueryLine() {
-			return this.queryLine;
+			return results == null ? this.queryLine
+					: results.getQueryLine(index);
 		}
 		
 		/**
@@ -231,20 +530,43 @@ public class ResultStruct {
 		 * @return int number of lines in the buffer
 		 */
 		public int getNumLines() {
-			return this.numLines;
+			return results == null ? this.numLines
+					: results.getNumLines(index);
+		}
+		
+		/**
+		 * Getter method for every hit found in the file
+		 * @return List hits in file order, or null if only the first hit
+		 * was searched for
+		 */
+		public List<TextBuffer.Hit> getHits() {
+			return results == null ? this.hits : results.getHits(index);
 		}
 		
 		/**
 		 * Print the member variables of the inner struct
 		 */
 		public void print() {
-			System.out.println("InnerStruct: " + this.fileName);
-			System.out.println("Block of text: " + this.buffer);
-			System.out.println("Line start: " + this.lineStart);
-			System.out.println("Line end: " + this.lineEnd);
-			System.out.println("Query line: " + this.queryLine);
-			System.out.println("Number of lines: " + this.numLines + "\n");
-			
+			System.out.println("InnerStruct: " + getFileName());
+			List<TextBuffer.Hit> hits = getHits();
+			if(hits != null) {
+				System.out.println("Number of hits: " + hits.size());
+				for(TextBuffer.Hit hit : hits) {
+					System.out.println("Block of text: " + hit.getBuffer());
+					System.out.println("Line start: " + hit.getStartLine());
+					System.out.println("Line end: " + hit.getEndLine());
+					System.out.println("Query lines: " + hit.getQueryLines());
+					System.out.println("Number of lines: "
+							+ hit.getNumLines() + "\n");
+				}
+				return;
+			}
+			System.out.println("Block of text: " + getBuffer());
+			System.out.println("Line start: " + getLineStart());
+			System.out.println("Line end: " + getLineEnd());
+			System.out.println("Query line: " + getQueryLine());
+			System.out.println("Number of lines: " + getNumLines() + "\n");
+		
 		}
 	}
 }
@@ -0,0 +1,198 @@
+package indexer;
+
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * One page of ranked search results: the files found, in rank order, with
+ * the score of each, the total number of matching documents and a cursor
+ * to the next page. The next page is searched with searchAfter() from the
+ * last hit of this one, so paging deep into a large result set costs one
+ * page of hits per request rather than every hit before it.
+ *
+ * Cursors hold index document numbers, which stay valid while the index is
+ * not changed. Paging across a refresh that changed the index may skip or
+ * repeat files.
+ * @author Eric Gunn
+ *
+ */
+public class SearchPage {
+
+	private String[] filenames;
+	private float[] scores;
+	private long totalHits;
+	private long start;
+	private Cursor next;
+	private ResultStruct results;
+
+	/**
+	 * Constructor for a SearchPage object
+	 * @param filenames canonical file paths of the files found, in rank order
+	 * @param scores the score of each file
+	 * @param totalHits total number of documents matching the query
+	 * @param start number of files on the pages before this one
+	 * @param next cursor to the next page, or null if this is the last page
+	 */
+	public SearchPage(String[] filenames, float[] scores, long totalHits,
+			long start, Cursor next) {
+		this.filenames = filenames;
+		this.scores = scores;
+		this.totalHits = totalHits;
+		this.start = start;
+		this.next = next;
+	}
+
+	/**
+	 * Getter method for the files found
+	 * @return String[] canonical file paths in rank order
+	 */
+	public String[] getFilenames() {
+		return filenames;
+	}
+
+	/**
+	 * Getter method for the scores of the files found
+	 * @return float[] the score of each file, in rank order
+	 */
+	public float[] getScores() {
+		return scores;
+	}
+
+	/**
+	 * Getter method for the total number of matching documents. A file split
+	 * into chunks counts once per matching chunk
+	 * @return long total number of hits of the query
+	 */
+	public long getTotalHits() {
+		return totalHits;
+	}
+
+	/**
+	 * Getter method for the rank of the first file of the page
+	 * @return long number of files on the pages before this one
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Checks whether there are hits after this page
+	 * @return boolean true if getNext() gives a cursor
+	 */
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * Getter method for the cursor to the next page
+	 * @return Cursor where the next page starts, or null if this is the last
+	 * page
+	 */
+	public Cursor getNext() {
+		return next;
+	}
+
+	/**
+	 * Getter method for the buffers of the files of this page
+	 * @return ResultStruct the results of the page, or null if they were not
+	 * built
+	 */
+	public ResultStruct getResults() {
+		return results;
+	}
+
+	/**
+	 * Setter method for the buffers of the files of this page
+	 * @param results the results built for the files of the page
+	 */
+	void setResults(ResultStruct results) {
+		this.results = results;
+	}
+
+	/**
+	 * Where a page of results starts: the last hit of the page before it, and
+	 * how many hits and files came before. A cursor can be turned into a
+	 * string with toString() and back with parse(), so it can be handed to a
+	 * client and sent back for the next page
+	 * @author Eric Gunn
+	 *
+	 */
+	public static class Cursor {
+
+		private static final String SEPARATOR = ":";
+		private static final int NUM_PARTS = 4;
+		private static final int HEX = 16;
+
+		private int doc;
+		private float score;
+		private long hits;
+		private long files;
+
+		/**
+		 * Constructor for a Cursor object
+		 * @param last the last hit of the page before
+		 * @param hits number of hits, including chunks of files already
+		 * listed, on the pages before
+		 * @param files number of files on the pages before
+		 */
+		Cursor(ScoreDoc last, long hits, long files) {
+			this.doc = last.doc;
+			this.score = last.score;
+			this.hits = hits;
+			this.files = files;
+		}
+
+		/**
+		 * Getter method for the hit to search after
+		 * @return ScoreDoc the last hit of the page before
+		 */
+		ScoreDoc getScoreDoc() {
+			return new ScoreDoc(doc, score);
+		}
+
+		/**
+		 * Getter method for the number of hits on the pages before
+		 * @return long number of hits already gone through
+		 */
+		long getHits() {
+			return hits;
+		}
+
+		/**
+		 * Getter method for the number of files on the pages before
+		 * @return long number of files already listed
+		 */
+		long getFiles() {
+			return files;
+		}
+
+		/**
+		 * Reads a cursor written by toString()
+		 * @param s the cursor as a string
+		 * @return Cursor the cursor
+		 * @throws IllegalArgumentException if the string is not a cursor
+		 */
+		public static Cursor parse(String s) {
+			String[] parts = s.split(SEPARATOR);
+			if(parts.length != NUM_PARTS) {
+				throw(new IllegalArgumentException("Invalid cursor: " + s));
+			}
+			try {
+				ScoreDoc last = new ScoreDoc(Integer.parseInt(parts[0]),
+						Float.intBitsToFloat(
+								Integer.parseUnsignedInt(parts[1], HEX)));
+				return new Cursor(last, Long.parseLong(parts[2]),
+						Long.parseLong(parts[3]));
+			}
+			catch (NumberFormatException e) {
+				throw(new IllegalArgumentException("Invalid cursor: " + s, e));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return doc + SEPARATOR
+					+ Integer.toHexString(Float.floatToIntBits(score))
+					+ SEPARATOR + hits + SEPARATOR + files;
+		}
+	}
+}
@@ -0,0 +1,534 @@
+package indexer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * This class keeps an index open so that many searches, from any number of
+ * threads, can share one reader instead of opening the index per search.
+ * The reader is refreshed when the Indexer commits changes, either by
+ * calling refresh() or by starting a background refresh with
+ * startAutoRefresh(). Searchers handed out by acquire() must be given back
+ * with release(), and the session must be closed when it is no longer used.
+ * A sharded index is opened as one reader over every shard, and searches run
+ * on all shards at once, merging their top hits by score.
+ * @author Eric Gunn
+ *
+ */
+public class SearchSession implements Closeable {
+
+	private static final Set<String> FILENAME_FIELD =
+			Collections.singleton("filename");
+
+	private Directory[] directories;
+	private SearcherManager[] managers;
+	//searches the shards of a sharded index in parallel, null if unsharded
+	private ExecutorService shardSearchers;
+	private ScheduledExecutorService refresher;
+	//whether searches print the files they find
+	private volatile boolean verbose = true;
+
+	/**
+	 * Constructor for a SearchSession object, opens the index, or every shard
+	 * if the index is sharded
+	 * @param indexDir the directory of an existing index
+	 * @throws IOException if the index could not be opened
+	 */
+	public SearchSession(File indexDir) throws IOException {
+		File[] dirs = IndexShards.getShardDirs(indexDir);
+		if(dirs.length == 0) {
+			dirs = new File[] {indexDir};
+		}
+		this.directories = new Directory[dirs.length];
+		this.managers = new SearcherManager[dirs.length];
+		try {
+			for(int i = 0; i < dirs.length; i++) {
+				this.directories[i] = FSDirectory.open(dirs[i].toPath());
+				this.managers[i] = new SearcherManager(this.directories[i],
+						null);
+			}
+		}
+		catch (IOException e) {
+			closeAll();
+			throw e;
+		}
+		if(dirs.length > 1) {
+			this.shardSearchers = Executors.newFixedThreadPool(dirs.length,
+					r -> {
+						Thread t = new Thread(r, "search-session-shard");
+						t.setDaemon(true);
+						return t;
+					});
+		}
+	}
+	
+	/**
+	 * Getter method for the number of shards searched
+	 * @return int the number of shards, 1 if the index is not sharded
+	 */
+	public int getNumShards() {
+		return this.managers.length;
+	}
+
+	/**
+	 * Gets a searcher over the most recently refreshed reader. Every
+	 * searcher acquired must be released with release()
+	 * @return IndexSearcher searcher to be used for searching
+	 * @throws IOException if the session was closed
+	 */
+	public IndexSearcher acquire() throws IOException {
+		if(this.managers.length == 1) {
+			return this.managers[0].acquire();
+		}
+		IndexSearcher[] shards = new IndexSearcher[this.managers.length];
+		try {
+			IndexReader[] readers = new IndexReader[shards.length];
+			for(int i = 0; i < shards.length; i++) {
+				shards[i] = this.managers[i].acquire();
+				readers[i] = shards[i].getIndexReader();
+			}
+			//the multi reader holds its own reference to every shard reader
+			return new IndexSearcher(new MultiReader(readers, false),
+					this.shardSearchers);
+		}
+		finally {
+			for(int i = 0; i < shards.length && shards[i] != null; i++) {
+				this.managers[i].release(shards[i]);
+			}
+		}
+	}
+
+	/**
+	 * Gives back a searcher acquired with acquire(). The searcher must not be
+	 * used afterwards
+	 * @param searcher searcher to be released
+	 * @throws IOException if the underlying reader could not be closed
+	 */
+	public void release(IndexSearcher searcher) throws IOException {
+		if(this.managers.length == 1) {
+			this.managers[0].release(searcher);
+		}
+		else {
+			searcher.getIndexReader().close();
+		}
+	}
+
+	/**
+	 * Gets the version of the index as last refreshed. The version grows
+	 * every time a change to the index, or to any shard, is committed and
+	 * refreshed
+	 * @return long the version of the reader searches currently use
+	 * @throws IOException if the session was closed
+	 */
+	public long getVersion() throws IOException {
+		long version = 0;
+		for(SearcherManager manager : this.managers) {
+			IndexSearcher searcher = manager.acquire();
+			try {
+				version += ((DirectoryReader) searcher.getIndexReader())
+						.getVersion();
+			}
+			finally {
+				manager.release(searcher);
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * Reopens the reader if the index has changed since it was last opened.
+	 * Searches already running keep using the old reader
+	 * @return boolean true if the reader is now current
+	 * @throws IOException if the index could not be reopened
+	 */
+	public boolean refresh() throws IOException {
+		boolean current = true;
+		for(SearcherManager manager : this.managers) {
+			current = manager.maybeRefresh() && current;
+		}
+		return current;
+	}
+
+	/**
+	 * Starts a background thread that refreshes the reader at a fixed
+	 * interval, so searches see commits from the Indexer without the caller
+	 * having to call refresh()
+	 * @param intervalMillis time between refreshes in milliseconds
+	 */
+	public synchronized void startAutoRefresh(long intervalMillis) {
+		if(this.refresher != null) {
+			return;
+		}
+		this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "search-session-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		this.refresher.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Setter method for whether searches print the files they find. Servers
+	 * searching from many threads turn this off, since every print waits
+	 * on the console
+	 * @param verbose true to print the files found, the default
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Getter method for whether searches print the files they find
+	 * @return boolean true if the files found are printed
+	 */
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	/**
+	 * Runs a query and collects the file names of the top hits. A file split
+	 * into chunk documents is listed once, at the rank of its best chunk
+	 * @param query the query to be run
+	 * @param maxHits the max number of files to return
+	 * @return String[] a list of canonical file paths of the files found
+	 * @throws IOException if the index could not be searched
+	 */
+	public String[] search(Query query, int maxHits) throws IOException {
+		IndexSearcher searcher = acquire();
+		try {
+			LinkedHashSet<String> filenames = new LinkedHashSet<String>();
+			int numDocs = maxHits;
+			long totalHits = 0;
+			while(true) {
+				long start = IndexMetrics.start();
+				TopDocs topDocs = searcher.search(query, numDocs);
+				IndexMetrics.record(IndexMetrics.Stage.QUERY, start);
+				totalHits = topDocs.totalHits;
+				ScoreDoc[] hits = topDocs.scoreDocs;
+				filenames.clear();
+				for (int i = 0; i < hits.length
+						&& filenames.size() < maxHits; i++) {
+					filenames.add(getFilename(searcher, hits[i].doc));
+				}
+				//search deeper only if chunks of the same file took places
+				if(filenames.size() >= maxHits || hits.length < numDocs
+						|| numDocs > Integer.MAX_VALUE / 2) {
+					break;
+				}
+				numDocs *= 2;
+			}
+			IndexMetrics.count(IndexMetrics.Counter.QUERY_HITS, totalHits);
+
+			//print which files are found
+			if(verbose) {
+				for(String filename : filenames) {
+					System.out.println(filename);
+				}
+			}
+			return filenames.toArray(new String[filenames.size()]);
+		}
+		finally {
+			release(searcher);
+		}
+	}
+	/**
+	 * Runs a query and collects one page of the files of the top hits, with
+	 * their scores. The page starts after the cursor, so a deep page only
+	 * searches for as many hits as fit on it. A file split into chunk
+	 * documents is listed once per page
+	 * @param query the query to be run
+	 * @param pageSize the max number of files on the page
+	 * @param after cursor from the page before, or null for the first page
+	 * @return SearchPage the files found, in rank order
+	 * @throws IOException if the index could not be searched
+	 */
+	public SearchPage search(Query query, int pageSize, SearchPage.Cursor after)
+			throws IOException {
+		if(pageSize < 1) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 1."));
+		}
+		IndexSearcher searcher = acquire();
+		try {
+			LinkedHashSet<String> filenames = new LinkedHashSet<String>();
+			float[] scores = new float[pageSize];
+			ScoreDoc last = after == null ? null : after.getScoreDoc();
+			long hitsBefore = after == null ? 0 : after.getHits();
+			long filesBefore = after == null ? 0 : after.getFiles();
+			long totalHits = 0;
+			long consumed = 0;
+			boolean exhausted = false;
+			while(filenames.size() < pageSize && !exhausted) {
+				long start = IndexMetrics.start();
+				TopDocs topDocs = last == null
+						? searcher.search(query, pageSize)
+						: searcher.searchAfter(last, query, pageSize);
+				IndexMetrics.record(IndexMetrics.Stage.QUERY, start);
+				totalHits = topDocs.totalHits;
+				ScoreDoc[] hits = topDocs.scoreDocs;
+				for(int i = 0; i < hits.length
+						&& filenames.size() < pageSize; i++) {
+					last = hits[i];
+					consumed++;
+					if(filenames.add(getFilename(searcher, hits[i].doc))) {
+						scores[filenames.size() - 1] = hits[i].score;
+					}
+				}
+				exhausted = hits.length < pageSize;
+			}
+
+			//print which files are found
+			if(verbose) {
+				for(String filename : filenames) {
+					System.out.println(filename);
+				}
+			}
+			IndexMetrics.count(IndexMetrics.Counter.QUERY_HITS, totalHits);
+			long hitsAfter = hitsBefore + consumed;
+			SearchPage.Cursor next = hitsAfter < totalHits && last != null
+					? new SearchPage.Cursor(last, hitsAfter,
+							filesBefore + filenames.size())
+					: null;
+			return new SearchPage(
+					filenames.toArray(new String[filenames.size()]),
+					Arrays.copyOf(scores, filenames.size()), totalHits,
+					filesBefore, next);
+		}
+		finally {
+			release(searcher);
+		}
+	}
+
+	/**
+	 * Counts the files matching a query without collecting or loading any
+	 * document. A file split into chunk documents is counted once
+	 * @param query the query to be run
+	 * @return long number of files matching the query
+	 * @throws IOException if the index could not be searched
+	 */
+	public long count(Query query) throws IOException {
+		IndexSearcher searcher = acquire();
+		try {
+			long start = IndexMetrics.start();
+			FileCountCollector collector = new FileCountCollector();
+			searcher.search(query, collector);
+			IndexMetrics.record(IndexMetrics.Stage.QUERY, start);
+			IndexMetrics.count(IndexMetrics.Counter.QUERY_HITS,
+					collector.getHits());
+			return collector.getCount();
+		}
+		finally {
+			release(searcher);
+		}
+	}
+
+	/**
+	 * Checks whether any file matches a query, stopping at the first match
+	 * @param query the query to be run
+	 * @return boolean true if at least one file matches
+	 * @throws IOException if the index could not be searched
+	 */
+	public boolean exists(Query query) throws IOException {
+		IndexSearcher searcher = acquire();
+		try {
+			long start = IndexMetrics.start();
+			ExistsCollector collector = new ExistsCollector();
+			searcher.search(query, collector);
+			IndexMetrics.record(IndexMetrics.Stage.QUERY, start);
+			return collector.found;
+		}
+		finally {
+			release(searcher);
+		}
+	}
+
+	/**
+	 * Helper method that finds the file name of a hit. Documents indexed
+	 * with a filename doc value are resolved by a column lookup; older ones
+	 * load the file name, and not the other stored fields
+	 * @param searcher the searcher that found the hit
+	 * @param docId the document number of the hit
+	 * @return String the canonical file path of the document
+	 * @throws IOException if the index could not be read
+	 */
+	private static String getFilename(IndexSearcher searcher, int docId)
+			throws IOException {
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId,
+				leaves));
+		SortedDocValues filenames = leaf.reader().getSortedDocValues(
+				"filename");
+		if(filenames != null && filenames.advanceExact(docId - leaf.docBase)) {
+			return filenames.binaryValue().utf8ToString();
+		}
+		long start = IndexMetrics.start();
+		Document d = searcher.doc(docId, FILENAME_FIELD);
+		IndexMetrics.record(IndexMetrics.Stage.STORED_FIELDS, start);
+		return d.get("filename");
+	}
+
+	/**
+	 * Checks whether any document in the index has terms in the given field
+	 * @param field name of the field
+	 * @return boolean true if the field was indexed
+	 * @throws IOException if the index could not be read
+	 */
+	public boolean hasField(String field) throws IOException {
+		IndexSearcher searcher = acquire();
+		try {
+			return MultiFields.getTerms(searcher.getIndexReader(), field)
+					!= null;
+		}
+		finally {
+			release(searcher);
+		}
+	}
+
+	/**
+	 * Stops any background refresh and closes the index. All acquired
+	 * searchers should be released before the session is closed
+	 * @throws IOException if the index could not be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.refresher != null) {
+			this.refresher.shutdownNow();
+			this.refresher = null;
+		}
+		if(this.shardSearchers != null) {
+			this.shardSearchers.shutdown();
+		}
+		closeAll();
+	}
+	
+	/**
+	 * Helper method that closes every manager and directory that was opened
+	 * @throws IOException if an index could not be closed
+	 */
+	private void closeAll() throws IOException {
+		for(int i = 0; i < this.managers.length; i++) {
+			if(this.managers[i] != null) {
+				this.managers[i].close();
+			}
+			if(this.directories[i] != null) {
+				this.directories[i].close();
+			}
+		}
+	}
+
+	/**
+	 * Counts matching files without scoring. Documents that are not chunks
+	 * each stand for one file; the chunks of a file are counted once by
+	 * their file name
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class FileCountCollector extends SimpleCollector {
+
+		private long hits;
+		private long files;
+		private Set<String> chunkedFiles = new HashSet<String>();
+		private NumericDocValues chunks;
+		private SortedDocValues filenames;
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context)
+				throws IOException {
+			this.chunks = context.reader().getNumericDocValues(
+					Indexer.CHUNK_FIELD);
+			this.filenames = context.reader().getSortedDocValues("filename");
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			hits++;
+			if(chunks != null && chunks.advanceExact(doc)
+					&& filenames != null && filenames.advanceExact(doc)) {
+				chunkedFiles.add(filenames.binaryValue().utf8ToString());
+			}
+			else {
+				files++;
+			}
+		}
+
+		@Override
+		public boolean needsScores() {
+			return false;
+		}
+
+		long getHits() {
+			return hits;
+		}
+
+		long getCount() {
+			return files + chunkedFiles.size();
+		}
+	}
+
+	/**
+	 * Stops collecting at the first matching document, and skips every
+	 * segment after it
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class ExistsCollector extends SimpleCollector {
+
+		private boolean found;
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context)
+				throws IOException {
+			if(found) {
+				throw new CollectionTerminatedException();
+			}
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			found = true;
+			throw new CollectionTerminatedException();
+		}
+
+		@Override
+		public boolean needsScores() {
+			return false;
+		}
+	}
+}
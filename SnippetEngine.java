@@ -0,0 +1,597 @@
+package indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * This class builds the results of a search, the same buffers and line
+ * numbers a TextBuffer finds, using what the index already holds instead of
+ * reading every hit file from the start. If contents were stored, the buffer
+ * is cut from the stored text. If not, and the index has n-grams with
+ * offsets, the offset of the first word containing the query and the line
+ * offset table of the document give the line of the query, and only the
+ * lines of the buffer are read from the file.
+ * A large file split into chunk documents is searched chunk by chunk, in
+ * the order of its lines, and the buffer is read from the file starting at
+ * the line the chunk offsets give, so it can span two chunks.
+ * Files that cannot be handled either way, or whose lines also break at
+ * U+0085, U+2028 or U+2029, are read with a TextBuffer.
+ * @author Eric Gunn
+ *
+ */
+public class SnippetEngine {
+
+	private static final int DOUBLE = 2;
+	private static final Set<String> SNIPPET_FIELDS = new HashSet<String>(
+			Arrays.asList("contents", LineOffsets.FIELD, Indexer.CHUNK_FIELD,
+					Indexer.CHUNK_LINE_FIELD, Indexer.CHARSET_FIELD));
+
+	private SearchSession session;
+	//whether files read from the start are memory-mapped
+	private boolean memoryMapping = false;
+
+	/**
+	 * Constructor for a SnippetEngine object
+	 * @param session the search session holding the open index
+	 */
+	public SnippetEngine(SearchSession session) {
+		this.session = session;
+	}
+
+	/**
+	 * Sets whether files that have to be read from the start are searched
+	 * through a MappedTextBuffer. Results are the same either way
+	 * @param memoryMapping true to memory-map the files read
+	 */
+	public void setMemoryMapping(boolean memoryMapping) {
+		this.memoryMapping = memoryMapping;
+	}
+
+	/**
+	 * Creates a ResultStruct object given a list of canonical file paths,
+	 * a size for the buffer to be returned, and the string to be searched for
+	 * @param filenames canonical file paths of indexed files
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results
+	 * @param queryString the text to be searched for
+	 * @return ResultStruct an object containing details of a search
+	 * @throws IOException if the index could not be read
+	 */
+	public ResultStruct getResultStruct(String[] filenames,
+			int halfBufferSize, String queryString) throws IOException {
+		if(halfBufferSize < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0. Passing in 0 will return the single line"
+					+ " of the queried string."));
+		}
+		String[] buffers = new String[filenames.length];
+		int[] startLines = new int[filenames.length];
+		int[] endLines = new int[filenames.length];
+		int[] queryLines = new int[filenames.length];
+
+		String parentPath = "";
+
+		IndexSearcher searcher = session.acquire();
+		try {
+			Matcher matcher = new Matcher(searcher, queryString);
+			for(int i = 0; i < filenames.length; i++) {
+				parentPath = new File(filenames[i]).getParent();
+				TextBuffer buff = TextBuffer.create(halfBufferSize,
+						memoryMapping);
+				buffers[i] = getBuffer(matcher, filenames[i], buff,
+						halfBufferSize, queryString);
+				startLines[i] = buff.getStartLine();
+				endLines[i] = buff.getEndLine();
+				queryLines[i] = buff.getQueryLine();
+			}
+		}
+		finally {
+			session.release(searcher);
+		}
+
+		//assume .txt extension
+		return new ResultStruct(filenames, buffers, startLines, endLines,
+				queryLines, ".txt", parentPath, queryString);
+	}
+
+	/**
+	 * Creates a ResultStruct object for the files found by a parsed query,
+	 * with every word the query looks for highlighted. Buffers are cut from
+	 * the stored contents where they were stored, and read from the files
+	 * otherwise
+	 * @param filenames canonical file paths of indexed files
+	 * @param halfBufferSize number of lines above and below the first line
+	 * containing a word of the query that will be returned in the results
+	 * @param queryString the query as it was written
+	 * @param query the query parsed by IndexQueryParser
+	 * @return ResultStruct an object containing details of a search
+	 * @throws IOException if the index could not be read
+	 */
+	public ResultStruct getResultStruct(String[] filenames,
+			int halfBufferSize, String queryString, Query query)
+					throws IOException {
+		if(halfBufferSize < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0. Passing in 0 will return the single line"
+					+ " of the queried string."));
+		}
+		String[] buffers = new String[filenames.length];
+		int[] startLines = new int[filenames.length];
+		int[] endLines = new int[filenames.length];
+		int[] queryLines = new int[filenames.length];
+
+		String parentPath = "";
+
+		IndexSearcher searcher = session.acquire();
+		try {
+			List<String> terms = IndexQueryParser.getHighlightTerms(query,
+					searcher);
+			Matcher matcher = new Matcher(searcher, queryString);
+			for(int i = 0; i < filenames.length; i++) {
+				parentPath = new File(filenames[i]).getParent();
+				TextBuffer buff = new TextBuffer(halfBufferSize);
+				String contents = null;
+				if(matcher.findDocument(filenames[i])) {
+					Document d = matcher.getStoredFields();
+					//chunks only store part of the file
+					if(d.getField(Indexer.CHUNK_FIELD) == null) {
+						contents = d.get("contents");
+					}
+				}
+				buffers[i] = contents != null ? buff.getBuffer(contents, terms)
+						: buff.getBuffer(new File(filenames[i]), terms);
+				startLines[i] = buff.getStartLine();
+				endLines[i] = buff.getEndLine();
+				queryLines[i] = buff.getQueryLine();
+			}
+		}
+		finally {
+			session.release(searcher);
+		}
+
+		//assume .txt extension
+		return new ResultStruct(filenames, buffers, startLines, endLines,
+				queryLines, ".txt", parentPath, queryString);
+	}
+
+	/**
+	 * Creates a HashMap given a list of canonical file paths, a size
+	 * for the buffer to be returned, and the string to be searched for
+	 * @param filenames canonical file paths of indexed files
+	 * @param halfBufferSize number of lines above and below the line
+	 * containing the query string that will be returned in the results
+	 * @param queryString the text to be searched for
+	 * @return HashMap pairs of file names with their buffers
+	 * @throws IOException if the index could not be read
+	 */
+	public HashMap<String, String> getResults(String[] filenames,
+			int halfBufferSize, String queryString) throws IOException {
+		if(halfBufferSize < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0. Passing in 0 will return the single line"
+					+ " of the queried string."));
+		}
+		HashMap<String, String> results =
+				new HashMap<String, String>(filenames.length * DOUBLE);
+
+		IndexSearcher searcher = session.acquire();
+		try {
+			Matcher matcher = new Matcher(searcher, queryString);
+			for(String filename : filenames) {
+				TextBuffer buff = TextBuffer.create(halfBufferSize,
+						memoryMapping);
+				results.put(new File(filename).getName(), getBuffer(matcher,
+						filename, buff, halfBufferSize, queryString));
+			}
+		}
+		finally {
+			session.release(searcher);
+		}
+		return results;
+	}
+
+	/**
+	 * Helper method that fills a TextBuffer for a single file, using the
+	 * index where it can
+	 * @param matcher finds documents and match offsets in the index
+	 * @param filename canonical file path of the file
+	 * @param buff the TextBuffer to be filled
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @param queryString the text to be searched for
+	 * @return String the block of text that wraps the query string
+	 * @throws IOException if the index could not be read
+	 */
+	private String getBuffer(Matcher matcher, String filename,
+			TextBuffer buff, int halfBufferSize, String queryString)
+					throws IOException {
+		File f = new File(filename);
+		if(!matcher.findDocument(filename)) {
+			return buff.getBuffer(f, queryString);
+		}
+		Document d = matcher.getStoredFields();
+		if(d.getField(Indexer.CHUNK_FIELD) != null) {
+			return getChunkBuffer(matcher, f, buff, halfBufferSize,
+					queryString);
+		}
+
+		//cut the buffer from the stored contents
+		String contents = d.get("contents");
+		if(contents != null) {
+			return buff.getBuffer(contents, queryString);
+		}
+
+		//read only the lines of the buffer from the file
+		BytesRef offsets = d.getBinaryValue(LineOffsets.FIELD);
+		int offset = matcher.getFirstOffset();
+		if(offsets == null || offset < 0) {
+			return buff.getBuffer(f, queryString);
+		}
+		//a file recording only some lines is read from the recorded line
+		//before the buffer, the lines in between do not contain the query
+		LineOffsets lineOffsets = new LineOffsets(offsets);
+		if(lineOffsets.hasOtherLineBreaks()) {
+			return buff.getBuffer(f, queryString);
+		}
+		int firstLine = lineOffsets.getRecordedLine(Math.max(1,
+				lineOffsets.getLine(offset) - halfBufferSize));
+		return readBuffer(f, buff, queryString, firstLine,
+				lineOffsets.getLineByteStart(firstLine),
+				d.get(Indexer.CHARSET_FIELD));
+	}
+
+	/**
+	 * Helper method that fills a TextBuffer for a file split into chunk
+	 * documents. The first chunk containing the query gives the query line,
+	 * and the chunk holding the first line of the buffer gives where to
+	 * start reading the file
+	 * @param matcher matcher whose documents are the chunks of the file
+	 * @param f the file
+	 * @param buff the TextBuffer to be filled
+	 * @param halfBufferSize number of lines above and below the query line
+	 * @param queryString the text to be searched for
+	 * @return String the block of text that wraps the query string
+	 * @throws IOException if the index could not be read
+	 */
+	private String getChunkBuffer(Matcher matcher, File f, TextBuffer buff,
+			int halfBufferSize, String queryString) throws IOException {
+		String query = queryString.toLowerCase();
+		int numChunks = matcher.getNumDocuments();
+		Document[] chunks = new Document[numChunks];
+		LineOffsets[] lineOffsets = new LineOffsets[numChunks];
+		Integer[] order = new Integer[numChunks];
+		for(int i = 0; i < numChunks; i++) {
+			matcher.selectDocument(i);
+			chunks[i] = matcher.getStoredFields();
+			BytesRef offsets = chunks[i].getBinaryValue(LineOffsets.FIELD);
+			if(offsets == null) {
+				return buff.getBuffer(f, queryString);
+			}
+			lineOffsets[i] = new LineOffsets(offsets);
+			//later chunks would start at the wrong line as well
+			if(lineOffsets[i].hasOtherLineBreaks()) {
+				return buff.getBuffer(f, queryString);
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(getChunkLine(chunks[a]),
+				getChunkLine(chunks[b])));
+
+		for(int i = 0; i < numChunks; i++) {
+			int chunk = order[i];
+			int line;
+			String contents = chunks[chunk].get("contents");
+			if(contents != null) {
+				line = findLine(contents, lineOffsets[chunk], query);
+			}
+			else {
+				matcher.selectDocument(chunk);
+				//the file is read from the start if offsets cannot be used
+				if(!matcher.canLocate()) {
+					break;
+				}
+				int offset = matcher.getFirstOffset();
+				line = offset < 0 ? -1 : lineOffsets[chunk].getLine(offset);
+			}
+			if(line < 1) {
+				continue;
+			}
+			int queryLine = getChunkLine(chunks[chunk]) - 1 + line;
+			int firstLine = Math.max(1, queryLine - halfBufferSize);
+			//the first line of the buffer may be in an earlier chunk
+			int j = i;
+			while(j > 0 && getChunkLine(chunks[order[j]]) > firstLine) {
+				j--;
+			}
+			int start = getChunkLine(chunks[order[j]]);
+			return readBuffer(f, buff, queryString, firstLine,
+					lineOffsets[order[j]].getLineByteStart(
+							firstLine - start + 1),
+					chunks[order[j]].get(Indexer.CHARSET_FIELD));
+		}
+		return buff.getBuffer(f, queryString);
+	}
+
+	/**
+	 * Helper method that fills a TextBuffer reading a file from a line
+	 * @param f the file
+	 * @param buff the TextBuffer to be filled
+	 * @param queryString the text to be searched for
+	 * @param firstLine the line to start reading at, starting from 1
+	 * @param byteStart byte offset of the line in the file
+	 * @param charsetName charset the file was indexed with, or null if the
+	 * index did not store it
+	 * @return String the block of text that wraps the query string
+	 * @throws IOException if the file could not be opened
+	 */
+	private static String readBuffer(File f, TextBuffer buff,
+			String queryString, int firstLine, long byteStart,
+			String charsetName) throws IOException {
+		Charset charset = FileEncoding.forName(charsetName);
+		if(charset == null) {
+			charset = FileEncoding.detect(f).getCharset();
+		}
+		return buff.getBuffer(new Scanner(FileEncoding.openReader(f, charset,
+				byteStart)), queryString, firstLine - 1);
+	}
+
+	/**
+	 * Helper method that finds the first line of stored chunk contents
+	 * containing the query
+	 * @param contents stored contents of the chunk
+	 * @param lineOffsets line offsets of the chunk
+	 * @param query lowercase query
+	 * @return int line number in the chunk, starting from 1, or -1 if no
+	 * line contains the query
+	 */
+	private static int findLine(String contents, LineOffsets lineOffsets,
+			String query) {
+		int numLines = lineOffsets.getNumLines();
+		for(int line = 1; line <= numLines; line++) {
+			int end = line < numLines ? lineOffsets.getLineStart(line + 1)
+					: contents.length();
+			String s = contents.substring(lineOffsets.getLineStart(line), end);
+			if(s.toLowerCase().contains(query)) {
+				return line;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Getter method for the line a chunk document starts at
+	 * @param d stored fields of the chunk
+	 * @return int line number in the file, starting from 1
+	 */
+	private static int getChunkLine(Document d) {
+		return d.getField(Indexer.CHUNK_LINE_FIELD).numericValue().intValue();
+	}
+
+	/**
+	 * Finds the document of a file and where the query first matches in it.
+	 * The word the query first matches in is found from the positions and
+	 * offsets of the n-grams of the query, so no list of the words that
+	 * contain the query is needed
+	 * @author Eric Gunn
+	 *
+	 */
+	private static class Matcher {
+
+		private IndexSearcher searcher;
+		//n-grams of the query in order, null if it is not locatable
+		private BytesRef[] grams;
+
+		private List<LeafReaderContext> leaves;
+		private List<Integer> docs;
+		private LeafReaderContext leaf;
+		private int doc;
+
+		/**
+		 * Constructor for a Matcher object
+		 * @param searcher searcher over the index
+		 * @param queryString the text to be searched for
+		 */
+		Matcher(IndexSearcher searcher, String queryString) {
+			String query = queryString.toLowerCase();
+			this.searcher = searcher;
+			this.leaves = new ArrayList<LeafReaderContext>();
+			this.docs = new ArrayList<Integer>();
+			if(isLocatable(query)) {
+				int numGrams = query.length() - SubstringAnalyzer.GRAM_SIZE + 1;
+				this.grams = new BytesRef[numGrams];
+				for(int i = 0; i < numGrams; i++) {
+					grams[i] = new BytesRef(query.substring(i,
+							i + SubstringAnalyzer.GRAM_SIZE));
+				}
+			}
+		}
+
+		/**
+		 * Checks whether the first line containing the query is always the
+		 * line of the first indexed word containing it. This holds if the
+		 * query is only letters and digits, which the tokenizer never
+		 * splits, and is not part of a stop word, which is never indexed.
+		 * Queries shorter than an n-gram are not looked up either, since
+		 * only a scan of the n-grams could find the words containing them
+		 * @param query lowercase query
+		 * @return boolean true if match offsets give the query line
+		 */
+		private static boolean isLocatable(String query) {
+			if(query.length() < SubstringAnalyzer.GRAM_SIZE) {
+				return false;
+			}
+			for(int i = 0; i < query.length(); i++) {
+				if(!Character.isLetterOrDigit(query.charAt(i))) {
+					return false;
+				}
+			}
+			for(Object stopWord : SubstringAnalyzer.STOP_WORDS) {
+				if(new String((char[]) stopWord).contains(query)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Finds the live documents of a file, one unless the file was split
+		 * into chunks, and selects the first of them
+		 * @param filename canonical file path of the file
+		 * @return boolean true if the file is in the index
+		 * @throws IOException if the index could not be read
+		 */
+		boolean findDocument(String filename) throws IOException {
+			leaves.clear();
+			docs.clear();
+			BytesRef term = new BytesRef(filename);
+			for(LeafReaderContext context : searcher.getIndexReader().leaves()) {
+				LeafReader reader = context.reader();
+				Terms terms = reader.terms("filename");
+				if(terms == null) {
+					continue;
+				}
+				TermsEnum termsEnum = terms.iterator();
+				if(!termsEnum.seekExact(term)) {
+					continue;
+				}
+				Bits liveDocs = reader.getLiveDocs();
+				PostingsEnum postings = termsEnum.postings(null,
+						PostingsEnum.NONE);
+				for(int d = postings.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS;
+						d = postings.nextDoc()) {
+					if(liveDocs == null || liveDocs.get(d)) {
+						leaves.add(context);
+						docs.add(d);
+					}
+				}
+			}
+			if(docs.isEmpty()) {
+				return false;
+			}
+			selectDocument(0);
+			return true;
+		}
+
+		/**
+		 * Getter method for the number of documents found by findDocument()
+		 * @return int number of documents of the file
+		 */
+		int getNumDocuments() {
+			return docs.size();
+		}
+
+		/**
+		 * Selects which of the documents found by findDocument() the other
+		 * methods read
+		 * @param i index of the document, from 0 to getNumDocuments() - 1
+		 */
+		void selectDocument(int i) {
+			this.leaf = leaves.get(i);
+			this.doc = docs.get(i);
+		}
+
+		/**
+		 * Checks whether getFirstOffset() can find the query line in the
+		 * selected document, so that -1 from it means there is no match
+		 * @return boolean false if the query is not locatable or the
+		 * segment has no n-gram offsets
+		 */
+		boolean canLocate() {
+			if(grams == null) {
+				return false;
+			}
+			FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(
+					SubstringAnalyzer.FIELD);
+			return info != null && info.getIndexOptions().compareTo(
+					IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
+		}
+
+		/**
+		 * Loads the stored contents, line offsets and chunk fields of the
+		 * selected document
+		 * @return Document the stored fields used for buffers
+		 * @throws IOException if the index could not be read
+		 */
+		Document getStoredFields() throws IOException {
+			long start = IndexMetrics.start();
+			Document d = leaf.reader().document(doc, SNIPPET_FIELDS);
+			IndexMetrics.record(IndexMetrics.Stage.STORED_FIELDS, start);
+			return d;
+		}
+
+		/**
+		 * Finds the character offset of the first word containing the query
+		 * in the selected document. That is the first position of the first
+		 * n-gram of the query that the other n-grams follow one position
+		 * apart, since n-grams of two words are never next to each other
+		 * @return int the offset, or -1 if it cannot be used to find the
+		 * query line
+		 * @throws IOException if the index could not be read
+		 */
+		int getFirstOffset() throws IOException {
+			if(!canLocate()) {
+				return -1;
+			}
+			Terms terms = leaf.reader().terms(SubstringAnalyzer.FIELD);
+			if(terms == null) {
+				return -1;
+			}
+			TermsEnum termsEnum = terms.iterator();
+			int[][] positions = new int[grams.length][];
+			int[] offsets = null;
+			for(int i = 0; i < grams.length; i++) {
+				if(!termsEnum.seekExact(grams[i])) {
+					return -1;
+				}
+				PostingsEnum postings = termsEnum.postings(null,
+						i == 0 ? PostingsEnum.OFFSETS : PostingsEnum.POSITIONS);
+				if(postings.advance(doc) != doc) {
+					return -1;
+				}
+				positions[i] = new int[postings.freq()];
+				if(i == 0) {
+					offsets = new int[positions[i].length];
+				}
+				for(int j = 0; j < positions[i].length; j++) {
+					positions[i][j] = postings.nextPosition();
+					if(i == 0) {
+						offsets[j] = postings.startOffset();
+					}
+				}
+			}
+			//positions and offsets both grow, so the first match is first
+			for(int j = 0; j < positions[0].length; j++) {
+				int i = 1;
+				while(i < grams.length && Arrays.binarySearch(positions[i],
+						positions[0][j] + i) >= 0) {
+					i++;
+				}
+				if(i == grams.length) {
+					return offsets[j];
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -1,11 +1,62 @@
 package indexer;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 public class StandardSearcher {
 	
-	public StandardSearcher() {}
+	//number of files scanned at once, 1 scans on the calling thread
+	private int parallelism;
+	//lists the files to search, null lists the top directory by extension
+	private FileCrawler crawler;
+	//whether files are memory-mapped instead of read through a Scanner
+	private boolean memoryMapping = false;
+	
+	public StandardSearcher() {
+		this.parallelism = 1;
+	}
+	
+	/**
+	 * Constructor for a StandardSearcher object that scans files in parallel.
+	 * Results are the same, in the same order, as scanning one at a time
+	 * @param parallelism number of files scanned at once
+	 */
+	public StandardSearcher(int parallelism) {
+		if(parallelism < 1) {
+			throw(new IllegalArgumentException("Parallelism must be greater"
+					+ " or equal to 1."));
+		}
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Sets the crawler that lists the files to be searched, for searching
+	 * subdirectories or picking files by glob patterns. Files in
+	 * subdirectories are named by their path relative to the directory
+	 * searched. The extension given to a search is then only used to label
+	 * the results
+	 * @param crawler the crawler, or null to search the files of the
+	 * directory itself
+	 */
+	public void setCrawler(FileCrawler crawler) {
+		this.crawler = crawler;
+	}
+	
+	/**
+	 * Sets whether files are searched through a MappedTextBuffer, which
+	 * memory-maps each file and matches its bytes instead of decoding every
+	 * line. Results are the same either way
+	 * @param memoryMapping true to memory-map the files searched
+	 */
+	public void setMemoryMapping(boolean memoryMapping) {
+		this.memoryMapping = memoryMapping;
+	}
 	
 	/**
 	 * Gets results of a search for the existence of the given query string
@@ -27,15 +78,21 @@ public class StandardSearcher {
 					+ " equal to 0. Passing in 0 will return the single line"
 					+ " of the queried string."));
 		}
-		File[] files = Indexer.FileRetriever.retrieveFiles(extension,
-				directory);
+		File[] files = listFiles(extension, directory);
+		
+		String[] buffers = new String[files.length];
+		
+		forEachFile(files.length, i -> {
+			TextBuffer buff = TextBuffer.create(halfBufferSize,
+					memoryMapping);
+			buffers[i] = buff.getBuffer(files[i], queryString);
+		});
 		
 		HashMap<String, String> results =
 				new HashMap<String, String>(files.length * 2);
 		
-		for(File f : files) {
-			TextBuffer buff = new TextBuffer(halfBufferSize);
-			results.put(f.getName(), buff.getBuffer(f,  queryString));
+		for(int i = 0; i < files.length; i++) {
+			results.put(getName(directory, files[i]), buffers[i]);
 		}
 		
 		return results;
@@ -61,25 +118,22 @@ public class StandardSearcher {
 					+ " equal to 0. Passing in 0 will return the single line"
 					+ " of the queried string."));
 		}
-		File[] files = Indexer.FileRetriever.retrieveFiles(extension,
-				directory);
+		File[] files = listFiles(extension, directory);
 		String[] fileNames = new String[files.length];
 		String[] buffers = new String[files.length];
 		int[] startLines = new int[files.length];
 		int[] endLines = new int[files.length];
 		int[] queryLines = new int[files.length];
 		
-		int count = 0;
-		
-		for(File f : files) {
-			TextBuffer buff = new TextBuffer(halfBufferSize);
-			fileNames[count] = f.getName();
-			buffers[count] = buff.getBuffer(f, queryString);
-			startLines[count] = buff.getStartLine();
-			endLines[count] = buff.getEndLine();
-			queryLines[count] = buff.getQueryLine();
-			count++;
-		}
+		forEachFile(files.length, i -> {
+			TextBuffer buff = TextBuffer.create(halfBufferSize,
+					memoryMapping);
+			fileNames[i] = getName(directory, files[i]);
+			buffers[i] = buff.getBuffer(files[i], queryString);
+			startLines[i] = buff.getStartLine();
+			endLines[i] = buff.getEndLine();
+			queryLines[i] = buff.getQueryLine();
+		});
 		
 		ResultStruct results =
 				new ResultStruct(fileNames, buffers, startLines, endLines,
@@ -87,4 +141,110 @@ public class StandardSearcher {
 		
 		return results;
 	}
+	
+	/**
+	 * Gets results of a search for every occurrence of the given query
+	 * string in the form of our custom structure defined in ResultStruct.java.
+	 * Each file is read once no matter how many hits it has
+	 * @param extension the file extension for files to be searched
+	 * @param directory the file directory to search in
+	 * @param halfBufferSize half the total size of the buffer or total size
+	 * of the text line-wrap on either side (above and below the query string's
+	 * location in the file)
+	 * @param queryString text or string to be searched for
+	 * @param maxHitsPerFile max number of hits to return for each file, 0
+	 * for no limit
+	 * @return ResultStruct a custom struct holding every hit of each file
+	 */
+	public ResultStruct getSearchMultiHitResultStruct(String extension,
+			String directory, int halfBufferSize, String queryString,
+			int maxHitsPerFile) {
+		
+		if(halfBufferSize < 0) {
+			throw(new IllegalArgumentException("Argument must be greater or"
+					+ " equal to 0. Passing in 0 will return the single line"
+					+ " of the queried string."));
+		}
+		File[] files = listFiles(extension, directory);
+		String[] fileNames = new String[files.length];
+		List<List<TextBuffer.Hit>> hits =
+				new ArrayList<List<TextBuffer.Hit>>(files.length);
+		for(int i = 0; i < files.length; i++) {
+			hits.add(null);
+		}
+		
+		forEachFile(files.length, i -> {
+			TextBuffer buff = new TextBuffer(halfBufferSize);
+			fileNames[i] = getName(directory, files[i]);
+			hits.set(i, buff.getHits(files[i], queryString, maxHitsPerFile));
+		});
+		
+		ResultStruct results = new ResultStruct(fileNames, hits, extension,
+				directory, queryString);
+		
+		return results;
+	}
+	
+	/**
+	 * Helper method that lists the files to be searched
+	 * @param extension the file extension for files to be searched
+	 * @param directory the file directory to search in
+	 * @return File[] the files to be searched
+	 */
+	private File[] listFiles(String extension, String directory) {
+		if(crawler != null) {
+			return Indexer.FileRetriever.retrieveFiles(crawler, directory);
+		}
+		return Indexer.FileRetriever.retrieveFiles(extension, directory);
+	}
+	
+	/**
+	 * Helper method that names a file in the results, by its path relative
+	 * to the directory searched so that files of the same name in different
+	 * subdirectories are told apart
+	 * @param directory the file directory searched
+	 * @param f the file
+	 * @return String the file name, or relative path if in a subdirectory
+	 */
+	private static String getName(String directory, File f) {
+		File parent = f.getParentFile();
+		if(parent == null || parent.equals(new File(directory))) {
+			return f.getName();
+		}
+		return new File(directory).toPath().relativize(f.toPath()).toString();
+	}
+	
+	/**
+	 * Helper method that runs a task for each file index, in parallel if
+	 * this searcher was given a parallelism above 1. Each task writes to its
+	 * own index, so results keep the order of the files
+	 * @param numFiles number of files
+	 * @param task the task to run for each index
+	 */
+	private void forEachFile(int numFiles, IntConsumer task) {
+		if(parallelism == 1 || numFiles < 2) {
+			for(int i = 0; i < numFiles; i++) {
+				task.accept(i);
+			}
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> IntStream.range(0, numFiles).parallel()
+					.forEach(task)).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Search was interrupted", e);
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Search failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
 }
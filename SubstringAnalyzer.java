@@ -0,0 +1,184 @@
+package indexer;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.DelegatingAnalyzerWrapper;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+/**
+ * An analyzer that splits text into the same words as the StandardAnalyzer,
+ * then splits each word into n-grams placed at consecutive positions. A gap
+ * of one position is left between words, so a phrase of consecutive n-grams
+ * only matches inside a single word. This lets a substring search become a
+ * few term lookups instead of a wildcard over every word in the index.
+ * Unlike a wildcard search, a substring search has no wildcards, so
+ * queries holding '*' or '?' are rejected rather than matched differently
+ * depending on whether the index has an n-gram field.
+ * @author Eric Gunn
+ *
+ */
+public class SubstringAnalyzer extends Analyzer {
+	
+	public static final String FIELD = "contents_ngram";
+	public static final int GRAM_SIZE = 3;
+	//stop words of the StandardAnalyzer that indexes the contents field
+	public static final CharArraySet STOP_WORDS = getStandardStopWords();
+	
+	public SubstringAnalyzer() {}
+	
+	@Override
+	protected TokenStreamComponents createComponents(String fieldName) {
+		//same chain as StandardAnalyzer so words match the contents field
+		StandardTokenizer src = new StandardTokenizer();
+		TokenStream tok = new LowerCaseFilter(src);
+		tok = new StopFilter(tok, STOP_WORDS);
+		tok = new GramFilter(tok);
+		return new TokenStreamComponents(src, tok);
+	}
+	
+	/**
+	 * Helper method that reads the stop words of a StandardAnalyzer built
+	 * with its defaults, the analyzer the contents field is indexed with
+	 * @return CharArraySet the stop words, which cannot be changed
+	 */
+	private static CharArraySet getStandardStopWords() {
+		StandardAnalyzer standard = new StandardAnalyzer();
+		try {
+			return CharArraySet.unmodifiableSet(standard.getStopwordSet());
+		}
+		finally {
+			standard.close();
+		}
+	}
+	
+	/**
+	 * Wraps an analyzer so that the n-gram field is analyzed by a
+	 * SubstringAnalyzer and every other field by the given analyzer
+	 * @param analyzer analyzer for every field other than the n-gram field
+	 * @return Analyzer analyzer to be given to an IndexWriterConfig
+	 */
+	public static Analyzer wrap(Analyzer analyzer) {
+		SubstringAnalyzer substring = new SubstringAnalyzer();
+		return new DelegatingAnalyzerWrapper(PER_FIELD_REUSE_STRATEGY) {
+			@Override
+			protected Analyzer getWrappedAnalyzer(String fieldName) {
+				return FIELD.equals(fieldName) ? substring : analyzer;
+			}
+		};
+	}
+	
+	/**
+	 * Builds a query that matches documents containing a word that contains
+	 * the given string, the same documents a WildcardQuery of "*query*" on
+	 * the contents field matches. Every document gets the same score
+	 * @param queryStr lowercase string to be searched for
+	 * @return Query query on the n-gram field
+	 * @throws IllegalArgumentException if the string holds a wildcard
+	 */
+	public static Query buildQuery(String queryStr) {
+		checkQuery(queryStr);
+		Query query;
+		if(queryStr.length() < GRAM_SIZE) {
+			//n-grams and short words are few, so a wildcard over them is
+			//cheap no matter how many words the index has
+			query = new WildcardQuery(new Term(FIELD, "*" + queryStr + "*"));
+		}
+		else if(queryStr.length() == GRAM_SIZE) {
+			query = new TermQuery(new Term(FIELD, queryStr));
+		}
+		else {
+			//every n-gram of the query, one position apart
+			PhraseQuery.Builder builder = new PhraseQuery.Builder();
+			for(int i = 0; i + GRAM_SIZE <= queryStr.length(); i++) {
+				builder.add(new Term(FIELD,
+						queryStr.substring(i, i + GRAM_SIZE)), i);
+			}
+			query = builder.build();
+		}
+		return new ConstantScoreQuery(query);
+	}
+	
+	/**
+	 * Checks that a substring query holds no wildcard characters
+	 * @param queryStr string to be searched for
+	 * @throws IllegalArgumentException if the string holds '*' or '?'
+	 */
+	public static void checkQuery(String queryStr) {
+		if(queryStr.indexOf('*') >= 0 || queryStr.indexOf('?') >= 0) {
+			throw(new IllegalArgumentException("Substring searches do not"
+					+ " take wildcards, use a wildcard search for '*' and"
+					+ " '?'."));
+		}
+	}
+	
+	/**
+	 * Token filter that replaces each word with its n-grams. Words shorter
+	 * than an n-gram are kept whole
+	 * @author Eric Gunn
+	 *
+	 */
+	private static final class GramFilter extends TokenFilter {
+		
+		private final CharTermAttribute termAtt =
+				addAttribute(CharTermAttribute.class);
+		private final PositionIncrementAttribute posIncAtt =
+				addAttribute(PositionIncrementAttribute.class);
+		
+		private char[] word = new char[GRAM_SIZE];
+		private int wordLength;
+		private int wordPosInc;
+		private int numGrams;
+		private int nextGram;
+		
+		GramFilter(TokenStream input) {
+			super(input);
+		}
+		
+		@Override
+		public boolean incrementToken() throws IOException {
+			if(nextGram >= numGrams) {
+				if(!input.incrementToken()) {
+					return false;
+				}
+				wordLength = termAtt.length();
+				if(word.length < wordLength) {
+					word = new char[wordLength];
+				}
+				System.arraycopy(termAtt.buffer(), 0, word, 0, wordLength);
+				//one extra position keeps n-grams of two words apart
+				wordPosInc = posIncAtt.getPositionIncrement() + 1;
+				numGrams = wordLength < GRAM_SIZE ? 1
+						: wordLength - GRAM_SIZE + 1;
+				nextGram = 0;
+			}
+			int length = Math.min(GRAM_SIZE, wordLength);
+			termAtt.copyBuffer(word, nextGram, length);
+			posIncAtt.setPositionIncrement(nextGram == 0 ? wordPosInc : 1);
+			nextGram++;
+			return true;
+		}
+		
+		@Override
+		public void reset() throws IOException {
+			super.reset();
+			wordLength = 0;
+			numGrams = 0;
+			nextGram = 0;
+		}
+	}
+}
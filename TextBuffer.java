@@ -1,8 +1,10 @@
 package indexer;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Scanner;
 
@@ -46,6 +48,18 @@ public class TextBuffer {
 		this.halfTotalLines = halfTotalLines;
 	}
 	
+	/**
+	 * Creates a TextBuffer, or a MappedTextBuffer that memory-maps the files
+	 * it searches. Both find the same buffers and line numbers
+	 * @param halfTotalLines half the total size of the buffer
+	 * @param memoryMapping true to create a MappedTextBuffer
+	 * @return TextBuffer the new buffer
+	 */
+	static TextBuffer create(int halfTotalLines, boolean memoryMapping) {
+		return memoryMapping ? new MappedTextBuffer(halfTotalLines)
+				: new TextBuffer(halfTotalLines);
+	}
+	
 	/**
 	 * Gets the block of text in which the search query is found
 	 * @param f file to be searched
@@ -53,87 +67,364 @@ public class TextBuffer {
 	 * @return String the block of text that wraps the query string
 	 */
 	public String getBuffer(File f, String query) {
+		try {
+			return getBuffer(openScanner(f), query, 0);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return "";
+		}
+	}
+	
+	/**
+	 * Gets the block of text in which the search query is found, from text
+	 * that is already in memory such as contents stored in an index
+	 * @param text text to be searched, with lines separated by new lines
+	 * @param query string to be searched for in the given text
+	 * @return String the block of text that wraps the query string
+	 */
+	public String getBuffer(String text, String query) {
+		return getBuffer(new Scanner(text), query, 0);
+	}
+	
+	/**
+	 * Gets the block of text in which the search query is found, reading
+	 * lines from a scanner that may start partway through a file. Closes the
+	 * scanner when done
+	 * @param scanner scanner positioned at the start of a line
+	 * @param query string to be searched for
+	 * @param linesSkipped number of lines of the file before the scanner's
+	 * position, used so line numbers count from the start of the file
+	 * @return String the block of text that wraps the query string
+	 */
+	String getBuffer(Scanner scanner, String query, int linesSkipped) {
+		long start = IndexMetrics.start();
 		//make string lower case for case-insensitive comparisons
 		String lowercaseQuery = query.toLowerCase();
 		String bufferedString = "";
+		int lineNum = linesSkipped;
+		
+		while(scanner.hasNextLine()) {
+			//after first line
+			if(lineNum != linesSkipped) {
+				//store previous line
+				storeLine(this.previousLine);
+			}
+			String line = scanner.nextLine();
+			String lowercaseLine = line.toLowerCase();
+			updatePreviousLine(line);
+			lineNum++;
+			//if we found the first line containing the queried string
+			if(lowercaseLine.contains(lowercaseQuery)) {
+				//store which line the query was in
+				this.queryLine = lineNum;
+				int countAboveLines = 0;
+				//flush the buffer
+				while(!this.previousNLines.isEmpty()) {
+					bufferedString += (this.previousNLines.remove() 
+						+ "\n");
+					countAboveLines++;
+				}
+				
+				this.startLine = this.queryLine - countAboveLines;
+				
+				//cut up line containing query string in order to highlight
+				int index = lowercaseLine.indexOf(lowercaseQuery);
+				String lineBegin = line.substring(0, index);
+				String lineMiddle = line.substring(index,
+						index + query.length());
+				String lineEnd = line.substring(index + query.length());
+				
+				//wrap query with HTML modifiers to highlight it
+				String total = lineBegin + HTML_MODIFIER_START
+						+ lineMiddle + HTML_MODIFIER_END + lineEnd;
+				//add the buffer line
+				bufferedString += (total + "\n");
+				
+				int countBelowLines = 0;
+				
+				//add the remaining halfTotalLines after
+				for(int i = 0; i < this.halfTotalLines; i++) {
+					if(scanner.hasNextLine()) {
+						String line2 = scanner.nextLine();
+						bufferedString += line2;
+						if(i != this.halfTotalLines - 1) {
+							bufferedString += "\n";
+						}
+						countBelowLines++;
+					}
+					//if EOF is reached, stop writing
+					else {
+						//delete last new line character that we added
+						bufferedString = bufferedString.substring(0,
+								bufferedString.length() - 1);
+						break;
+					}
+				}
+				this.endLine = this.queryLine + countBelowLines;
+				//break after the rest of lines are written
+				break;
+			}
+		}
+		scanner.close();
+		IndexMetrics.record(IndexMetrics.Stage.SNIPPET, start);
+		return bufferedString;
+	}
+	
+	/**
+	 * Gets the block of text around the first line that contains any of the
+	 * given words, with every occurrence of every word in the block wrapped
+	 * in HTML modifiers
+	 * @param f file to be searched
+	 * @param terms words to be searched for, such as those of a parsed query
+	 * @return String the block of text that wraps the first matching line,
+	 * empty if no line matches
+	 */
+	public String getBuffer(File f, List<String> terms) {
+		try {
+			return getBuffer(openScanner(f), terms);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return "";
+		}
+	}
+	
+	/**
+	 * Gets the block of text around the first line that contains any of the
+	 * given words, from text that is already in memory
+	 * @param text text to be searched, with lines separated by new lines
+	 * @param terms words to be searched for
+	 * @return String the block of text that wraps the first matching line,
+	 * empty if no line matches
+	 */
+	public String getBuffer(String text, List<String> terms) {
+		return getBuffer(new Scanner(text), terms);
+	}
+	
+	/**
+	 * Helper method that reads lines from a scanner until one contains any
+	 * of the given words, then builds its block. Closes the scanner when done
+	 * @param scanner scanner positioned at the start of the text
+	 * @param terms words to be searched for
+	 * @return String the block of text that wraps the first matching line
+	 */
+	private String getBuffer(Scanner scanner, List<String> terms) {
+		long start = IndexMetrics.start();
+		List<String> lowercaseTerms = new ArrayList<String>(terms.size());
+		for(String term : terms) {
+			if(!term.isEmpty()) {
+				lowercaseTerms.add(term.toLowerCase());
+			}
+		}
+		StringBuilder buffer = new StringBuilder();
+		int lineNum = 0;
+		previousNLines.clear();
+		
+		while(scanner.hasNextLine()) {
+			String line = scanner.nextLine();
+			lineNum++;
+			if(indexOfAny(line.toLowerCase(), lowercaseTerms, 0) == null) {
+				storeLine(line);
+				continue;
+			}
+			//lines above, the matching line, then the lines below
+			int startLine = lineNum - previousNLines.size();
+			while(!previousNLines.isEmpty()) {
+				buffer.append(highlightAll(previousNLines.remove(),
+						lowercaseTerms)).append('\n');
+			}
+			buffer.append(highlightAll(line, lowercaseTerms));
+			int endLine = lineNum;
+			for(int i = 0; i < halfTotalLines && scanner.hasNextLine(); i++) {
+				buffer.append('\n').append(highlightAll(scanner.nextLine(),
+						lowercaseTerms));
+				endLine++;
+			}
+			//a buffer with no lines around it ends with a new line, the
+			//same as the block around a single query
+			if(halfTotalLines == 0) {
+				buffer.append('\n');
+			}
+			setLineNumbers(startLine, lineNum, endLine);
+			break;
+		}
+		scanner.close();
+		IndexMetrics.record(IndexMetrics.Stage.SNIPPET, start);
+		return buffer.toString();
+	}
+	
+	/**
+	 * Helper method that opens a scanner over a file, decoded with the
+	 * charset found by sniffing its first block
+	 * @param f file to be read
+	 * @return Scanner scanner over the text of the file
+	 * @throws IOException if the file could not be read
+	 */
+	private static Scanner openScanner(File f) throws IOException {
+		return new Scanner(FileEncoding.detect(f).openReader(f));
+	}
+	
+	/**
+	 * Helper method that wraps every occurrence of any of the words in a
+	 * line with HTML modifiers. Where words overlap, the longest word
+	 * starting first is wrapped
+	 * @param line the line
+	 * @param lowercaseTerms the words in lower case
+	 * @return String the highlighted line
+	 */
+	private static String highlightAll(String line,
+			List<String> lowercaseTerms) {
+		String lowercaseLine = line.toLowerCase();
+		StringBuilder sb = new StringBuilder(line.length());
+		int from = 0;
+		int[] match;
+		while((match = indexOfAny(lowercaseLine, lowercaseTerms, from))
+				!= null) {
+			int end = match[0] + match[1];
+			sb.append(line, from, match[0]).append(HTML_MODIFIER_START)
+				.append(line, match[0], end).append(HTML_MODIFIER_END);
+			from = end;
+		}
+		return sb.append(line, from, line.length()).toString();
+	}
+	
+	/**
+	 * Helper method that finds the first occurrence of any of the words
+	 * @param lowercaseLine the line in lower case
+	 * @param lowercaseTerms the words in lower case
+	 * @param from index to start searching at
+	 * @return int[] the index and length of the longest word found first,
+	 * or null if none is found
+	 */
+	private static int[] indexOfAny(String lowercaseLine,
+			List<String> lowercaseTerms, int from) {
+		int[] first = null;
+		for(String term : lowercaseTerms) {
+			int index = lowercaseLine.indexOf(term, from);
+			if(index >= 0 && (first == null || index < first[0]
+					|| (index == first[0] && term.length() > first[1]))) {
+				first = new int[] {index, term.length()};
+			}
+		}
+		return first;
+	}
+	
+	/**
+	 * Gets every block of text in which the search query is found, reading
+	 * the file once. Blocks whose lines would overlap are merged into one
+	 * block with more than one query line. Each block is built the same way
+	 * as the block returned by getBuffer(). The line numbers of this object
+	 * are set to those of the first block
+	 * @param f file to be searched
+	 * @param query string to be searched for in the given file
+	 * @param maxHits max number of blocks to return, 0 for no limit
+	 * @return List the blocks found, in file order
+	 */
+	public List<Hit> getHits(File f, String query, int maxHits) {
+		long start = IndexMetrics.start();
+		List<Hit> hits = new ArrayList<Hit>();
+		String lowercaseQuery = query.toLowerCase();
+		Scanner scanner;
 		try {
-			Scanner scanner = new Scanner(f);
-			int lineNum = 0;
+			scanner = openScanner(f);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return hits;
+		}
+		
+		Hit current = null;
+		StringBuilder currentText = null;
+		int linesAfter = 0;
+		int lineNum = 0;
+		previousNLines.clear();
+		
+		while(scanner.hasNextLine()) {
+			String line = scanner.nextLine();
+			String lowercaseLine = line.toLowerCase();
+			lineNum++;
 			
-			while(scanner.hasNextLine()) {
-	//			System.out.println(lineNum + "th run:");
-				//after first line
-				if(lineNum != 0) {
-					//store previous line
-					storeLine(this.previousLine);
-	//				printStoredLines();
+			if(!lowercaseLine.contains(lowercaseQuery)) {
+				//lines below a query line belong to its block
+				if(linesAfter > 0) {
+					currentText.append('\n').append(line);
+					current.endLine = lineNum;
+					linesAfter--;
 				}
-				String line = scanner.nextLine();
-				String lowercaseLine = line.toLowerCase();
-				updatePreviousLine(line);
-	//			System.out.println(line);
-				lineNum++;
-				//if we found the first line containing the queried string
-				if(lowercaseLine.contains(lowercaseQuery)) {
-					//store which line the query was in
-					this.queryLine = lineNum;
-					int countAboveLines = 0;
-					//flush the buffer
-					while(!this.previousNLines.isEmpty()) {
-						bufferedString += (this.previousNLines.remove() 
-							+ "\n");
-						countAboveLines++;
-					}
-					
-					this.startLine = this.queryLine - countAboveLines;
-					
-					//cut up line containing query string in order to highlight
-					int index = lowercaseLine.indexOf(lowercaseQuery);
-					String lineBegin = line.substring(0, index);
-					String lineMiddle = line.substring(index,
-							index + query.length());
-					String lineEnd = line.substring(index + query.length());
-					
-					//wrap query with HTML modifiers to highlight it
-					String total = lineBegin + HTML_MODIFIER_START
-							+ lineMiddle + HTML_MODIFIER_END + lineEnd;
-					//add the buffer line
-					bufferedString += (total + "\n");
-					
-					int countBelowLines = 0;
-					
-					//add the remaining halfTotalLines after
-					for(int i = 0; i < this.halfTotalLines; i++) {
-						if(scanner.hasNextLine()) {
-							String line2 = scanner.nextLine();
-							bufferedString += line2;
-							if(i != this.halfTotalLines - 1) {
-								bufferedString += "\n";
-							}
-							countBelowLines++;
-						}
-						//if EOF is reached, stop writing
-						else {
-							//delete last new line character that we added
-							bufferedString = bufferedString.substring(0,
-									bufferedString.length() - 1);
-							break;
-						}
+				else {
+					storeLine(line);
+					//stop once the last block can no longer grow
+					if(current != null && hits.size() == maxHits
+							&& lineNum - current.endLine >= halfTotalLines) {
+						break;
 					}
-					this.endLine = this.queryLine + countBelowLines;
-					//break after the rest of lines are written
+				}
+				continue;
+			}
+			
+			//join this block to the last one if their lines would overlap
+			boolean merge = current != null
+					&& lineNum - halfTotalLines <= current.endLine;
+			if(!merge) {
+				if(current != null) {
+					current.finish(currentText, halfTotalLines);
+				}
+				if(maxHits > 0 && hits.size() == maxHits) {
 					break;
 				}
+				current = new Hit();
+				currentText = new StringBuilder();
+				current.startLine = lineNum - previousNLines.size();
+				hits.add(current);
 			}
-			scanner.close();
+			//lines between the two blocks, or above a new block
+			boolean firstLine = !merge;
+			while(!previousNLines.isEmpty()) {
+				if(!firstLine) {
+					currentText.append('\n');
+				}
+				currentText.append(previousNLines.remove());
+				firstLine = false;
+			}
+			if(!firstLine) {
+				currentText.append('\n');
+			}
+			currentText.append(highlight(line, lowercaseLine, lowercaseQuery,
+					query));
+			current.queryLines.add(lineNum);
+			current.endLine = lineNum;
+			linesAfter = halfTotalLines;
 		}
-		catch (FileNotFoundException e) {
-			e.printStackTrace();
+		if(current != null && current.buffer == null) {
+			current.finish(currentText, halfTotalLines);
 		}
-		finally {
-	//		System.out.println();
-			return bufferedString;
+		scanner.close();
+		
+		if(!hits.isEmpty()) {
+			Hit first = hits.get(0);
+			setLineNumbers(first.startLine, first.getQueryLine(),
+					first.endLine);
 		}
+		IndexMetrics.record(IndexMetrics.Stage.SNIPPET, start);
+		return hits;
+	}
+	
+	/**
+	 * Helper method that wraps the first occurrence of the query in a line
+	 * with HTML modifiers
+	 * @param line line containing the query
+	 * @param lowercaseLine the line in lower case
+	 * @param lowercaseQuery the query in lower case
+	 * @param query the query as given, for its length
+	 * @return String the highlighted line
+	 */
+	private static String highlight(String line, String lowercaseLine,
+			String lowercaseQuery, String query) {
+		int index = lowercaseLine.indexOf(lowercaseQuery);
+		return line.substring(0, index) + HTML_MODIFIER_START
+				+ line.substring(index, index + query.length())
+				+ HTML_MODIFIER_END + line.substring(index + query.length());
 	}
 	
 	/**
@@ -170,6 +461,26 @@ public class TextBuffer {
 		this.previousLine = line;
 	}
 	
+	/**
+	 * Setter method for the line numbers of a buffer found by a subclass
+	 * @param startLine starting line number
+	 * @param queryLine query line number
+	 * @param endLine ending line number
+	 */
+	void setLineNumbers(int startLine, int queryLine, int endLine) {
+		this.startLine = startLine;
+		this.queryLine = queryLine;
+		this.endLine = endLine;
+	}
+	
+	/**
+	 * Getter method for half the total size of the buffer
+	 * @return int number of lines above and below the query line
+	 */
+	public int getHalfTotalLines() {
+		return this.halfTotalLines;
+	}
+	
 	/**
 	 * Getter method for start line number
 	 * @return int starting line number
@@ -194,4 +505,100 @@ public class TextBuffer {
 		return this.queryLine;
 	}
 	
+	/**
+	 * A block of text returned by getHits(), holding one or more lines that
+	 * contain the query along with the lines around them
+	 * @author Eric Gunn
+	 *
+	 */
+	public static class Hit {
+		
+		private String buffer;
+		private int startLine;
+		private int endLine;
+		private List<Integer> queryLines = new ArrayList<Integer>();
+		
+		/**
+		 * Constructor for a Hit that is filled in while a file is read
+		 */
+		Hit() {}
+		
+		/**
+		 * Constructor for a complete Hit, such as one read back from a
+		 * saved result
+		 * @param buffer lines of the block, separated by new lines
+		 * @param startLine starting line number
+		 * @param endLine ending line number
+		 * @param queryLines line numbers containing the query, at least one
+		 */
+		Hit(String buffer, int startLine, int endLine,
+				List<Integer> queryLines) {
+			this.buffer = buffer;
+			this.startLine = startLine;
+			this.endLine = endLine;
+			this.queryLines = queryLines;
+		}
+		
+		/**
+		 * Helper method that sets the buffer once the block is complete
+		 * @param text lines of the block, separated by new lines
+		 * @param halfTotalLines half the total size of the buffer
+		 */
+		private void finish(StringBuilder text, int halfTotalLines) {
+			//a buffer with no lines around it ends with a new line, the
+			//same as getBuffer()
+			if(halfTotalLines == 0) {
+				text.append('\n');
+			}
+			this.buffer = text.toString();
+		}
+		
+		/**
+		 * Getter method for the block of text
+		 * @return String buffer
+		 */
+		public String getBuffer() {
+			return this.buffer;
+		}
+		
+		/**
+		 * Getter method for start line number
+		 * @return int starting line number
+		 */
+		public int getStartLine() {
+			return this.startLine;
+		}
+		
+		/**
+		 * Getter method for end line number
+		 * @return int ending line number
+		 */
+		public int getEndLine() {
+			return this.endLine;
+		}
+		
+		/**
+		 * Getter method for the first query line number
+		 * @return int first line number containing the query
+		 */
+		public int getQueryLine() {
+			return this.queryLines.get(0);
+		}
+		
+		/**
+		 * Getter method for every query line number in the block
+		 * @return List line numbers containing the query
+		 */
+		public List<Integer> getQueryLines() {
+			return this.queryLines;
+		}
+		
+		/**
+		 * Getter method for number of lines in the block
+		 * @return int number of lines
+		 */
+		public int getNumLines() {
+			return this.endLine - this.startLine + 1;
+		}
+	}
 }
@@ -0,0 +1,32 @@
+package indexer.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this package and writes the results as JSON so
+ * that runs of different builds can be compared. The first argument is the
+ * path of the results file (jmh-results.json by default) and an optional
+ * second argument is a regular expression selecting which benchmarks to run.
+ * @author Eric Gunn
+ *
+ */
+public class BenchmarkRunner {
+	
+	private static final String DEFAULT_RESULTS = "jmh-results.json";
+	
+	public static void main(String[] args) throws Exception {
+		String resultsPath = args.length > 0 ? args[0] : DEFAULT_RESULTS;
+		String include = args.length > 1 ? args[1]
+				: BenchmarkRunner.class.getPackage().getName() + ".*";
+		
+		Options options = new OptionsBuilder()
+				.include(include)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultsPath)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,126 @@
+package indexer.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * This class writes a synthetic corpus of text files for benchmarks. Words
+ * are drawn from a fixed vocabulary with a fixed seed, so the same
+ * parameters always produce the same files. A known word is placed in a
+ * known share of the files so that searches have a predictable number of
+ * hits.
+ * @author Eric Gunn
+ *
+ */
+public class CorpusGenerator {
+	
+	//word found in every NEEDLE_EVERY-th file
+	public static final String NEEDLE = "benchneedle";
+	public static final int NEEDLE_EVERY = 10;
+	public static final String SUFFIX = ".txt";
+	
+	private static final long SEED = 42;
+	private static final int VOCABULARY_SIZE = 5000;
+	private static final int MIN_WORD_LENGTH = 3;
+	private static final int MAX_WORD_LENGTH = 10;
+	private static final int WORDS_PER_LINE = 12;
+	
+	private String[] vocabulary;
+	private Random random;
+	
+	public CorpusGenerator() {
+		this.random = new Random(SEED);
+		this.vocabulary = new String[VOCABULARY_SIZE];
+		for(int i = 0; i < VOCABULARY_SIZE; i++) {
+			int length = MIN_WORD_LENGTH
+					+ random.nextInt(MAX_WORD_LENGTH - MIN_WORD_LENGTH + 1);
+			char[] word = new char[length];
+			for(int j = 0; j < length; j++) {
+				word[j] = (char) ('a' + random.nextInt(26));
+			}
+			this.vocabulary[i] = new String(word);
+		}
+	}
+	
+	/**
+	 * Writes a corpus into a new temporary directory
+	 * @param numFiles number of files to write
+	 * @param fileSize approximate size of each file in bytes
+	 * @return File the directory holding the corpus
+	 * @throws IOException if the files could not be written
+	 */
+	public File generate(int numFiles, int fileSize) throws IOException {
+		File dir = Files.createTempDirectory("corpus").toFile();
+		for(int i = 0; i < numFiles; i++) {
+			writeFile(new File(dir, "file" + i + SUFFIX), fileSize,
+					i % NEEDLE_EVERY == 0);
+		}
+		return dir;
+	}
+	
+	/**
+	 * Writes a single file of words
+	 * @param f file to be written
+	 * @param fileSize approximate size of the file in bytes
+	 * @param withNeedle whether the needle word is placed in the middle
+	 * @return long number of bytes written
+	 * @throws IOException if the file could not be written
+	 */
+	public long writeFile(File f, int fileSize, boolean withNeedle)
+			throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(f));
+		long written = 0;
+		boolean needlePlaced = !withNeedle;
+		while(written < fileSize) {
+			StringBuilder line = new StringBuilder();
+			for(int i = 0; i < WORDS_PER_LINE; i++) {
+				if(i > 0) {
+					line.append(' ');
+				}
+				if(!needlePlaced && written >= fileSize / 2) {
+					line.append(NEEDLE);
+					needlePlaced = true;
+				}
+				else {
+					line.append(vocabulary[random.nextInt(VOCABULARY_SIZE)]);
+				}
+			}
+			line.append('\n');
+			writer.write(line.toString());
+			written += line.length();
+		}
+		writer.close();
+		return written;
+	}
+	
+	/**
+	 * Gets a word that is in the vocabulary, for searches with many hits
+	 * @return String a common word
+	 */
+	public String getCommonWord() {
+		return vocabulary[0];
+	}
+	
+	/**
+	 * Deletes a directory written by generate() and everything in it
+	 * @param dir the directory to be deleted
+	 */
+	public static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File f : files) {
+				if(f.isDirectory()) {
+					delete(f);
+				}
+				else {
+					f.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+}
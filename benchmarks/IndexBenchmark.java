@@ -0,0 +1,94 @@
+package indexer.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexer.Indexer;
+import indexer.IngestionProfile;
+
+/**
+ * Measures how fast Indexer.index builds an index of a synthetic corpus.
+ * Besides the time per run, the docs and bytes counters report documents
+ * per second and bytes per second, for each ingestion profile.
+ * @author Eric Gunn
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark {
+	
+	@Param({"100", "1000"})
+	public int corpusSize;
+	
+	@Param({"4096", "65536"})
+	public int fileSize;
+	
+	@Param({"1"})
+	public int threads;
+	
+	@Param({"DEFAULT", "BULK_LOAD", "LOW_LATENCY_UPDATE", "READ_OPTIMIZED"})
+	public IngestionProfile profile;
+	
+	private File dataDir;
+	private File indexDir;
+	private long corpusBytes;
+	private Indexer indexer;
+	
+	/**
+	 * Documents and bytes indexed, reported by JMH as rates
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long docs;
+		public long bytes;
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Quiet.silence();
+		dataDir = new CorpusGenerator().generate(corpusSize, fileSize);
+		indexDir = Files.createTempDirectory("index").toFile();
+		for(File f : dataDir.listFiles()) {
+			corpusBytes += f.length();
+		}
+		indexer = new Indexer();
+		indexer.setIngestionThreads(threads, threads);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		CorpusGenerator.delete(dataDir);
+		CorpusGenerator.delete(indexDir);
+		Quiet.restore();
+	}
+	
+	@Benchmark
+	public int index(Counters counters) throws Exception {
+		int numDocs = indexer.index(indexDir, dataDir, CorpusGenerator.SUFFIX,
+				profile);
+		counters.docs += numDocs;
+		counters.bytes += corpusBytes;
+		return numDocs;
+	}
+}
@@ -0,0 +1,118 @@
+package indexer.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexer.BinaryResultReader;
+import indexer.BinaryResultWriter;
+import indexer.JsonGenerator;
+import indexer.ResultStruct;
+
+/**
+ * Measures the cost of turning a ResultStruct into JSON, with and without
+ * rendering it to a string, against writing and reading it in the binary
+ * form of BinaryResultWriter.
+ * @author Eric Gunn
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBenchmark {
+	
+	private static final int INDENT = 4;
+	
+	@Param({"100", "10000"})
+	public int numResults;
+	
+	@Param({"3", "10"})
+	public int bufferSize;
+	
+	private ResultStruct results;
+	private JsonGenerator generator;
+	private byte[] binary;
+	private byte[] compressed;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		String[] fileNames = new String[numResults];
+		String[] buffers = new String[numResults];
+		int[] startLines = new int[numResults];
+		int[] endLines = new int[numResults];
+		int[] queryLines = new int[numResults];
+		
+		StringBuilder buffer = new StringBuilder();
+		for(int i = 0; i < bufferSize * 2 + 1; i++) {
+			buffer.append("lorem ipsum dolor sit amet consectetur ")
+				.append(i == bufferSize ? "<b>needle</b>" : "adipiscing")
+				.append('\n');
+		}
+		for(int i = 0; i < numResults; i++) {
+			fileNames[i] = "/data/file" + i + ".txt";
+			buffers[i] = buffer.toString();
+			startLines[i] = 100;
+			queryLines[i] = 100 + bufferSize;
+			endLines[i] = 100 + bufferSize * 2;
+		}
+		results = new ResultStruct(fileNames, buffers, startLines, endLines,
+				queryLines, ".txt", "/data", "needle");
+		generator = new JsonGenerator();
+		binary = writeBinary(false);
+		compressed = writeBinary(true);
+	}
+	
+	@Benchmark
+	public JSONObject generate() {
+		return generator.generate(results);
+	}
+	
+	@Benchmark
+	public String generateAndRender() {
+		return generator.generate(results).toString(INDENT);
+	}
+	
+	@Benchmark
+	public int writeBinary() throws IOException {
+		return writeBinary(false).length;
+	}
+	
+	@Benchmark
+	public int writeCompressedBinary() throws IOException {
+		return writeBinary(true).length;
+	}
+	
+	@Benchmark
+	public ResultStruct readBinary() throws IOException {
+		return BinaryResultReader.read(new ByteArrayInputStream(binary));
+	}
+	
+	@Benchmark
+	public ResultStruct readCompressedBinary() throws IOException {
+		return BinaryResultReader.read(new ByteArrayInputStream(compressed));
+	}
+	
+	private byte[] writeBinary(boolean compress) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryResultWriter.write(results, out, compress);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,44 @@
+package indexer.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Silences console output during benchmarks. The Indexer and searchers
+ * print every file they touch, which would otherwise be measured along with
+ * the work itself.
+ * @author Eric Gunn
+ *
+ */
+public class Quiet {
+	
+	private static final PrintStream NULL = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {}
+	});
+	
+	private static PrintStream original;
+	
+	/**
+	 * Sends console output nowhere until restore() is called
+	 */
+	public static synchronized void silence() {
+		if(original == null) {
+			original = System.out;
+			System.setOut(NULL);
+		}
+	}
+	
+	/**
+	 * Sends console output back to the console
+	 */
+	public static synchronized void restore() {
+		if(original != null) {
+			System.setOut(original);
+			original = null;
+		}
+	}
+}
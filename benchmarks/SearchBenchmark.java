@@ -0,0 +1,104 @@
+package indexer.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexer.Indexer;
+import indexer.ResultStruct;
+import indexer.SearchSession;
+
+/**
+ * Measures search latency on an index of a synthetic corpus, both through a
+ * SearchSession that stays open and through the methods that open the
+ * index per search, and the cost of building result snippets for the hits.
+ * @author Eric Gunn
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+	
+	private static final int MAX_HITS = 100;
+	
+	@Param({"1000"})
+	public int corpusSize;
+	
+	@Param({"4096"})
+	public int fileSize;
+	
+	@Param({"3"})
+	public int bufferSize;
+	
+	private File dataDir;
+	private File indexDir;
+	private Indexer indexer;
+	private SearchSession session;
+	private String needle;
+	private String[] needleHits;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Quiet.silence();
+		dataDir = new CorpusGenerator().generate(corpusSize, fileSize);
+		indexDir = Files.createTempDirectory("index").toFile();
+		indexer = new Indexer();
+		indexer.index(indexDir, dataDir, CorpusGenerator.SUFFIX);
+		session = new SearchSession(indexDir);
+		needle = CorpusGenerator.NEEDLE;
+		needleHits = indexer.searchIndex(session, needle, MAX_HITS);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		session.close();
+		CorpusGenerator.delete(dataDir);
+		CorpusGenerator.delete(indexDir);
+		Quiet.restore();
+	}
+	
+	@Benchmark
+	public String[] searchIndex() throws Exception {
+		return indexer.searchIndex(session, needle, MAX_HITS);
+	}
+	
+	@Benchmark
+	public String[] searchWildcardIndex() throws Exception {
+		return indexer.searchWildcardIndex(session, needle.substring(2, 8),
+				MAX_HITS);
+	}
+	
+	@Benchmark
+	public String[] searchIndexOpenPerQuery() throws Exception {
+		return indexer.searchIndex(indexDir, needle, MAX_HITS);
+	}
+	
+	@Benchmark
+	public ResultStruct snippetsFromFiles() {
+		return indexer.getResultStruct(needleHits, bufferSize, needle);
+	}
+	
+	@Benchmark
+	public ResultStruct snippetsFromIndex() throws Exception {
+		return indexer.getResultStruct(session, needleHits, bufferSize,
+				needle);
+	}
+}
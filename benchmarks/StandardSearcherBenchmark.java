@@ -0,0 +1,79 @@
+package indexer.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexer.ResultStruct;
+import indexer.StandardSearcher;
+
+/**
+ * Measures how fast a StandardSearcher scans a directory without an index.
+ * The files counter reports files scanned per second.
+ * @author Eric Gunn
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StandardSearcherBenchmark {
+	
+	@Param({"1000"})
+	public int corpusSize;
+	
+	@Param({"4096", "65536"})
+	public int fileSize;
+	
+	@Param({"3"})
+	public int bufferSize;
+	
+	@Param({"1", "4"})
+	public int parallelism;
+	
+	private File dataDir;
+	private StandardSearcher searcher;
+	
+	/**
+	 * Files scanned, reported by JMH as a rate
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long files;
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dataDir = new CorpusGenerator().generate(corpusSize, fileSize);
+		searcher = new StandardSearcher(parallelism);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		CorpusGenerator.delete(dataDir);
+	}
+	
+	@Benchmark
+	public ResultStruct getSearchResultStruct(Counters counters) {
+		counters.files += corpusSize;
+		return searcher.getSearchResultStruct(CorpusGenerator.SUFFIX,
+				dataDir.getPath(), bufferSize, CorpusGenerator.NEEDLE);
+	}
+}
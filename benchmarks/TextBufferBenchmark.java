@@ -0,0 +1,81 @@
+package indexer.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexer.MappedTextBuffer;
+import indexer.TextBuffer;
+
+/**
+ * Measures how fast a TextBuffer and a MappedTextBuffer scan a file for a
+ * word placed halfway through it. The bytes counter reports bytes scanned
+ * per second.
+ * @author Eric Gunn
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TextBufferBenchmark {
+	
+	@Param({"65536", "16777216"})
+	public int fileSize;
+	
+	@Param({"0", "3", "10"})
+	public int bufferSize;
+	
+	private File dir;
+	private File file;
+	
+	/**
+	 * Bytes scanned, reported by JMH as a rate
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long bytes;
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = new CorpusGenerator().generate(1, fileSize);
+		file = dir.listFiles()[0];
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		CorpusGenerator.delete(dir);
+	}
+	
+	@Benchmark
+	public String getBuffer(Counters counters) {
+		counters.bytes += file.length() / 2;
+		return new TextBuffer(bufferSize).getBuffer(file,
+				CorpusGenerator.NEEDLE);
+	}
+	
+	@Benchmark
+	public String getMappedBuffer(Counters counters) {
+		counters.bytes += file.length() / 2;
+		return new MappedTextBuffer(bufferSize).getBuffer(file,
+				CorpusGenerator.NEEDLE);
+	}
+}